@@ -5,6 +5,7 @@ import static com.github.argherna.preftool.Constants.SUPPRESS_FLUSH;
 import static com.github.argherna.preftool.Constants.SYSTEM_ROOT;
 import static java.lang.System.Logger.Level.INFO;
 
+import java.util.Base64;
 import java.util.concurrent.Callable;
 import java.util.prefs.Preferences;
 
@@ -58,10 +59,27 @@ public class AddPreferencesKey implements Callable<Void> {
     @Override
     public Void call() throws Exception {
         LOGGER.log(INFO, "Adding key {0} to {1}", key, preferences);
+        put(preferences, key, type, value);
+        return null;
+    }
+
+    /**
+     * Puts a key and value of the given type into a Preferences node. A byte array
+     * value can be given as a {@code byte[]} or as its Base64 encoding.
+     *
+     * @param preferences Preferences to add the key to.
+     * @param key         the key.
+     * @param type        the value's type.
+     * @param value       the value.
+     * @throws IllegalArgumentException if the value can't be converted to the type.
+     * @throws NumberFormatException    if a numeric value can't be parsed.
+     */
+    static void put(Preferences preferences, String key, Class<?> type, Object value) {
         if (type.equals(boolean.class)) {
             preferences.putBoolean(key, Boolean.valueOf(value.toString()));
         } else if (type.equals(byte[].class)) {
-            preferences.putByteArray(key, (byte[]) value);
+            preferences.putByteArray(key,
+                    value instanceof byte[] ? (byte[]) value : Base64.getDecoder().decode(value.toString()));
         } else if (type.equals(double.class)) {
             preferences.putDouble(key, Double.parseDouble(value.toString()));
         } else if (type.equals(float.class)) {
@@ -73,7 +91,6 @@ public class AddPreferencesKey implements Callable<Void> {
         } else {
             preferences.put(key, value.toString());
         }
-        return null;
     }
 
     /**
@@ -107,8 +124,7 @@ public class AddPreferencesKey implements Callable<Void> {
      * <TR>
      * <TD><CODE>byte[]</CODE></TD>
      * <TD><CODE>@byte</CODE></TD>
-     * <TD>byte array (hard to specify on the command line--need to figure this one
-     * out).</TD>
+     * <TD>byte array, given as its Base64 encoding.</TD>
      * </TR>
      * <TR>
      * <TD><CODE>double</CODE></TD>
@@ -247,9 +263,13 @@ public class AddPreferencesKey implements Callable<Void> {
      * @throws IllegalArgumentException if classname is not one of the expected
      *                                  types.
      */
-    private static Class<?> checkClassType(String classname) {
+    static Class<?> checkClassType(String classname) {
         var checkFailed = true;
         Class<?> cls = String.class;
+        if (classname.equals("String")) {
+            checkFailed = false;
+        }
+
         if (classname.equals("boolean") || classname.equals("bool")) {
             checkFailed = false;
             cls = boolean.class;
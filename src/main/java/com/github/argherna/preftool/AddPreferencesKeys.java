@@ -0,0 +1,331 @@
+package com.github.argherna.preftool;
+
+import static com.github.argherna.preftool.Constants.DRY_RUN;
+import static com.github.argherna.preftool.Constants.SUPPRESS_FLUSH;
+import static com.github.argherna.preftool.Constants.SYSTEM_ROOT;
+import static java.lang.System.Logger.Level.INFO;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Invoked to add many keys and values, possibly to many Preferences nodes, in
+ * one pass.
+ *
+ * <P>
+ * Each entry is put as soon as it is read, so entries can be streamed from a
+ * file of any size. Nodes are looked up once no matter how many entries they
+ * get. When all the entries have been put, each affected node is flushed once;
+ * a node is not flushed on its own if an affected ancestor's flush already
+ * covers it.
+ *
+ * @see AddPreferencesKey
+ */
+public class AddPreferencesKeys implements Callable<Integer> {
+
+    private static final System.Logger LOGGER = System.getLogger(AddPreferencesKeys.class.getName());
+
+    private final EntrySource entries;
+
+    private final boolean flush;
+
+    /**
+     * A key and value to add to a Preferences node.
+     */
+    public static final class Entry {
+
+        private final Preferences preferences;
+
+        private final String key;
+
+        private final Class<?> type;
+
+        private final Object value;
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param preferences Preferences to add the key to.
+         * @param key         the key.
+         * @param type        the value's type, as accepted by
+         *                    {@link AddPreferencesKey}.
+         * @param value       the value.
+         * @throws NullPointerException if any argument is null.
+         */
+        public Entry(Preferences preferences, String key, Class<?> type, Object value) {
+            this.preferences = Objects.requireNonNull(preferences, "Preferences cannot be null!");
+            this.key = Objects.requireNonNull(key, "Key cannot be null!");
+            this.type = Objects.requireNonNull(type, "Type cannot be null!");
+            this.value = Objects.requireNonNull(value, "Value cannot be null!");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s:%s %s (%s)", preferences.isUserNode() ? "User" : "System",
+                    preferences.absolutePath(), key, type.getSimpleName());
+        }
+    }
+
+    /**
+     * Supplies entries one at a time.
+     */
+    @FunctionalInterface
+    private interface EntrySource {
+
+        /**
+         * @return the next entry or {@code null} if there are no more.
+         */
+        Entry next() throws IOException;
+    }
+
+    /**
+     * Constructs an AddPreferencesKeys instance that adds the given entries and
+     * flushes.
+     *
+     * @param entries the entries to add.
+     */
+    public AddPreferencesKeys(Collection<Entry> entries) {
+        this(entries, true);
+    }
+
+    /**
+     * Constructs an AddPreferencesKeys instance that adds the given entries.
+     *
+     * @param entries the entries to add.
+     * @param flush   if {@code true}, flush the affected nodes after adding.
+     */
+    public AddPreferencesKeys(Collection<Entry> entries, boolean flush) {
+        Iterator<Entry> iterator = List.copyOf(entries).iterator();
+        this.entries = () -> iterator.hasNext() ? iterator.next() : null;
+        this.flush = flush;
+    }
+
+    /**
+     * Constructs an AddPreferencesKeys instance that adds the entries read from a
+     * reader, one per line.
+     *
+     * <P>
+     * Each line holds a node name, a key, an optional value class and a value,
+     * separated by tabs:
+     *
+     * <PRE>
+     * <CODE>&lt;nodename&gt;\t&lt;keyname&gt;[\t&lt;valueclass&gt;]\t&lt;value&gt;</CODE>
+     * </PRE>
+     *
+     * Node names can be prefixed with <CODE>User:</CODE> or <CODE>System:</CODE>.
+     * The value class is one of the names accepted by
+     * {@link AddPreferencesKey#main(String[])}; without it, the value is a String.
+     * A value containing a tab must be given with a value class. Empty lines and
+     * lines starting with {@code #} are skipped. The reader is not closed.
+     *
+     * @param reader     the reader to read entries from.
+     * @param systemRoot if {@code true}, node names without a prefix are under the
+     *                   system root, otherwise they are under the user root.
+     * @param flush      if {@code true}, flush the affected nodes after adding.
+     */
+    public AddPreferencesKeys(BufferedReader reader, boolean systemRoot, boolean flush) {
+        this.entries = new EntryParser(Objects.requireNonNull(reader, "Reader cannot be null!"), systemRoot);
+        this.flush = flush;
+    }
+
+    /**
+     * Adds the entries and flushes the affected nodes.
+     *
+     * @return the number of keys added.
+     * @throws IOException              if an IOException is thrown reading
+     *                                  entries.
+     * @throws BackingStoreException    if a BackingStoreException is thrown
+     *                                  flushing.
+     * @throws IllegalArgumentException if an entry is malformed or its value
+     *                                  can't be converted to its type.
+     * @see AddPreferencesKey#call()
+     * @see Preferences#flush()
+     */
+    @Override
+    public Integer call() throws IOException, BackingStoreException {
+        Set<Preferences> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+        var count = 0;
+        for (var entry = entries.next(); entry != null; entry = entries.next()) {
+            try {
+                AddPreferencesKey.put(entry.preferences, entry.key, entry.type, entry.value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Could not add %s: %s", entry, e.getMessage()), e);
+            }
+            affected.add(entry.preferences);
+            count++;
+        }
+        LOGGER.log(INFO, "Added {0} keys", count);
+
+        if (flush) {
+            for (var preferences : flushRoots(affected)) {
+                LOGGER.log(INFO, "Flushing {0}", preferences);
+                preferences.flush();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the affected nodes that aren't under another affected node, since
+     * flushing a node also flushes its descendants.
+     */
+    static List<Preferences> flushRoots(Set<Preferences> affected) {
+        var byPath = new HashMap<String, Preferences>();
+        for (var preferences : affected) {
+            byPath.putIfAbsent(addressOf(preferences), preferences);
+        }
+        var roots = new ArrayList<Preferences>();
+        for (var preferences : byPath.values()) {
+            var covered = false;
+            for (var parent = preferences.parent(); parent != null && !covered; parent = parent.parent()) {
+                covered = byPath.containsKey(addressOf(parent));
+            }
+            if (!covered) {
+                roots.add(preferences);
+            }
+        }
+        return roots;
+    }
+
+    private static String addressOf(Preferences preferences) {
+        return (preferences.isUserNode() ? "User:" : "System:") + preferences.absolutePath();
+    }
+
+    /**
+     * Reads entries from tab separated lines, looking each distinct node up once.
+     */
+    private static final class EntryParser implements EntrySource {
+
+        private final BufferedReader reader;
+
+        private final boolean systemRoot;
+
+        private final Map<String, Preferences> nodes = new HashMap<>();
+
+        private int lineNumber;
+
+        EntryParser(BufferedReader reader, boolean systemRoot) {
+            this.reader = reader;
+            this.systemRoot = systemRoot;
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                var fields = line.split("\t", 4);
+                if (fields.length < 3) {
+                    throw new IllegalArgumentException(
+                            String.format("Line %d: expected nodename, keyname and value separated by tabs",
+                                    lineNumber));
+                }
+                Class<?> type = String.class;
+                var value = fields[2];
+                if (fields.length == 4) {
+                    try {
+                        type = AddPreferencesKey.checkClassType(fields[2]);
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException(String.format("Line %d: %s", lineNumber, e.getMessage()));
+                    }
+                    value = fields[3];
+                }
+                var preferences = nodes.computeIfAbsent(fields[0],
+                        nodename -> PreferencesUtilities.getPreferences(nodename, systemRoot));
+                return new Entry(preferences, fields[1], type, value);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Command line access to adding many Preferences keys.
+     *
+     * <P>
+     * Syntax for invoking this utility is:
+     *
+     * <PRE>
+     * <CODE>java [options] \
+     *     com.github.argherna.preftool.AddPreferencesKeys [options]</CODE>
+     * </PRE>
+     *
+     * <P>
+     * Entries are read from {@link System#in} unless a file is given. The format
+     * of the entries is described in
+     * {@link #AddPreferencesKeys(BufferedReader, boolean, boolean)}.
+     *
+     * <P>
+     * The command line options used are:
+     * <DL>
+     * <DT><CODE>-f &lt;entries-file&gt;</CODE>
+     * <DD>Name of a UTF-8 file to read entries from. Use <CODE>-</CODE> for
+     * {@link System#in}.
+     * </DL>
+     *
+     * <P>
+     * The system properties you can set are:
+     * <DL>
+     * <DT><CODE>com.github.argherna.preftool.dryRun</CODE>
+     * <DD>If <CODE>true</CODE>, do not read or add anything but print the name of
+     * the class, root and file name and exit with status <CODE>2</CODE>.
+     * <DT><CODE>com.github.argherna.preftool.systemRoot</CODE>
+     * <DD>If <CODE>true</CODE>, node names without a root prefix are under the
+     * system root. By default, they are under the user root.
+     * <DT><CODE>com.github.argherna.preftool.suppressFlush</CODE>
+     * <DD>If <CODE>true</CODE>, do not flush (commit) the changes. Default action
+     * is to flush each affected node once, after all entries are added.
+     * </DL>
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+
+        var filename = "-";
+        var argsCount = 0;
+        while (argsCount < args.length) {
+            var arg = args[argsCount];
+            if (arg.equals("-f") && argsCount + 1 < args.length) {
+                filename = args[++argsCount];
+            } else {
+                System.err.printf("Unsupported arg \"%s\"%n", arg);
+                System.err.printf("Usage: %s [-f <entries-file>]%n", AddPreferencesKeys.class.getName());
+                System.exit(1);
+            }
+            argsCount++;
+        }
+
+        if (DRY_RUN) {
+            var root = SYSTEM_ROOT ? "system" : "user";
+            var fname = filename.equals("-") ? "<stdin>" : filename;
+            System.err.printf("%s Dry Run: root=%s,filename=%s%n", AddPreferencesKeys.class, root, fname);
+            System.exit(2);
+        }
+
+        try (var reader = new BufferedReader(new InputStreamReader(
+                filename.equals("-") ? System.in : new FileInputStream(filename), UTF_8))) {
+            new AddPreferencesKeys(reader, SYSTEM_ROOT, !SUPPRESS_FLUSH).call();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
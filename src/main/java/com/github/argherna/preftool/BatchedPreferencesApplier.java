@@ -0,0 +1,252 @@
+package com.github.argherna.preftool;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * A PreferencesHandler that writes the nodes it is handed to a user and a
+ * system root in batches, flushing each batch to the backing store, and reports
+ * its progress after every flush.
+ *
+ * <P>
+ * The keys of up to a batch of nodes are held until the batch is full, then put
+ * and flushed with one {@link Preferences#flush()} of the nearest node that
+ * holds them all. A batch only holds nodes from one top-level subtree of a root,
+ * so that node is never the root itself unless the root's own keys are in the
+ * batch. A removed node is removed when it is reached, after the nodes before
+ * it have been put, and flushed with the batch it falls in.
+ *
+ * <P>
+ * The result is the same as with a {@link PreferencesApplier}; only the number
+ * of flushes differs.
+ */
+public class BatchedPreferencesApplier implements PreferencesHandler {
+
+    private final Preferences userRoot;
+
+    private final Preferences systemRoot;
+
+    private final int batchSize;
+
+    private final LongSupplier bytesRead;
+
+    private final Consumer<ImportProgress> progress;
+
+    private final long start = System.nanoTime();
+
+    private final List<NodeWrite> batch = new ArrayList<>();
+
+    private NodeResolver resolver;
+
+    private NodeWrite current;
+
+    private String subtree;
+
+    private String flushPath;
+
+    private long nodes;
+
+    private long keys;
+
+    /**
+     * Constructs a BatchedPreferencesApplier that writes to the JDK's user and
+     * system roots.
+     *
+     * @param batchSize the number of nodes to write between flushes.
+     * @param bytesRead returns the number of bytes of input read so far, for the
+     *                  progress reports.
+     * @param progress  receives a report after every flush, or {@code null}.
+     * @throws NullPointerException     if bytesRead is null.
+     * @throws IllegalArgumentException if batchSize is less than 1.
+     */
+    public BatchedPreferencesApplier(int batchSize, LongSupplier bytesRead, Consumer<ImportProgress> progress) {
+        this(Preferences.userRoot(), Preferences.systemRoot(), batchSize, bytesRead, progress);
+    }
+
+    /**
+     * Constructs a BatchedPreferencesApplier.
+     *
+     * @param userRoot   node to write nodes under a user root to.
+     * @param systemRoot node to write nodes under a system root to.
+     * @param batchSize  the number of nodes to write between flushes.
+     * @param bytesRead  returns the number of bytes of input read so far, for the
+     *                   progress reports.
+     * @param progress   receives a report after every flush, or {@code null}.
+     * @throws NullPointerException     if either root or bytesRead is null.
+     * @throws IllegalArgumentException if batchSize is less than 1.
+     */
+    public BatchedPreferencesApplier(Preferences userRoot, Preferences systemRoot, int batchSize,
+            LongSupplier bytesRead, Consumer<ImportProgress> progress) {
+        this.userRoot = Objects.requireNonNull(userRoot, "User root cannot be null!");
+        this.systemRoot = Objects.requireNonNull(systemRoot, "System root cannot be null!");
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Batch size must be at least 1 (was given %d)", batchSize));
+        }
+        this.batchSize = batchSize;
+        this.bytesRead = Objects.requireNonNull(bytesRead, "Bytes read supplier cannot be null!");
+        this.progress = progress;
+    }
+
+    @Override
+    public void startRoot(String type) throws BackingStoreException {
+        flush();
+        resolver = new NodeResolver(type.equals("system") ? systemRoot : userRoot);
+    }
+
+    @Override
+    public void startNode(String path) throws BackingStoreException {
+        if (resolver == null) {
+            startRoot("user");
+        }
+        enterSubtree(path);
+        current = new NodeWrite(path);
+    }
+
+    @Override
+    public void entry(String key, String value) {
+        current.keys.add(key);
+        current.values.add(value);
+    }
+
+    @Override
+    public void removeKey(String key) {
+        current.removedKeys.add(key);
+    }
+
+    @Override
+    public void endNode(String path) throws BackingStoreException {
+        batch.add(current);
+        current = null;
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void removeNode(String path) throws BackingStoreException {
+        if (resolver == null) {
+            startRoot("user");
+        }
+        enterSubtree(path);
+        put();
+        var node = resolver.find(path);
+        if (node != null) {
+            node.removeNode();
+            nodes++;
+            // don't leave the removed node in the resolver's chain
+            var parent = path.substring(0, path.lastIndexOf('/'));
+            touch(resolver.resolve(parent.isEmpty() ? "/" : parent).absolutePath());
+        }
+    }
+
+    @Override
+    public void endRoot(String type) throws BackingStoreException {
+        flush();
+    }
+
+    @Override
+    public void endDocument() throws BackingStoreException {
+        flush();
+    }
+
+    /**
+     * Returns the progress so far.
+     *
+     * @return the nodes and keys applied, bytes read and time taken so far.
+     */
+    public ImportProgress getProgress() {
+        return new ImportProgress(nodes, keys, bytesRead.getAsLong(), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Flushes the batch first if the path is in a different top-level subtree.
+     */
+    private void enterSubtree(String path) throws BackingStoreException {
+        var segments = NodeResolver.segments(path);
+        var topLevel = segments.length == 0 ? "" : segments[0];
+        if (subtree != null && !subtree.equals(topLevel)) {
+            flush();
+        }
+        subtree = topLevel;
+    }
+
+    /**
+     * Puts the keys of the nodes in the batch.
+     */
+    private void put() {
+        for (var write : batch) {
+            var node = resolver.resolve(write.path);
+            for (var i = 0; i < write.keys.size(); i++) {
+                node.put(write.keys.get(i), write.values.get(i));
+            }
+            for (var key : write.removedKeys) {
+                node.remove(key);
+            }
+            nodes++;
+            keys += write.keys.size() + write.removedKeys.size();
+            touch(write.path);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Puts the keys of the nodes in the batch, flushes everything written since
+     * the last flush and reports the progress.
+     */
+    private void flush() throws BackingStoreException {
+        put();
+        if (flushPath != null) {
+            var node = resolver.find(flushPath);
+            (node == null ? resolver.resolve("/") : node).flush();
+            flushPath = null;
+            if (progress != null) {
+                progress.accept(getProgress());
+            }
+        }
+        subtree = null;
+    }
+
+    /**
+     * Widens the path to flush so it holds the given path.
+     */
+    private void touch(String path) {
+        if (flushPath == null) {
+            flushPath = path;
+            return;
+        }
+        var a = NodeResolver.segments(flushPath);
+        var b = NodeResolver.segments(path);
+        var common = 0;
+        while (common < a.length && common < b.length && a[common].equals(b[common])) {
+            common++;
+        }
+        if (common < a.length) {
+            flushPath = "/" + String.join("/", List.of(a).subList(0, common));
+        }
+    }
+
+    /**
+     * The keys to put into and remove from one node.
+     */
+    private static final class NodeWrite {
+
+        private final String path;
+
+        private final List<String> keys = new ArrayList<>();
+
+        private final List<String> values = new ArrayList<>();
+
+        private final List<String> removedKeys = new ArrayList<>();
+
+        NodeWrite(String path) {
+            this.path = path;
+        }
+    }
+}
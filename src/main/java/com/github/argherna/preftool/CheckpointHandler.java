@@ -0,0 +1,153 @@
+package com.github.argherna.preftool;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.prefs.BackingStoreException;
+
+/**
+ * Passes events on to another handler, keeping track of the last node passed on
+ * so a checkpoint can be made, and drops the nodes a checkpoint says were
+ * already applied.
+ *
+ * <P>
+ * Nodes are counted as they end or are removed. When resuming without seeking,
+ * the nodes up to the checkpoint's count are dropped and the last of them has
+ * to be the checkpoint's node, or the input isn't the one the checkpoint was
+ * made from.
+ */
+final class CheckpointHandler implements PreferencesHandler {
+
+    private final PreferencesHandler handler;
+
+    private final LongSupplier offset;
+
+    private final long skip;
+
+    private final ImportCheckpoint from;
+
+    private long nodes;
+
+    private String rootType = "user";
+
+    private long completed;
+
+    private String completedRoot;
+
+    private String completedPath;
+
+    private long completedOffset = -1;
+
+    /**
+     * @param handler the handler to pass events on to.
+     * @param from    the checkpoint to resume from, or {@code null}.
+     * @param seeked  if {@code true}, reading starts after the checkpoint's node,
+     *                otherwise at the start of the input.
+     * @param offset  returns the offset in the input where the records after the
+     *                node being passed on start, or {@code null} if reading can't
+     *                start part way through.
+     */
+    CheckpointHandler(PreferencesHandler handler, ImportCheckpoint from, boolean seeked, LongSupplier offset) {
+        this.handler = Objects.requireNonNull(handler, "Handler cannot be null!");
+        this.offset = offset;
+        this.from = from;
+        if (from != null) {
+            this.skip = from.getNodes();
+            this.nodes = seeked ? from.getNodes() : 0;
+            this.completed = from.getNodes();
+            this.completedRoot = from.getRootType();
+            this.completedPath = from.getPath();
+            this.completedOffset = from.getOffset();
+        } else {
+            this.skip = 0;
+        }
+    }
+
+    /**
+     * Returns a checkpoint after the last node passed on.
+     *
+     * @param inputSize     the size of the input file in bytes.
+     * @param inputModified the modification time of the input file.
+     * @return the checkpoint, or {@code null} if no node has been passed on.
+     */
+    ImportCheckpoint checkpoint(long inputSize, long inputModified) {
+        return completedPath == null ? null
+                : new ImportCheckpoint(inputSize, inputModified, completed, completedRoot, completedPath,
+                        completedOffset);
+    }
+
+    @Override
+    public void startRoot(String type) throws IOException, BackingStoreException {
+        rootType = type;
+        handler.startRoot(type);
+    }
+
+    @Override
+    public void startNode(String path) throws IOException, BackingStoreException {
+        if (nodes >= skip) {
+            handler.startNode(path);
+        }
+    }
+
+    @Override
+    public void entry(String key, String value) throws IOException, BackingStoreException {
+        if (nodes >= skip) {
+            handler.entry(key, value);
+        }
+    }
+
+    @Override
+    public void removeKey(String key) throws IOException, BackingStoreException {
+        if (nodes >= skip) {
+            handler.removeKey(key);
+        }
+    }
+
+    @Override
+    public void endNode(String path) throws IOException, BackingStoreException {
+        if (++nodes <= skip) {
+            verify(path);
+            return;
+        }
+        complete(path);
+        handler.endNode(path);
+    }
+
+    @Override
+    public void removeNode(String path) throws IOException, BackingStoreException {
+        if (++nodes <= skip) {
+            verify(path);
+            return;
+        }
+        handler.removeNode(path);
+        complete(path);
+    }
+
+    @Override
+    public void endRoot(String type) throws IOException, BackingStoreException {
+        handler.endRoot(type);
+    }
+
+    @Override
+    public void endDocument() throws IOException, BackingStoreException {
+        if (nodes < skip) {
+            throw new IllegalStateException(
+                    String.format("Input ends after %,d nodes, before the checkpoint (%s)", nodes, from));
+        }
+        handler.endDocument();
+    }
+
+    private void verify(String path) {
+        if (nodes == skip && !(rootType.equals(from.getRootType()) && path.equals(from.getPath()))) {
+            throw new IllegalStateException(String.format("Input doesn't match the checkpoint (%s): node %,d is %s:%s",
+                    from, nodes, rootType, path));
+        }
+    }
+
+    private void complete(String path) {
+        completed = nodes;
+        completedRoot = rootType;
+        completedPath = path;
+        completedOffset = offset == null ? -1 : offset.getAsLong();
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.argherna.preftool;
+
+import java.io.BufferedInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression applied to exported Preferences and detected on import.
+ *
+ * <P>
+ * Compressed output is produced while the export is written, never after. On
+ * import, the compression is recognized from the first bytes of the stream, so
+ * compressed and uncompressed files (or {@link System#in}) can be read the same
+ * way.
+ */
+public enum Compression {
+
+    /** No compression. */
+    NONE,
+
+    /** gzip format (RFC 1952), as written by {@code gzip}. */
+    GZIP,
+
+    /** zlib-wrapped deflate format (RFC 1950). */
+    DEFLATE;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returns a stream that compresses what is written to it and writes the result
+     * to the given stream.
+     *
+     * <P>
+     * Closing the returned stream finishes the compressed data and flushes the
+     * given stream but does not close it.
+     *
+     * @param outputStream the stream to write compressed data to.
+     * @return the compressing stream.
+     * @throws IOException if an IOException occurs writing a header.
+     */
+    public OutputStream compress(OutputStream outputStream) throws IOException {
+        var target = new UnclosableOutputStream(outputStream);
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(target, BUFFER_SIZE);
+            case DEFLATE:
+                return new DeflaterOutputStream(target, new Deflater(), BUFFER_SIZE) {
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            def.end();
+                        }
+                    }
+                };
+            default:
+                return target;
+        }
+    }
+
+    /**
+     * Returns a stream that reads the given stream, decompressing it if it starts
+     * with a gzip or zlib header.
+     *
+     * <P>
+     * The returned stream supports {@link InputStream#mark(int)}. Closing it closes
+     * the given stream.
+     *
+     * @param inputStream the stream to read.
+     * @return the (possibly) decompressing stream.
+     * @throws IOException if an IOException occurs reading the header.
+     */
+    public static InputStream decompress(InputStream inputStream) throws IOException {
+        var in = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream, BUFFER_SIZE);
+        switch (detect(in)) {
+            case GZIP:
+                return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+            case DEFLATE:
+                return new BufferedInputStream(new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inf.end();
+                        }
+                    }
+                }, BUFFER_SIZE);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * Returns the compression of a stream from its first two bytes. The stream's
+     * position is not changed.
+     *
+     * @param inputStream a stream that supports {@link InputStream#mark(int)}.
+     * @return the compression detected.
+     * @throws IOException if an IOException occurs reading.
+     */
+    static Compression detect(InputStream inputStream) throws IOException {
+        inputStream.mark(2);
+        var first = inputStream.read();
+        var second = inputStream.read();
+        inputStream.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return GZIP;
+        }
+        // CM = 8 (deflate), window size no larger than 32K, FCHECK valid
+        if (first != -1 && second != -1 && (first & 0x0f) == 8 && (first >> 4) <= 7
+                && ((first << 8) | second) % 31 == 0) {
+            return DEFLATE;
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the compression named, ignoring case.
+     *
+     * @param name {@code none}, {@code gzip} or {@code deflate}.
+     * @return the compression.
+     * @throws IllegalArgumentException if the name isn't one of the above.
+     */
+    public static Compression forName(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Compression must be \"none\", \"gzip\" or \"deflate\" (was given \"%s\")", name));
+        }
+    }
+
+    /**
+     * Returns the compression a file name suggests: {@link #GZIP} for names ending
+     * with {@code .gz}, {@link #DEFLATE} for names ending with {@code .zz} or
+     * {@code .deflate}, and {@link #NONE} for anything else.
+     *
+     * @param fileName the file name.
+     * @return the compression.
+     */
+    public static Compression forFileName(String fileName) {
+        var name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            return GZIP;
+        } else if (name.endsWith(".zz") || name.endsWith(".deflate")) {
+            return DEFLATE;
+        }
+        return NONE;
+    }
+
+    /**
+     * Passes writes through to a stream, flushing it instead of closing it.
+     */
+    private static final class UnclosableOutputStream extends FilterOutputStream {
+
+        UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.github.argherna.preftool;
+
+import static java.lang.System.Logger.Level.INFO;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Predicate;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Invoked to copy a Preferences subtree to another node using a fork-join pool.
+ *
+ * <P>
+ * Sibling subtrees of the source are read concurrently. Every node read is
+ * handed to a single writer thread through a bounded queue so the destination
+ * is written by one thread only and readers can't get too far ahead of it.
+ * Each source node is a task that completes without waiting on its children,
+ * so the depth of the tree doesn't affect the depth of any thread's stack.
+ *
+ * <P>
+ * Node and key filters are applied while reading; source nodes that aren't
+ * accepted are never read and neither are their subtrees. All of a node's keys
+ * are written to the destination together and the destination is flushed once,
+ * after the whole subtree has been copied.
+ *
+ * <P>
+ * If reading or writing fails, the writer stops taking nodes and no more are
+ * read. The copy waits for the reads already started to finish before it
+ * reports the failure, so no reader thread is left behind.
+ *
+ * @see PreferencesUtilities#copy(Preferences, Preferences, int)
+ * @see PreferencesUtilities#copy(Preferences, Preferences, Predicate, Predicate)
+ */
+public class CopyPreferences implements Callable<CopyPreferences.Statistics> {
+
+    private static final System.Logger LOGGER = System.getLogger(CopyPreferences.class.getName());
+
+    private static final int WRITE_QUEUE_CAPACITY = 256;
+
+    /** The prefix of the names of the threads reading the source. */
+    static final String READER_THREAD_PREFIX = CopyPreferences.class.getSimpleName() + "-reader-";
+
+    private final Preferences source;
+
+    private final Preferences destination;
+
+    private final int parallelism;
+
+    private final Predicate<String> nodeFilter;
+
+    private final Predicate<String> keyFilter;
+
+    /**
+     * Constructs a CopyPreferences instance that reads with one thread per
+     * available processor.
+     *
+     * @param source      the Preferences node whose subtree is to be copied.
+     * @param destination the Preferences node to copy to.
+     */
+    public CopyPreferences(Preferences source, Preferences destination) {
+        this(source, destination, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a CopyPreferences instance.
+     *
+     * @param source      the Preferences node whose subtree is to be copied.
+     * @param destination the Preferences node to copy to.
+     * @param parallelism the number of threads reading the source.
+     * @throws NullPointerException     if source or destination are null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public CopyPreferences(Preferences source, Preferences destination, int parallelism) {
+        this(source, destination, parallelism, name -> true, name -> true);
+    }
+
+    /**
+     * Constructs a CopyPreferences instance that copies only the nodes and keys
+     * accepted by the given filters.
+     *
+     * @param source      the Preferences node whose subtree is to be copied.
+     * @param destination the Preferences node to copy to.
+     * @param parallelism the number of threads reading the source.
+     * @param nodeFilter  accepts the absolute paths of source nodes to copy.
+     * @param keyFilter   accepts the names of keys to copy.
+     * @throws NullPointerException     if any argument is null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public CopyPreferences(Preferences source, Preferences destination, int parallelism,
+            Predicate<String> nodeFilter, Predicate<String> keyFilter) {
+        this.source = Objects.requireNonNull(source, "Source Preferences cannot be null!");
+        this.destination = Objects.requireNonNull(destination, "Destination Preferences cannot be null!");
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Parallelism must be at least 1 (was given %d)", parallelism));
+        }
+        this.parallelism = parallelism;
+        this.nodeFilter = Objects.requireNonNull(nodeFilter, "Node filter cannot be null!");
+        this.keyFilter = Objects.requireNonNull(keyFilter, "Key filter cannot be null!");
+    }
+
+    /**
+     * Performs the copy.
+     *
+     * @return the number of nodes and keys copied and how long it took.
+     * @throws BackingStoreException if a BackingStoreException is thrown reading
+     *                               the source or writing the destination, or if
+     *                               the copy is interrupted.
+     */
+    @Override
+    public Statistics call() throws BackingStoreException {
+        LOGGER.log(INFO, "Copying {0} to {1} with parallelism {2}", source, destination, parallelism);
+        var start = System.nanoTime();
+        if (!nodeFilter.test(source.absolutePath())) {
+            return new Statistics(0, 0, System.nanoTime() - start);
+        }
+
+        var writer = new NodeWriter(destination);
+        var writerThread = new Thread(writer, getClass().getSimpleName() + "-writer");
+        writerThread.start();
+
+        var pool = new ForkJoinPool(parallelism, CopyPreferences::newReaderThread, null, false);
+        RuntimeException readFailure = null;
+        try {
+            pool.invoke(new NodeCopyTask(null, source, new WriteRequest(null, ""), this, writer));
+        } catch (RuntimeException e) {
+            // sibling tasks may still be reading; stop them queueing more
+            readFailure = e;
+            writer.close();
+        } finally {
+            pool.shutdown();
+            PreferencesUtilities.awaitTermination(pool);
+            writer.finish();
+        }
+
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BackingStoreException(e);
+        }
+        if (readFailure != null) {
+            throw PreferencesUtilities.unwrap(readFailure);
+        }
+        if (writer.failure != null) {
+            throw writer.failure;
+        }
+        destination.flush();
+
+        var statistics = new Statistics(writer.nodes, writer.keys, System.nanoTime() - start);
+        LOGGER.log(INFO, "{0}", statistics);
+        return statistics;
+    }
+
+    private static ForkJoinWorkerThread newReaderThread(ForkJoinPool pool) {
+        var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName(READER_THREAD_PREFIX + thread.getPoolIndex());
+        return thread;
+    }
+
+    /**
+     * Counts of what was copied and how long it took.
+     */
+    public static final class Statistics {
+
+        private final long nodes;
+
+        private final long keys;
+
+        private final long elapsedNanos;
+
+        Statistics(long nodes, long keys, long elapsedNanos) {
+            this.nodes = nodes;
+            this.keys = keys;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the number of nodes copied.
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return the number of keys copied.
+         */
+        public long getKeys() {
+            return keys;
+        }
+
+        /**
+         * @return the time the copy took in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return the number of nodes copied per second.
+         */
+        public double getNodesPerSecond() {
+            return perSecond(nodes);
+        }
+
+        /**
+         * @return the number of keys copied per second.
+         */
+        public double getKeysPerSecond() {
+            return perSecond(keys);
+        }
+
+        private double perSecond(long count) {
+            return elapsedNanos == 0 ? 0.0 : count * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Copied %d nodes and %d keys in %.3f s (%.1f nodes/s, %.1f keys/s)", nodes, keys,
+                    elapsedNanos / 1_000_000_000.0, getNodesPerSecond(), getKeysPerSecond());
+        }
+    }
+
+    /**
+     * Reads one source node, hands it to the writer and forks a task for each of
+     * its children. The task completes when all of its children have.
+     */
+    private static final class NodeCopyTask extends CountedCompleter<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Preferences node;
+
+        private final transient WriteRequest request;
+
+        private final transient CopyPreferences copy;
+
+        private final transient NodeWriter writer;
+
+        NodeCopyTask(NodeCopyTask parent, Preferences node, WriteRequest request, CopyPreferences copy,
+                NodeWriter writer) {
+            super(parent);
+            this.node = node;
+            this.request = request;
+            this.copy = copy;
+            this.writer = writer;
+        }
+
+        @Override
+        public void compute() {
+            try {
+                var snapshot = PreferencesUtilities.snapshot(node, copy.keyFilter);
+                request.snapshot = snapshot;
+                if (!writer.submit(request)) {
+                    // the copy has failed; don't read the subtree
+                    tryComplete();
+                    return;
+                }
+                for (var childName : node.childrenNames()) {
+                    if (copy.nodeFilter.test(PreferencesUtilities.childPath(snapshot.getAbsolutePath(), childName))) {
+                        addToPendingCount(1);
+                        new NodeCopyTask(this, node.node(childName), new WriteRequest(request, childName), copy,
+                                writer).fork();
+                    }
+                }
+            } catch (BackingStoreException e) {
+                throw new CompletionException(e);
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * Single consumer of the write queue. Once a write fails or the writer is
+     * closed, nodes are no longer queued and the ones already queued are drained
+     * without writing, so readers are never left blocked on a full queue.
+     */
+    private static final class NodeWriter implements Runnable {
+
+        private static final WriteRequest END = new WriteRequest(null, "");
+
+        private final BlockingQueue<WriteRequest> queue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+
+        private final Preferences destination;
+
+        private long nodes;
+
+        private long keys;
+
+        private BackingStoreException failure;
+
+        private volatile boolean closed;
+
+        NodeWriter(Preferences destination) {
+            this.destination = destination;
+        }
+
+        /**
+         * Queues a node to be written, blocking (in a way the fork-join pool can
+         * compensate for) while the queue is full.
+         *
+         * @return {@code false} if the writer is closed and the node was dropped.
+         */
+        boolean submit(WriteRequest request) {
+            if (closed) {
+                return false;
+            }
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+                    private boolean queued;
+
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        queue.put(request);
+                        queued = true;
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return queued || (queued = queue.offer(request));
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(new BackingStoreException(e));
+            }
+            return true;
+        }
+
+        /**
+         * Stops queueing and writing nodes. The queue is still drained until
+         * {@link #finish()}.
+         */
+        void close() {
+            closed = true;
+        }
+
+        /**
+         * Tells the writer no more nodes are coming. Only called once no reader can
+         * queue another node.
+         */
+        void finish() {
+            var finished = false;
+            while (!finished) {
+                try {
+                    queue.put(END);
+                    finished = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                WriteRequest request;
+                try {
+                    request = queue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (request == END) {
+                    return;
+                }
+                if (!closed) {
+                    write(request);
+                }
+            }
+        }
+
+        private void write(WriteRequest request) {
+            try {
+                var node = request.parent == null ? destination
+                        : request.parent.destinationNode.node(request.name);
+                var snapshot = request.snapshot;
+                for (var i = 0; i < snapshot.size(); i++) {
+                    node.put(snapshot.getKey(i), snapshot.getValue(i));
+                }
+                request.destinationNode = node;
+                request.snapshot = null;
+                nodes++;
+                keys += snapshot.size();
+            } catch (RuntimeException | Error e) {
+                failure = new BackingStoreException(e);
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * A node read from the source, waiting to be written to the destination.
+     *
+     * <P>
+     * Parents are always queued before their children, so by the time the writer
+     * gets to a request its parent's destination node has been resolved and the
+     * child can be looked up by name instead of by (recursively resolved) path.
+     */
+    private static final class WriteRequest {
+
+        private final WriteRequest parent;
+
+        private final String name;
+
+        private NodeSnapshot snapshot;
+
+        /** Only read and written by the writer thread. */
+        private Preferences destinationNode;
+
+        WriteRequest(WriteRequest parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.github.argherna.preftool;
+
+import static com.github.argherna.preftool.Constants.DRY_RUN;
+import static com.github.argherna.preftool.Constants.SYSTEM_ROOT;
+import static java.lang.System.Logger.Level.INFO;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Invoked to compute a content digest for every node in a Preferences subtree.
+ *
+ * <P>
+ * The digest of a node is a SHA-256 hash of its sorted keys and values followed
+ * by the sorted names and digests of its children, so a node's digest changes
+ * if and only if something in its subtree changed. Digests can be stored in a
+ * sidecar index file and compared with a later run to find what changed without
+ * looking inside subtrees whose digests are the same.
+ */
+public class DigestPreferences implements Callable<SortedMap<String, String>> {
+
+    private static final System.Logger LOGGER = System.getLogger(DigestPreferences.class.getName());
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Preferences preferences;
+
+    /**
+     * Constructs a DigestPreferences instance.
+     *
+     * @param preferences the Preferences node whose subtree is to be digested.
+     * @throws NullPointerException if preferences is null.
+     */
+    public DigestPreferences(Preferences preferences) {
+        this.preferences = Objects.requireNonNull(preferences, "Preferences to digest cannot be null!");
+    }
+
+    /**
+     * Computes the digests.
+     *
+     * <P>
+     * The subtree is walked with an explicit stack so deep trees don't exhaust the
+     * call stack; only one node's children names are held per level.
+     *
+     * @return digests as lower case hex strings, keyed by absolute node path.
+     * @throws BackingStoreException if a BackingStoreException is thrown.
+     */
+    @Override
+    public SortedMap<String, String> call() throws BackingStoreException {
+        LOGGER.log(INFO, "Computing digests for {0}", preferences);
+        var digests = new TreeMap<String, String>();
+        var pending = new ArrayDeque<Frame>();
+        pending.push(new Frame(preferences, null));
+        while (!pending.isEmpty()) {
+            var frame = pending.peek();
+            if (frame.nextChild < frame.childrenNames.length) {
+                var childName = frame.childrenNames[frame.nextChild++];
+                pending.push(new Frame(frame.node.node(childName), childName));
+            } else {
+                pending.pop();
+                var digest = frame.messageDigest.digest();
+                digests.put(frame.node.absolutePath(), toHex(digest));
+                var parent = pending.peek();
+                if (parent != null) {
+                    update(parent.messageDigest, frame.name);
+                    parent.messageDigest.update(digest);
+                }
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Returns the paths of nodes whose digests differ between {@code previous} and
+     * {@code current}, starting at {@code path}. Subtrees whose digests are equal
+     * are not looked into.
+     *
+     * <P>
+     * Each path is prefixed with {@code A} (added), {@code D} (deleted) or
+     * {@code M} (modified) and a space. A node is reported as modified when its
+     * own keys or anything below it changed.
+     *
+     * @param path     the absolute path to start comparing at.
+     * @param previous the previous digests.
+     * @param current  the current digests.
+     * @return the changed paths in sorted order.
+     */
+    public static List<String> changedPaths(String path, SortedMap<String, String> previous,
+            SortedMap<String, String> current) {
+        var changed = new ArrayList<String>();
+        var pending = new ArrayDeque<String>();
+        pending.push(path);
+        while (!pending.isEmpty()) {
+            var nodePath = pending.pop();
+            var before = previous.get(nodePath);
+            var after = current.get(nodePath);
+            if (Objects.equals(before, after)) {
+                continue;
+            }
+            changed.add((before == null ? "A " : after == null ? "D " : "M ") + nodePath);
+
+            var children = new TreeSet<String>();
+            addChildren(previous, nodePath, children);
+            addChildren(current, nodePath, children);
+            for (var child : children.descendingSet()) {
+                pending.push(child);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Reads digests from an index file written by
+     * {@link #storeIndex(SortedMap, Path, String)}.
+     *
+     * @param indexFile the index file.
+     * @return digests keyed by absolute node path.
+     * @throws IOException if an IOException occurs.
+     */
+    public static SortedMap<String, String> loadIndex(Path indexFile) throws IOException {
+        var properties = new Properties();
+        try (InputStream in = Files.newInputStream(indexFile)) {
+            properties.load(in);
+        }
+        var digests = new TreeMap<String, String>();
+        for (var name : properties.stringPropertyNames()) {
+            digests.put(name, properties.getProperty(name));
+        }
+        return digests;
+    }
+
+    /**
+     * Writes digests to an index file.
+     *
+     * @param digests   digests keyed by absolute node path.
+     * @param indexFile the index file.
+     * @param comment   comment to write at the top of the file.
+     * @throws IOException if an IOException occurs.
+     */
+    public static void storeIndex(SortedMap<String, String> digests, Path indexFile, String comment)
+            throws IOException {
+        var properties = new Properties();
+        properties.putAll(digests);
+        try (OutputStream out = Files.newOutputStream(indexFile)) {
+            properties.store(out, comment);
+        }
+    }
+
+    /**
+     * Command line access to computing Preferences digests.
+     *
+     * <P>
+     * Syntax for invoking this utility is:
+     *
+     * <PRE>
+     * <CODE>java [options] \
+     *     com.github.argherna.preftool.DigestPreferences [options] [args]</CODE>
+     * </PRE>
+     *
+     * <P>
+     * The digest of the named node is printed to {@link System#out} followed by the
+     * name of the node. If an index file is given and exists, every node that
+     * changed since the index was written is printed next, prefixed with
+     * {@code A}, {@code D} or {@code M}. The index file is then rewritten with the
+     * current digests.
+     *
+     * <P>
+     * The command line options used are:
+     * <DL>
+     * <DT><CODE>-x &lt;index-file&gt;</CODE>
+     * <DD>Index file to compare with and to store digests in.
+     * </DL>
+     *
+     * <P>
+     * The command line arguments used are:
+     * <DL>
+     * <DT><CODE>&lt;nodename&gt;</CODE>
+     * <DD>Node to digest. Specify as <CODE>/path/to/node</CODE>.
+     * </DL>
+     *
+     * <P>
+     * The system properties you can set are:
+     * <DL>
+     * <DT><CODE>com.github.argherna.preftool.dryRun</CODE>
+     * <DD>If <CODE>true</CODE>, do not compute digests but print the name of the
+     * class, root, node name, and index file name and exit with status
+     * <CODE>2</CODE>.
+     * <DT><CODE>com.github.argherna.preftool.systemRoot</CODE>
+     * <DD>If <CODE>true</CODE>, digest the node under the system root. By default,
+     * the node under the user root is digested.
+     * </DL>
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+
+        if (args.length == 0) {
+            System.err.printf("Missing argument: nodename%n");
+            usage();
+            System.exit(1);
+        }
+
+        var indexFilename = "";
+        var nodename = "";
+
+        var argsCount = 0;
+        var nextArgIsOptionValue = false;
+
+        while (argsCount < args.length) {
+            var arg = args[argsCount];
+            if (arg.equals("-x")) {
+                nextArgIsOptionValue = true;
+            } else if (nextArgIsOptionValue) {
+                nextArgIsOptionValue = false;
+                indexFilename = arg;
+            } else if (argsCount + 1 == args.length) {
+                nodename = arg;
+            } else {
+                System.err.printf("Unsupported arg \"%s\"%n", arg);
+                usage();
+                System.exit(1);
+            }
+            argsCount++;
+        }
+
+        if (DRY_RUN) {
+            var root = SYSTEM_ROOT ? "system" : "user";
+            var iname = (indexFilename.isBlank()) ? "<none>" : indexFilename;
+            System.err.printf("%s Dry Run:root=%s,node=%s,index=%s%n", DigestPreferences.class.getName(), root,
+                    nodename, iname);
+            System.exit(2);
+        }
+
+        var preferences = SYSTEM_ROOT ? Preferences.systemRoot().node(nodename) : Preferences.userRoot().node(nodename);
+        try {
+            var digests = new DigestPreferences(preferences).call();
+            var path = preferences.absolutePath();
+            System.out.printf("%s  %s%n", digests.get(path), path);
+            if (!indexFilename.isBlank()) {
+                var indexFile = Path.of(indexFilename);
+                if (Files.exists(indexFile)) {
+                    for (var changed : changedPaths(path, loadIndex(indexFile), digests)) {
+                        System.out.println(changed);
+                    }
+                }
+                storeIndex(digests, indexFile, String.format("%s digests for %s", ALGORITHM, preferences));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints a usage message to {@link System#err}.
+     */
+    private static void usage() {
+        System.err.printf("Usage: %s [-x index-file] <nodename>%n", DigestPreferences.class.getName());
+    }
+
+    /**
+     * Adds the paths of the direct children of {@code path} found in the given
+     * digests to {@code children}.
+     */
+    private static void addChildren(SortedMap<String, String> digests, String path, TreeSet<String> children) {
+        var prefix = path.equals("/") ? "/" : path + "/";
+        for (var descendant : digests.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+            if (!descendant.equals(prefix) && descendant.indexOf('/', prefix.length()) == -1) {
+                children.add(descendant);
+            }
+        }
+    }
+
+    /**
+     * Adds the given String to the digest, prefixed with its length so that
+     * adjacent strings can't run together.
+     */
+    private static void update(MessageDigest messageDigest, String s) {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        messageDigest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        messageDigest.update(bytes);
+    }
+
+    private static String toHex(byte[] bytes) {
+        var hex = new char[bytes.length * 2];
+        for (var i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * A node being digested. Its keys are hashed when the frame is created and its
+     * children's names and digests are hashed as each child is finished.
+     */
+    private static final class Frame {
+
+        private final Preferences node;
+
+        private final String name;
+
+        private final String[] childrenNames;
+
+        private final MessageDigest messageDigest;
+
+        private int nextChild;
+
+        Frame(Preferences node, String name) throws BackingStoreException {
+            this.node = node;
+            this.name = name;
+            try {
+                this.messageDigest = MessageDigest.getInstance(ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support SHA-256.
+                throw new IllegalStateException(e);
+            }
+            var snapshot = PreferencesUtilities.snapshot(node);
+            update(messageDigest, Integer.toString(snapshot.size()));
+            for (var i = 0; i < snapshot.size(); i++) {
+                update(messageDigest, snapshot.getKey(i));
+                update(messageDigest, snapshot.getValue(i));
+            }
+            this.childrenNames = node.childrenNames();
+            Arrays.sort(childrenNames);
+        }
+    }
+}
@@ -4,28 +4,42 @@ import static com.github.argherna.preftool.Constants.DRY_RUN;
 import static com.github.argherna.preftool.Constants.SYSTEM_ROOT;
 import static java.lang.System.Logger.Level.INFO;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.function.Function;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
+import java.util.stream.Collectors;
 
 /**
- * Invoked to export a Preferences node.
+ * Invoked to export one or more Preferences nodes.
  */
 public class ExportPreferences implements Callable<Void> {
 
     private static final System.Logger LOGGER = System.getLogger(ExportPreferences.class.getName());
 
-    private final Preferences preferences;
+    private final List<Preferences> nodes;
 
     private final OutputStream outputStream;
 
     private final boolean nodeOnly;
 
+    private final int parallelism;
+
+    private final Compression compression;
+
+    private final PreferencesFormat format;
+
+    private final Function<Preferences, Preferences> baselines;
+
+    private final PreferencesFilter filter;
+
     /**
      * Constructs an ExportPreferences instance that exports the given node and all
      * its subnodes.
@@ -58,29 +72,281 @@ public class ExportPreferences implements Callable<Void> {
      *                              null.
      */
     public ExportPreferences(Preferences preferences, OutputStream outputStream, boolean nodeOnly) {
-        this.preferences = Objects.requireNonNull(preferences, "Preferences to export cannot be null!");
+        this(preferences, outputStream, nodeOnly, 1);
+    }
+
+    /**
+     * Constructs an ExportPreferences instance that reads nodes on more than one
+     * thread. The XML written is the same for any parallelism.
+     *
+     * @param preferences  the Preferences node to export.
+     * @param outputStream the OutputStream to export the Preferences node to.
+     * @param nodeOnly     if true, export only the given Preferences node and no
+     *                     child nodes.
+     * @param parallelism  the number of threads reading nodes.
+     * @throws NullPointerException     if either the Preferences or OutputStream
+     *                                  are null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public ExportPreferences(Preferences preferences, OutputStream outputStream, boolean nodeOnly,
+            int parallelism) {
+        this(preferences, outputStream, nodeOnly, parallelism, Compression.NONE);
+    }
+
+    /**
+     * Constructs an ExportPreferences instance that compresses the XML as it is
+     * written.
+     *
+     * @param preferences  the Preferences node to export.
+     * @param outputStream the OutputStream to export the Preferences node to.
+     * @param nodeOnly     if true, export only the given Preferences node and no
+     *                     child nodes.
+     * @param parallelism  the number of threads reading nodes.
+     * @param compression  the compression to apply.
+     * @throws NullPointerException     if the Preferences, OutputStream or
+     *                                  Compression are null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public ExportPreferences(Preferences preferences, OutputStream outputStream, boolean nodeOnly,
+            int parallelism, Compression compression) {
+        this(preferences, outputStream, nodeOnly, parallelism, compression, PreferencesFormat.XML);
+    }
+
+    /**
+     * Constructs an ExportPreferences instance that writes the given format.
+     *
+     * @param preferences  the Preferences node to export.
+     * @param outputStream the OutputStream to export the Preferences node to.
+     * @param nodeOnly     if true, export only the given Preferences node and no
+     *                     child nodes.
+     * @param parallelism  the number of threads reading nodes.
+     * @param compression  the compression to apply.
+     * @param format       the format to write.
+     * @throws NullPointerException     if the Preferences, OutputStream,
+     *                                  Compression or format are null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public ExportPreferences(Preferences preferences, OutputStream outputStream, boolean nodeOnly,
+            int parallelism, Compression compression, PreferencesFormat format) {
+        this(preferences, outputStream, nodeOnly, parallelism, compression, format, null);
+    }
+
+    /**
+     * Constructs an ExportPreferences instance that exports only what changed
+     * since a baseline, as a delta.
+     *
+     * @param preferences  the Preferences node to export.
+     * @param outputStream the OutputStream to export the Preferences node to.
+     * @param nodeOnly     if true, export only the given Preferences node and no
+     *                     child nodes.
+     * @param parallelism  the number of threads reading nodes. Deltas are always
+     *                     computed on one thread.
+     * @param compression  the compression to apply.
+     * @param format       the format to write.
+     * @param baseline     the node as it was at the baseline, or {@code null} to
+     *                     export everything.
+     * @throws NullPointerException     if the Preferences, OutputStream,
+     *                                  Compression or format are null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     * @see PreferencesDelta#baseline(java.io.InputStream, Preferences)
+     */
+    public ExportPreferences(Preferences preferences, OutputStream outputStream, boolean nodeOnly,
+            int parallelism, Compression compression, PreferencesFormat format, Preferences baseline) {
+        this(preferences, outputStream, nodeOnly, parallelism, compression, format, baseline,
+                PreferencesFilter.ACCEPT_ALL);
+    }
+
+    /**
+     * Constructs an ExportPreferences instance that exports only the nodes and
+     * keys accepted by a filter. The filter is applied while the tree is read.
+     *
+     * @param preferences  the Preferences node to export.
+     * @param outputStream the OutputStream to export the Preferences node to.
+     * @param nodeOnly     if true, export only the given Preferences node and no
+     *                     child nodes.
+     * @param parallelism  the number of threads reading nodes.
+     * @param compression  the compression to apply.
+     * @param format       the format to write.
+     * @param baseline     the node as it was at the baseline, or {@code null} to
+     *                     export everything.
+     * @param filter       selects the nodes and keys to export.
+     * @throws NullPointerException     if the Preferences, OutputStream,
+     *                                  Compression, format or filter are null.
+     * @throws IllegalArgumentException if parallelism is less than 1, or if both a
+     *                                  baseline and a filter that doesn't accept
+     *                                  everything are given.
+     */
+    public ExportPreferences(Preferences preferences, OutputStream outputStream, boolean nodeOnly,
+            int parallelism, Compression compression, PreferencesFormat format, Preferences baseline,
+            PreferencesFilter filter) {
+        this(List.of(Objects.requireNonNull(preferences, "Preferences to export cannot be null!")), outputStream,
+                nodeOnly, parallelism, compression, format, baseline == null ? null : node -> baseline, filter);
+    }
+
+    /**
+     * Constructs an ExportPreferences instance that exports several nodes, from
+     * either root, into one document.
+     *
+     * <P>
+     * The nodes are written in root and path order, user root first. A node named
+     * more than once is written once, and when exporting subtrees, a node inside
+     * the subtree of another named node is written only as part of that subtree.
+     * Filters apply to each exported node as described in
+     * {@link PreferencesFilter}.
+     *
+     * @param nodes        the Preferences nodes to export.
+     * @param outputStream the OutputStream to export the Preferences nodes to.
+     * @param nodeOnly     if true, export only the given Preferences nodes and no
+     *                     child nodes.
+     * @param parallelism  the number of threads reading nodes.
+     * @param compression  the compression to apply.
+     * @param format       the format to write.
+     * @param baselines    returns the node as it was at the baseline for each
+     *                     node, or {@code null} to export everything.
+     * @param filter       selects the nodes and keys to export.
+     * @throws NullPointerException     if the nodes, OutputStream, Compression,
+     *                                  format or filter are null.
+     * @throws IllegalArgumentException if there are no nodes, if parallelism is
+     *                                  less than 1, if both baselines and a filter
+     *                                  that doesn't accept everything are given, or
+     *                                  if the nodes are from both roots and the
+     *                                  format is XML.
+     * @see PreferencesDelta#baselines(java.io.InputStream)
+     */
+    public ExportPreferences(List<Preferences> nodes, OutputStream outputStream, boolean nodeOnly,
+            int parallelism, Compression compression, PreferencesFormat format,
+            Function<Preferences, Preferences> baselines, PreferencesFilter filter) {
+        this.nodes = plan(Objects.requireNonNull(nodes, "Preferences to export cannot be null!"), !nodeOnly);
+        if (this.nodes.isEmpty()) {
+            throw new IllegalArgumentException("No Preferences to export");
+        }
         this.outputStream = Objects.requireNonNull(outputStream, "Export OutputStream cannot be null!");
         this.nodeOnly = nodeOnly;
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Parallelism must be at least 1 (was given %d)", parallelism));
+        }
+        this.parallelism = parallelism;
+        this.compression = Objects.requireNonNull(compression, "Compression cannot be null!");
+        this.format = Objects.requireNonNull(format, "Format cannot be null!");
+        this.baselines = baselines;
+        this.filter = Objects.requireNonNull(filter, "Filter cannot be null!");
+        if (baselines != null && !filter.acceptsAll()) {
+            throw new IllegalArgumentException("A delta can't be filtered");
+        }
+        if (format == PreferencesFormat.XML
+                && this.nodes.get(0).isUserNode() != this.nodes.get(this.nodes.size() - 1).isUserNode()) {
+            throw new IllegalArgumentException(
+                    "Preferences XML holds only one root; export both roots as binary or ndjson");
+        }
+    }
+
+    /**
+     * Sorts the nodes by root and path and drops those that would be written
+     * twice. Paths are compared a name at a time, so a node's subtree comes right
+     * after it and the last node kept is the only one a node can be inside.
+     */
+    private static List<Preferences> plan(List<Preferences> nodes, boolean subtree) {
+        var sorted = new ArrayList<Preferences>(nodes);
+        sorted.sort(Comparator.comparing((Preferences node) -> !node.isUserNode())
+                .thenComparing(Preferences::absolutePath, ExportPreferences::comparePaths));
+        var planned = new ArrayList<Preferences>();
+        Preferences last = null;
+        for (var node : sorted) {
+            Objects.requireNonNull(node, "Preferences to export cannot be null!");
+            if (last != null && last.isUserNode() == node.isUserNode()
+                    && (last.absolutePath().equals(node.absolutePath())
+                            || subtree && isAncestor(last.absolutePath(), node.absolutePath()))) {
+                continue;
+            }
+            planned.add(node);
+            last = node;
+        }
+        return planned;
+    }
+
+    /**
+     * Compares absolute paths in tree order: as lists of names, each compared
+     * like {@link String#compareTo(String)}. Sorting them as plain strings would
+     * put {@code /a-b} between {@code /a} and {@code /a/x}.
+     */
+    static int comparePaths(String path, String other) {
+        var length = Math.min(path.length(), other.length());
+        for (var i = 0; i < length; i++) {
+            var c = path.charAt(i);
+            var d = other.charAt(i);
+            if (c != d) {
+                return c == '/' ? -1 : d == '/' ? 1 : c - d;
+            }
+        }
+        return path.length() - other.length();
+    }
+
+    private static boolean isAncestor(String ancestorPath, String path) {
+        return path.startsWith(ancestorPath.equals("/") ? "/" : ancestorPath + "/");
     }
 
     /**
      * Performs the export.
      *
+     * <P>
+     * The XML is written as the nodes are read, in the same format as
+     * {@link Preferences#exportNode(OutputStream)} and
+     * {@link Preferences#exportSubtree(OutputStream)}, with nodes and keys in name
+     * order. Only one node's keys are held in memory at a time and the tree isn't
+     * locked for the whole export. With a parallelism greater than 1, the children
+     * of each node are read concurrently while the XML is still written in order.
+     * Compressed XML is compressed as it is written. The OutputStream is flushed
+     * but not closed.
+     *
+     * <P>
+     * The binary snapshot and NDJSON formats are written the same way.
+     *
+     * <P>
+     * Given a baseline, only the nodes and keys added, changed or removed since
+     * the baseline are written, with tombstones for the removals.
+     *
+     * <P>
+     * Several nodes are written one after the other into the same document, each
+     * root once.
+     *
      * @return This method returns {@code null}.
      * @throws BackingStoreException if a BackingStoreException occurs.
      * @throws IOException           if an IOException occurs.
      *
-     * @see Preferences#exportNode(OutputStream)
-     * @see Preferences#exportSubtree(OutputStream)
+     * @see PreferencesWalker
+     * @see PreferencesXmlWriter
+     * @see PreferencesBinaryWriter
+     * @see PreferencesDelta
      */
     @Override
     public Void call() throws Exception {
-        if (nodeOnly) {
-            LOGGER.log(INFO, "Exporting node {0} preferences XML", preferences);
-            preferences.exportNode(outputStream);
-        } else {
-            LOGGER.log(INFO, "Exporting subtree {0} preferences XML", preferences);
-            preferences.exportSubtree(outputStream);
+        if (baselines != null) {
+            try (var out = compression.compress(outputStream)) {
+                var writer = new DocumentHandler(format.newDeltaWriter(out));
+                var differences = 0L;
+                for (var preferences : nodes) {
+                    LOGGER.log(INFO, "Exporting {0} preferences {1} changed since baseline", preferences, format);
+                    differences += new PreferencesDelta(baselines.apply(preferences), preferences, !nodeOnly)
+                            .write(writer);
+                }
+                writer.endDocument();
+                LOGGER.log(INFO, "Exported {0} differences", differences);
+            }
+            return null;
+        }
+        try (var out = compression.compress(outputStream)) {
+            var writer = new DocumentHandler(format.newWriter(out));
+            for (var preferences : nodes) {
+                if (nodeOnly) {
+                    LOGGER.log(INFO, "Exporting node {0} preferences {1}", preferences, format);
+                } else {
+                    LOGGER.log(INFO, "Exporting subtree {0} preferences {1} with parallelism {2}", preferences,
+                            format, parallelism);
+                }
+                new PreferencesWalker(preferences, !nodeOnly, parallelism, filter).walk(writer);
+            }
+            writer.endDocument();
         }
         return null;
     }
@@ -105,13 +371,51 @@ public class ExportPreferences implements Callable<Void> {
      * <DT><CODE>-t</CODE>
      * <DD>Export the whole subtree of the named node. If not specified, only the
      * top-level node is exported.
+     * <DT><CODE>-f &lt;format&gt;</CODE>
+     * <DD>Write {@code xml}, a {@code binary} snapshot or {@code ndjson}, one JSON
+     * record per key. If not set, the format is chosen from the output file's name
+     * (before any compression suffix): {@code .ptbs} for binary, {@code .ndjson}
+     * or {@code .jsonl} for NDJSON, otherwise XML.
+     * <DT><CODE>-z &lt;compression&gt;</CODE>
+     * <DD>Compress the XML with {@code gzip} or {@code deflate} (or {@code none}).
+     * If not set, the compression is chosen from the output file's name:
+     * {@code .gz} for gzip and {@code .zz} or {@code .deflate} for deflate.
+     * <DT><CODE>--parallelism &lt;n&gt;</CODE>
+     * <DD>Read the subtree on {@code n} threads. The XML written is the same for
+     * any value. The default is 1.
+     * <DT><CODE>-b &lt;baseline-file&gt;</CODE>
+     * <DD>Export only what changed since the baseline, a previous export in any
+     * format. Added and changed keys and nodes are written as usual and removed
+     * ones as tombstones. Import the delta with
+     * <CODE>ImportPreferences --delta</CODE>.
+     * <DT><CODE>--include &lt;pattern&gt;</CODE>
+     * <DD>Export only the keys of nodes whose path, relative to the named node,
+     * matches the pattern. Can be given more than once. Subtrees that can't
+     * contain a matching node are never read.
+     * <DT><CODE>--exclude &lt;pattern&gt;</CODE>
+     * <DD>Skip nodes whose relative path matches the pattern, along with their
+     * subtrees. Can be given more than once.
+     * <DT><CODE>--include-key &lt;pattern&gt;</CODE>
+     * <DD>Export only keys whose name matches the pattern. Can be given more than
+     * once.
+     * <DT><CODE>--exclude-key &lt;pattern&gt;</CODE>
+     * <DD>Skip keys whose name matches the pattern. Can be given more than once.
      * </DL>
+     *
+     * <P>
+     * Patterns are globs, optionally prefixed with <CODE>glob:</CODE>, or regular
+     * expressions prefixed with <CODE>regex:</CODE>. See
+     * {@link PreferencesFilter}. Filters can't be used with <CODE>-b</CODE>.
      * 
      * <P>
      * The command line arguments used are:
      * <DL>
      * <DT><CODE>&lt;nodename&gt;</CODE>
-     * <DD>Node to export. Specify as <CODE>/path/to/node</CODE>.
+     * <DD>Node to export. Specify as <CODE>/path/to/node</CODE>, or as
+     * <CODE>User:/path/to/node</CODE> or <CODE>System:/path/to/node</CODE> to
+     * choose the root. More than one can be given; they are all written into one
+     * document, a node inside the subtree of another only once with
+     * <CODE>-t</CODE>. Nodes from both roots can't be written as XML.
      * </DL>
      * 
      * <P>
@@ -122,8 +426,8 @@ public class ExportPreferences implements Callable<Void> {
      * print the name of the class, root, node name, and XML file name and exit with
      * status <CODE>2</CODE>.
      * <DT><CODE>com.github.argherna.preftool.systemRoot</CODE>
-     * <DD>If <CODE>true</CODE>, export the preferences XML under the system root.
-     * By default, the XML is exported under the user root.
+     * <DD>If <CODE>true</CODE>, export nodes named without a root from the system
+     * root. By default, they are exported from the user root.
      * </DL>
      * 
      * @param args command line arguments
@@ -137,7 +441,8 @@ public class ExportPreferences implements Callable<Void> {
             usage();
             System.exit(1);
         }
-        
+
+
         if (args.length == 1 && argIsHelpFlag(args[0])) {
             usage();
             System.exit(2);
@@ -147,23 +452,85 @@ public class ExportPreferences implements Callable<Void> {
 
         OutputStream outstream = System.out;
         var filename = "";
-        var nodename = "";
+        var nodenames = new ArrayList<String>();
+        var parallelism = 1;
+        Compression compression = null;
+        PreferencesFormat format = null;
+        var baselineFilename = "";
+        var nodeIncludes = new ArrayList<String>();
+        var nodeExcludes = new ArrayList<String>();
+        var keyIncludes = new ArrayList<String>();
+        var keyExcludes = new ArrayList<String>();
 
         var argsCount = 0;
         var nextArgIsOptionValue = false;
+        var nextArgIsParallelism = false;
+        var nextArgIsCompression = false;
+        var nextArgIsFormat = false;
+        var nextArgIsBaseline = false;
+        List<String> nextArgIsPatternFor = null;
 
         while (argsCount < args.length) {
             var arg = args[argsCount];
             if (arg.equals("-o")) {
                 nextArgIsOptionValue = true;
+            } else if (arg.equals("--parallelism")) {
+                nextArgIsParallelism = true;
+            } else if (arg.equals("-z")) {
+                nextArgIsCompression = true;
+            } else if (arg.equals("-f")) {
+                nextArgIsFormat = true;
+            } else if (arg.equals("-b")) {
+                nextArgIsBaseline = true;
+            } else if (arg.equals("--include")) {
+                nextArgIsPatternFor = nodeIncludes;
+            } else if (arg.equals("--exclude")) {
+                nextArgIsPatternFor = nodeExcludes;
+            } else if (arg.equals("--include-key")) {
+                nextArgIsPatternFor = keyIncludes;
+            } else if (arg.equals("--exclude-key")) {
+                nextArgIsPatternFor = keyExcludes;
+            } else if (nextArgIsPatternFor != null) {
+                nextArgIsPatternFor.add(arg);
+                nextArgIsPatternFor = null;
+            } else if (nextArgIsBaseline) {
+                nextArgIsBaseline = false;
+                baselineFilename = arg;
+            } else if (nextArgIsFormat) {
+                nextArgIsFormat = false;
+                try {
+                    format = PreferencesFormat.forName(arg);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    usage();
+                    System.exit(1);
+                }
+            } else if (nextArgIsCompression) {
+                nextArgIsCompression = false;
+                try {
+                    compression = Compression.forName(arg);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    usage();
+                    System.exit(1);
+                }
             } else if (nextArgIsOptionValue) {
                 nextArgIsOptionValue = false;
                 filename = arg;
+            } else if (nextArgIsParallelism) {
+                nextArgIsParallelism = false;
+                try {
+                    parallelism = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    System.err.printf("Parallelism must be a number (was given \"%s\")%n", arg);
+                    usage();
+                    System.exit(1);
+                }
             } else if (arg.equals("-t")) {
                 nodeOnly = false;
-            } else if (argsCount + 1 == args.length) {
-                nodename = arg;
-            } else if (!arg.equals("-t") && !arg.equals("-o")) {
+            } else if (!arg.startsWith("-")) {
+                nodenames.add(arg);
+            } else {
                 System.err.printf("Unsupported arg \"%s\"%n", arg);
                 usage();
                 System.exit(1);
@@ -171,32 +538,150 @@ public class ExportPreferences implements Callable<Void> {
             argsCount++;
         }
 
+        if (nodenames.isEmpty()) {
+            System.err.printf("Missing argument: nodename%n");
+            usage();
+            System.exit(1);
+        }
+        var bothRoots = nodenames.stream().map(nodename -> PreferencesUtilities.rootTypeOf(nodename, SYSTEM_ROOT))
+                .distinct().count() > 1;
+
+        if (compression == null) {
+            compression = Compression.forFileName(filename);
+        }
+        if (format == null) {
+            format = PreferencesFormat.forFileName(filename);
+        }
+
+        PreferencesFilter filter = null;
+        try {
+            filter = new PreferencesFilter(nodeIncludes, nodeExcludes, keyIncludes, keyExcludes);
+        } catch (IllegalArgumentException e) {
+            System.err.printf("Invalid pattern: %s%n", e.getMessage());
+            usage();
+            System.exit(1);
+        }
+        if (!baselineFilename.isBlank() && !filter.acceptsAll()) {
+            System.err.printf("Filters can't be used with -b%n");
+            usage();
+            System.exit(1);
+        }
+        if (bothRoots && format == PreferencesFormat.XML) {
+            System.err.printf("Nodes from both roots can't be exported as xml; use -f binary or -f ndjson%n");
+            usage();
+            System.exit(1);
+        }
+
         if (DRY_RUN) {
-            var root = SYSTEM_ROOT ? "system" : "user";
+            var addresses = nodenames.stream()
+                    .map(nodename -> PreferencesUtilities.rootTypeOf(nodename, SYSTEM_ROOT) + ":"
+                            + PreferencesUtilities.pathOf(nodename))
+                    .collect(Collectors.joining(";"));
             var fname = (filename.isBlank()) ? "<System.out>" : filename;
-            System.err.printf("%s Dry Run:root=%s,node=%s,filename=%s,nodeOnly=%b%n", ExportPreferences.class.getName(),
-                    root, nodename, fname, nodeOnly);
+            var bname = (baselineFilename.isBlank()) ? "<none>" : baselineFilename;
+            System.err.printf("%s Dry Run:nodes=%s,filename=%s,nodeOnly=%b,parallelism=%d,compression=%s,format=%s,baseline=%s,filter=%s%n",
+                    ExportPreferences.class.getName(), addresses, fname, nodeOnly, parallelism, compression,
+                    format, bname, filter);
             System.exit(2);
         }
 
-        var preferences = SYSTEM_ROOT ? Preferences.systemRoot().node(nodename) : Preferences.userRoot().node(nodename);
         try {
+            var nodes = new ArrayList<Preferences>();
+            for (var nodename : nodenames) {
+                nodes.add(PreferencesUtilities.getPreferences(nodename, SYSTEM_ROOT));
+            }
+            Function<Preferences, Preferences> baselines = null;
+            if (!baselineFilename.isBlank()) {
+                // read before the output is opened, in case it's the same file
+                try (var in = FileChannels.newInputStream(Path.of(baselineFilename))) {
+                    baselines = PreferencesDelta.baselines(in);
+                }
+            }
             if (!filename.isBlank()) {
-                outstream = new FileOutputStream(new File(filename));
+                outstream = FileChannels.newOutputStream(Path.of(filename));
             }
-            var exportPreferencesAction = new ExportPreferences(preferences, outstream, nodeOnly);
+            var exportPreferencesAction = new ExportPreferences(nodes, outstream, nodeOnly, parallelism,
+                    compression, format, baselines, filter);
             exportPreferencesAction.call();
+            if (!filename.isBlank()) {
+                outstream.close();
+            }
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
         }
     }
 
+    /**
+     * Passes events on to a writer, joining the walks of several nodes into one
+     * document: a root is started when the first node under it is and ended when
+     * the next root starts or the document ends.
+     */
+    private static final class DocumentHandler implements PreferencesHandler {
+
+        private final PreferencesHandler writer;
+
+        private String rootType;
+
+        DocumentHandler(PreferencesHandler writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void startRoot(String type) throws IOException, BackingStoreException {
+            if (!type.equals(rootType)) {
+                if (rootType != null) {
+                    writer.endRoot(rootType);
+                }
+                rootType = type;
+                writer.startRoot(type);
+            }
+        }
+
+        @Override
+        public void startNode(String path) throws IOException, BackingStoreException {
+            writer.startNode(path);
+        }
+
+        @Override
+        public void entry(String key, String value) throws IOException, BackingStoreException {
+            writer.entry(key, value);
+        }
+
+        @Override
+        public void removeKey(String key) throws IOException, BackingStoreException {
+            writer.removeKey(key);
+        }
+
+        @Override
+        public void endNode(String path) throws IOException, BackingStoreException {
+            writer.endNode(path);
+        }
+
+        @Override
+        public void removeNode(String path) throws IOException, BackingStoreException {
+            writer.removeNode(path);
+        }
+
+        @Override
+        public void endRoot(String type) {
+            // ended when the next root starts or the document ends
+        }
+
+        @Override
+        public void endDocument() throws IOException, BackingStoreException {
+            if (rootType != null) {
+                writer.endRoot(rootType);
+            }
+            writer.endDocument();
+        }
+    }
+
     /**
      * Prints a usage message to {@link System#err}.
      */
     private static void usage() {
-        System.err.printf("Usage: %s [-t -o prefs-xml-file] <nodename>%n", ExportPreferences.class.getName());
+        System.err.printf("Usage: %s [-t -o prefs-xml-file -f format -z compression --parallelism n -b baseline-file] [--include pattern --exclude pattern --include-key pattern --exclude-key pattern] <nodename>...%n", ExportPreferences.class.getName());
     }
 
     /**
@@ -0,0 +1,303 @@
+package com.github.argherna.preftool;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Streams over {@link FileChannel FileChannels} for reading and writing large
+ * files.
+ *
+ * <P>
+ * Input streams read a memory-mapped file a window at a time, so reading
+ * doesn't take a system call per buffer and bytes are copied once, from the
+ * page cache to the reader. They support {@link InputStream#mark(int)} with no
+ * read limit, so nothing needs to buffer them again. Output streams collect
+ * bytes in a large direct buffer and write it to the channel when it is full,
+ * or when flushed or closed.
+ *
+ * <P>
+ * Pipes, FIFOs and other channels that aren't regular files, or that report a
+ * size of 0, can't be mapped. They are read through a buffered stream instead.
+ */
+public final class FileChannels {
+
+    /** The most of a file mapped at once. */
+    static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    /** The size of the direct buffer of output streams. */
+    static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+    private FileChannels() {
+        // empty private constructor
+    }
+
+    /**
+     * Opens a file and returns a stream that reads it through memory mappings, or
+     * a buffered stream if it isn't a regular file with something in it. Closing
+     * the stream closes the file.
+     *
+     * @param file the file to read.
+     * @return the stream.
+     * @throws IOException if the file can't be opened.
+     */
+    public static InputStream newInputStream(Path file) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (Files.isRegularFile(file) && channel.size() > 0) {
+                return new MappedInputStream(channel, 0, true);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new BufferedInputStream(new UnmappedInputStream(channel, true));
+    }
+
+    /**
+     * Returns a stream that reads a channel through memory mappings from the given
+     * position. Reading the stream doesn't change the channel's position and
+     * closing it doesn't close the channel.
+     *
+     * <P>
+     * A channel that can't be mapped, such as a pipe, is read through a buffered
+     * stream from its current position instead, and {@code position} is ignored.
+     * Reading that stream moves the channel's position, and closing it still
+     * doesn't close the channel.
+     *
+     * @param channel  the channel to read.
+     * @param position the offset in the channel to start reading at.
+     * @return the stream.
+     * @throws IOException if the size of the channel can't be read.
+     */
+    public static InputStream newInputStream(FileChannel channel, long position) throws IOException {
+        Objects.requireNonNull(channel, "FileChannel cannot be null!");
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            // pipes and FIFOs can't report a size
+            size = 0;
+        }
+        if (size > 0) {
+            return new MappedInputStream(channel, position, false);
+        }
+        return new BufferedInputStream(new UnmappedInputStream(channel, false));
+    }
+
+    /**
+     * Creates or truncates a file and returns a stream that writes it through a
+     * direct buffer. Closing the stream closes the file.
+     *
+     * @param file the file to write.
+     * @return the stream.
+     * @throws IOException if the file can't be opened.
+     */
+    public static OutputStream newOutputStream(Path file) throws IOException {
+        return new ChannelOutputStream(FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Reads a file through read-only mappings of up to {@link #WINDOW_SIZE}
+     * bytes, mapping the next window when the current one has been read. The size
+     * of the file is taken when the stream is created.
+     */
+    static final class MappedInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private final boolean closeChannel;
+
+        private MappedByteBuffer window;
+
+        private long windowStart;
+
+        private long position;
+
+        private long mark = -1;
+
+        MappedInputStream(FileChannel channel, long position, boolean closeChannel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.position = position;
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!map()) {
+                return -1;
+            }
+            return window.get((int) (position++ - windowStart)) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            if (!map()) {
+                return -1;
+            }
+            var n = (int) Math.min(len, windowStart + window.limit() - position);
+            window.get((int) (position - windowStart), b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            var skipped = Math.max(0, Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, size - position));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+            mark = position;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            if (mark < 0) {
+                throw new IOException("Stream has not been marked");
+            }
+            position = mark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            if (closeChannel) {
+                channel.close();
+            }
+        }
+
+        /**
+         * Maps the window holding the position if it isn't mapped.
+         *
+         * @return {@code false} at the end of the file.
+         */
+        private boolean map() throws IOException {
+            if (position >= size) {
+                return false;
+            }
+            if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+                windowStart = position;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads a channel that can't be mapped with plain reads. The channel's size
+     * and position aren't asked for, since pipes and FIFOs can't report them.
+     */
+    private static final class UnmappedInputStream extends FilterInputStream {
+
+        private final boolean closeChannel;
+
+        UnmappedInputStream(FileChannel channel, boolean closeChannel) {
+            super(Channels.newInputStream(channel));
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closeChannel) {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * Writes to a channel through a direct buffer of {@link #OUTPUT_BUFFER_SIZE}
+     * bytes.
+     */
+    private static final class ChannelOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                var n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                try {
+                    drain();
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.argherna.preftool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * How far an import of a file had got the last time its writes were flushed:
+ * the number of nodes applied, the last of them and where the input after it
+ * starts.
+ *
+ * <P>
+ * A checkpoint is kept in a small properties file next to the input, and
+ * records the size and modification time of the input so a changed input isn't
+ * resumed by mistake. Instances are immutable.
+ *
+ * @see ImportPreferences
+ */
+public final class ImportCheckpoint {
+
+    private final long inputSize;
+
+    private final long inputModified;
+
+    private final long nodes;
+
+    private final String rootType;
+
+    private final String path;
+
+    private final long offset;
+
+    /**
+     * Constructs an ImportCheckpoint.
+     *
+     * @param inputSize     the size of the input file in bytes.
+     * @param inputModified the modification time of the input file, in
+     *                      milliseconds since the epoch.
+     * @param nodes         the number of nodes applied, including removed nodes.
+     * @param rootType      the root of the last node applied, {@code user} or
+     *                      {@code system}.
+     * @param path          the path of the last node applied.
+     * @param offset        the offset in the input file where the records after
+     *                      the last node applied start, or {@code -1} if the
+     *                      input has to be read from the start.
+     * @throws NullPointerException if rootType or path are null.
+     */
+    public ImportCheckpoint(long inputSize, long inputModified, long nodes, String rootType, String path,
+            long offset) {
+        this.inputSize = inputSize;
+        this.inputModified = inputModified;
+        this.nodes = nodes;
+        this.rootType = Objects.requireNonNull(rootType, "Root type cannot be null!");
+        this.path = Objects.requireNonNull(path, "Path cannot be null!");
+        this.offset = offset;
+    }
+
+    /**
+     * Returns the file a checkpoint for importing the given file is kept in, the
+     * same name with {@code .checkpoint} added.
+     *
+     * @param input the file being imported.
+     * @return the checkpoint file.
+     */
+    public static Path sidecarFor(Path input) {
+        return input.resolveSibling(input.getFileName() + ".checkpoint");
+    }
+
+    /**
+     * Reads a checkpoint from a file.
+     *
+     * @param sidecar the checkpoint file.
+     * @return the checkpoint.
+     * @throws IOException if the file can't be read or isn't a checkpoint.
+     */
+    public static ImportCheckpoint load(Path sidecar) throws IOException {
+        var properties = new Properties();
+        try (var in = Files.newInputStream(sidecar)) {
+            properties.load(in);
+        }
+        try {
+            return new ImportCheckpoint(Long.parseLong(properties.getProperty("input.size")),
+                    Long.parseLong(properties.getProperty("input.modified")),
+                    Long.parseLong(properties.getProperty("nodes")),
+                    Objects.requireNonNull(properties.getProperty("root")),
+                    Objects.requireNonNull(properties.getProperty("path")),
+                    Long.parseLong(properties.getProperty("offset")));
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new IOException(String.format("%s is not an import checkpoint", sidecar), e);
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a file. The file is replaced in one step, so it
+     * always holds a whole checkpoint.
+     *
+     * @param sidecar the checkpoint file.
+     * @throws IOException if the file can't be written.
+     */
+    public void save(Path sidecar) throws IOException {
+        var properties = new Properties();
+        properties.setProperty("input.size", Long.toString(inputSize));
+        properties.setProperty("input.modified", Long.toString(inputModified));
+        properties.setProperty("nodes", Long.toString(nodes));
+        properties.setProperty("root", rootType);
+        properties.setProperty("path", path);
+        properties.setProperty("offset", Long.toString(offset));
+        var temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (var out = Files.newOutputStream(temp)) {
+            properties.store(out, "preftool import checkpoint");
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns {@code true} if the checkpoint was made importing a file of the
+     * given size and modification time.
+     *
+     * @param size     the size of the input file in bytes.
+     * @param modified the modification time of the input file, in milliseconds
+     *                 since the epoch.
+     * @return {@code true} if both match.
+     */
+    public boolean matches(long size, long modified) {
+        return inputSize == size && inputModified == modified;
+    }
+
+    /**
+     * @return the number of nodes applied, including removed nodes.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the root of the last node applied, {@code user} or {@code system}.
+     */
+    public String getRootType() {
+        return rootType;
+    }
+
+    /**
+     * @return the path of the last node applied.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the offset in the input file where the records after the last node
+     *         applied start, or {@code -1} if the input has to be read from the
+     *         start.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d nodes up to %s:%s%s", nodes, rootType, path,
+                offset < 0 ? "" : String.format(" at byte %,d", offset));
+    }
+}
@@ -1,52 +1,495 @@
 package com.github.argherna.preftool;
 
 import static com.github.argherna.preftool.Constants.DRY_RUN;
+import static com.github.argherna.preftool.Constants.SYSTEM_ROOT;
 import static java.lang.System.Logger.Level.INFO;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.prefs.BackingStoreException;
 import java.util.prefs.InvalidPreferencesFormatException;
 import java.util.prefs.Preferences;
 
 /**
- * Invoked to import Preferences from XML.
+ * Invoked to import Preferences from XML, a binary snapshot or NDJSON.
  */
 public class ImportPreferences implements Callable<Void> {
 
     private static final System.Logger LOGGER = System.getLogger(ImportPreferences.class.getName());
 
+    /** The batch size of checkpointed imports from the command line by default. */
+    private static final int DEFAULT_CHECKPOINT_BATCH_SIZE = 1000;
+
     private final InputStream inputStream;
 
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final String nodeAddress;
+
+    private final boolean systemRoot;
+
+    private final boolean delta;
+
+    private final int parallelism;
+
+    private final int batchSize;
+
+    private final Consumer<ImportProgress> progress;
+
+    private final boolean skipUnchanged;
+
+    private final boolean resume;
+
+    private PreferencesChangeDetector.Changes changes;
+
     /**
      * Construct a new instance of ImportPreferences.
      *
      * @param inputStream the InputStream to read XML from.
      */
     public ImportPreferences(InputStream inputStream) {
+        this(inputStream, false);
+    }
+
+    /**
+     * Construct a new instance of ImportPreferences that can import a delta.
+     *
+     * @param inputStream InputStream with the document to import.
+     * @param delta       if {@code true}, the document is a delta written by
+     *                    {@link ExportPreferences} with a baseline, and its
+     *                    tombstones remove keys and nodes.
+     * @see PreferencesDelta
+     */
+    public ImportPreferences(InputStream inputStream, boolean delta) {
+        this(inputStream, delta, 1);
+    }
+
+    /**
+     * Construct a new instance of ImportPreferences that writes nodes on more than
+     * one thread.
+     *
+     * @param inputStream InputStream with the document to import.
+     * @param delta       if {@code true}, the document is a delta written by
+     *                    {@link ExportPreferences} with a baseline, and its
+     *                    tombstones remove keys and nodes.
+     * @param parallelism the number of threads writing nodes.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     * @see ParallelPreferencesApplier
+     */
+    public ImportPreferences(InputStream inputStream, boolean delta, int parallelism) {
+        this(inputStream, delta, parallelism, 0, null);
+    }
+
+    /**
+     * Construct a new instance of ImportPreferences that can write nodes in
+     * batches, flushing after each batch and reporting progress.
+     *
+     * @param inputStream InputStream with the document to import.
+     * @param delta       if {@code true}, the document is a delta written by
+     *                    {@link ExportPreferences} with a baseline, and its
+     *                    tombstones remove keys and nodes.
+     * @param parallelism the number of threads writing nodes.
+     * @param batchSize   the number of nodes to write between flushes, or 0 to
+     *                    write nodes as they are read and leave flushing to the
+     *                    backing store.
+     * @param progress    receives a report after every batch, or {@code null}.
+     * @throws IllegalArgumentException if parallelism is less than 1, batchSize
+     *                                  is negative, or both a parallelism
+     *                                  greater than 1 and a batchSize are given.
+     * @see BatchedPreferencesApplier
+     */
+    public ImportPreferences(InputStream inputStream, boolean delta, int parallelism, int batchSize,
+            Consumer<ImportProgress> progress) {
+        this(inputStream, delta, parallelism, batchSize, false, progress);
+    }
+
+    /**
+     * Construct a new instance of ImportPreferences that can skip keys whose
+     * value is already the one being imported.
+     *
+     * @param inputStream   InputStream with the document to import.
+     * @param delta         if {@code true}, the document is a delta written by
+     *                      {@link ExportPreferences} with a baseline, and its
+     *                      tombstones remove keys and nodes.
+     * @param parallelism   the number of threads writing nodes.
+     * @param batchSize     the number of nodes to write between flushes, or 0 to
+     *                      write nodes as they are read and leave flushing to the
+     *                      backing store.
+     * @param skipUnchanged if {@code true}, compare each key with its current
+     *                      value and write only the ones that change, counting
+     *                      what is found.
+     * @param progress      receives a report after every batch, or {@code null}.
+     * @throws IllegalArgumentException if parallelism is less than 1, batchSize
+     *                                  is negative, or a parallelism greater than
+     *                                  1 is given with a batchSize or with
+     *                                  skipUnchanged.
+     * @see PreferencesChangeDetector
+     */
+    public ImportPreferences(InputStream inputStream, boolean delta, int parallelism, int batchSize,
+            boolean skipUnchanged, Consumer<ImportProgress> progress) {
         this.inputStream = inputStream;
+        this.file = null;
+        this.channel = null;
+        this.nodeAddress = null;
+        this.systemRoot = false;
+        this.delta = delta;
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Parallelism must be at least 1 (was given %d)", parallelism));
+        }
+        this.parallelism = parallelism;
+        if (batchSize < 0) {
+            throw new IllegalArgumentException(
+                    String.format("Batch size can't be negative (was given %d)", batchSize));
+        }
+        if (batchSize > 0 && parallelism > 1) {
+            throw new IllegalArgumentException("Batched imports are written on one thread");
+        }
+        if (skipUnchanged && parallelism > 1) {
+            // values compared while reading could still be overwritten by writes queued before them
+            throw new IllegalArgumentException("Imports skipping unchanged values are written on one thread");
+        }
+        this.batchSize = batchSize;
+        this.progress = progress;
+        this.skipUnchanged = skipUnchanged;
+        this.resume = false;
+    }
+
+    /**
+     * Construct a new instance of ImportPreferences that imports a file in
+     * batches, keeping a checkpoint after every batch so a failed import can be
+     * resumed.
+     *
+     * <P>
+     * The checkpoint is kept in {@link ImportCheckpoint#sidecarFor(Path)} and
+     * deleted when the import is done.
+     *
+     * @param file          the file to import.
+     * @param delta         if {@code true}, the document is a delta written by
+     *                      {@link ExportPreferences} with a baseline, and its
+     *                      tombstones remove keys and nodes.
+     * @param batchSize     the number of nodes to write between flushes and
+     *                      checkpoints.
+     * @param skipUnchanged if {@code true}, compare each key with its current
+     *                      value and write only the ones that change, counting
+     *                      what is found.
+     * @param resume        if {@code true} and there is a checkpoint, continue
+     *                      from it instead of starting again.
+     * @param progress      receives a report after every batch, or {@code null}.
+     * @throws NullPointerException     if file is null.
+     * @throws IllegalArgumentException if batchSize is less than 1.
+     * @see ImportCheckpoint
+     */
+    public ImportPreferences(Path file, boolean delta, int batchSize, boolean skipUnchanged, boolean resume,
+            Consumer<ImportProgress> progress) {
+        this.inputStream = null;
+        this.file = Objects.requireNonNull(file, "File cannot be null!");
+        this.channel = null;
+        this.nodeAddress = null;
+        this.systemRoot = false;
+        this.delta = delta;
+        this.parallelism = 1;
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Batch size must be at least 1 (was given %d)", batchSize));
+        }
+        this.batchSize = batchSize;
+        this.progress = progress;
+        this.skipUnchanged = skipUnchanged;
+        this.resume = resume;
+    }
+
+    /**
+     * Construct a new instance of ImportPreferences that imports the keys of a
+     * single node from a binary snapshot file, without reading the rest of the
+     * file.
+     *
+     * @param channel     the snapshot file.
+     * @param nodeAddress the node to import, as {@code /path/to/node} optionally
+     *                    prefixed with {@code User:} or {@code System:}.
+     * @param systemRoot  if {@code true}, a node address without a prefix is under
+     *                    the system root, otherwise the user root.
+     * @throws NullPointerException if channel or nodeAddress are null.
+     * @see PreferencesBinaryReader#readNode(FileChannel, String, String,
+     *      PreferencesHandler)
+     */
+    public ImportPreferences(FileChannel channel, String nodeAddress, boolean systemRoot) {
+        this.inputStream = null;
+        this.file = null;
+        this.channel = Objects.requireNonNull(channel, "Snapshot FileChannel cannot be null!");
+        this.nodeAddress = Objects.requireNonNull(nodeAddress, "Node address cannot be null!");
+        this.systemRoot = systemRoot;
+        this.delta = false;
+        this.parallelism = 1;
+        this.batchSize = 0;
+        this.progress = null;
+        this.skipUnchanged = false;
+        this.resume = false;
+    }
+
+    /**
+     * Returns what the last import found comparing with the current values.
+     *
+     * @return the counts of unchanged, updated, added and removed keys and nodes,
+     *         or {@code null} if unchanged values weren't skipped.
+     */
+    public PreferencesChangeDetector.Changes getChanges() {
+        return changes;
     }
 
     /**
      * Performs the import.
      *
+     * <P>
+     * The XML is parsed with a streaming parser and each node's keys are put into
+     * the user or system root as soon as they are read, so memory use doesn't grow
+     * with the size of the document. Documents valid for
+     * {@link Preferences#importPreferences(InputStream)} are imported the same
+     * way, but the document isn't validated before anything is applied: if it
+     * turns out to be invalid part way through, the nodes before the problem have
+     * already been imported. XML compressed with gzip or deflate is recognized from
+     * its first bytes and decompressed as it is read. Binary snapshots and NDJSON
+     * are recognized the same way and read as a stream too.
+     *
+     * <P>
+     * A delta is read the same way in any format, and its tombstones remove keys
+     * and subtrees that exist.
+     *
+     * <P>
+     * With a parallelism greater than 1, the top-level subtrees of each root are
+     * written concurrently on that many threads while reading continues, each
+     * subtree's nodes in document order, so the result is the same as with one
+     * thread.
+     *
+     * <P>
+     * With a batch size, the nodes are written a batch at a time and each batch is
+     * flushed to the backing store before the next is read, with a progress report
+     * after each flush.
+     *
+     * <P>
+     * When skipping unchanged values, each node's keys are compared with their
+     * current values first and only keys that change are written; nodes without
+     * changes aren't touched. The counts are available from
+     * {@link #getChanges()} afterwards.
+     *
+     * <P>
+     * Importing a file keeps a checkpoint after each batch: the number of nodes
+     * applied, the last of them and, for uncompressed NDJSON, the byte offset of
+     * the records after it. Resuming an uncompressed NDJSON file seeks to that
+     * offset. Other inputs can't be read from part way through, so they are read
+     * from the start without applying anything up to the checkpoint's node,
+     * which saves the writes but not the reading. A checkpoint made from a file
+     * of a different size or modification time isn't used.
+     *
      * @return This method returns {@code null}.
      * @throws InvalidPreferencesFormatException if an
      *                                           InvalidPreferencesFormatException
      *                                           occurs.
      * @throws IOException                       if an IOException occurs.
      * @throws SecurityException                 if a SecurityException occurs.
-     * @see Preferences#importPreferences(InputStream)
+     * @throws IllegalArgumentException          if a file to import with a
+     *                                           checkpoint isn't a regular file.
+     * @see PreferencesXmlReader
+     * @see Compression#decompress(InputStream)
      */
     @Override
     public Void call() throws Exception {
-        LOGGER.log(INFO, "Importing preferences");
-        Preferences.importPreferences(inputStream);
+        if (channel != null) {
+            var rootType = PreferencesUtilities.rootTypeOf(nodeAddress, systemRoot).toLowerCase(Locale.ROOT);
+            var path = PreferencesUtilities.pathOf(nodeAddress);
+            LOGGER.log(INFO, "Importing node {0} from snapshot", nodeAddress);
+            if (!new PreferencesBinaryReader(delta).readNode(channel, rootType, path, new PreferencesApplier())) {
+                throw new IllegalArgumentException(String.format("Snapshot has no node %s", nodeAddress));
+            }
+            return null;
+        }
+        if (file != null) {
+            importFile();
+            return null;
+        }
+
+        var counter = new CountingInputStream(inputStream);
+        var in = Compression.decompress(counter);
+        var format = PreferencesFormat.detect(in);
+        if (batchSize > 0) {
+            LOGGER.log(INFO, "Importing preferences {0}{1} in batches of {2} nodes", delta ? "delta " : "", format,
+                    batchSize);
+            var applier = new BatchedPreferencesApplier(batchSize, counter::getCount, progress);
+            read(format, in, applier);
+            LOGGER.log(INFO, "Imported {0}", applier.getProgress());
+            return null;
+        }
+
+        LOGGER.log(INFO, "Importing preferences {0}{1} with parallelism {2}", delta ? "delta " : "", format,
+                parallelism);
+        if (parallelism == 1) {
+            read(format, in, new PreferencesApplier());
+        } else {
+            try (var applier = new ParallelPreferencesApplier(parallelism)) {
+                read(format, in, applier);
+            }
+        }
         return null;
     }
 
+    /**
+     * Works out what the import would do to the user and system roots without
+     * writing anything.
+     *
+     * <P>
+     * The input is read as a stream, the same way {@link #call()} reads it, and
+     * each node is compared with the live tree as it is read. The plan counts the
+     * nodes and keys that would be created, updated, removed and left unchanged,
+     * estimates how much would be flushed to the backing store, and lists
+     * conflicts.
+     *
+     * @return the plan.
+     * @throws InvalidPreferencesFormatException if an
+     *                                           InvalidPreferencesFormatException
+     *                                           occurs.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if a BackingStoreException is
+     *                                           thrown reading the live tree.
+     * @see PreferencesPlanner
+     */
+    public PreferencesPlanner.Plan plan()
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        var planner = new PreferencesPlanner();
+        if (channel != null) {
+            var rootType = PreferencesUtilities.rootTypeOf(nodeAddress, systemRoot).toLowerCase(Locale.ROOT);
+            var path = PreferencesUtilities.pathOf(nodeAddress);
+            LOGGER.log(INFO, "Planning import of node {0} from snapshot", nodeAddress);
+            if (!new PreferencesBinaryReader(delta).readNode(channel, rootType, path, planner)) {
+                throw new IllegalArgumentException(String.format("Snapshot has no node %s", nodeAddress));
+            }
+        } else if (file != null) {
+            try (var in = FileChannels.newInputStream(file)) {
+                plan(in, planner);
+            }
+        } else {
+            plan(inputStream, planner);
+        }
+        return planner.getPlan();
+    }
+
+    /**
+     * Reads the stream as {@link #call()} would, reporting it to the planner.
+     */
+    private void plan(InputStream inputStream, PreferencesPlanner planner)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        var in = Compression.decompress(inputStream);
+        var format = PreferencesFormat.detect(in);
+        LOGGER.log(INFO, "Planning import of preferences {0}{1}", delta ? "delta " : "", format);
+        parse(format, in, planner);
+    }
+
+    /**
+     * Imports the file in batches, saving a checkpoint after each and resuming
+     * from one if asked to.
+     */
+    private void importFile() throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        if (!Files.isRegularFile(file)) {
+            throw new IllegalArgumentException(
+                    String.format("%s is not a regular file and can't be imported with a checkpoint", file));
+        }
+        var sidecar = ImportCheckpoint.sidecarFor(file);
+        var size = Files.size(file);
+        var modified = Files.getLastModifiedTime(file).toMillis();
+        ImportCheckpoint from = null;
+        if (resume && Files.exists(sidecar)) {
+            from = ImportCheckpoint.load(sidecar);
+            if (!from.matches(size, modified)) {
+                throw new IllegalStateException(
+                        String.format("%s has changed since the checkpoint %s was made", file, sidecar));
+            }
+            LOGGER.log(INFO, "Resuming import of {0} after {1}", file, from);
+        } else if (resume) {
+            LOGGER.log(INFO, "No checkpoint {0}, importing {1} from the start", sidecar, file);
+        }
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var seekable = isUncompressedNdjson(channel);
+            var base = seekable && from != null && from.getOffset() > 0 ? from.getOffset() : 0;
+            var counter = new CountingInputStream(FileChannels.newInputStream(channel, base));
+            var in = Compression.decompress(counter);
+            var format = seekable ? PreferencesFormat.NDJSON : PreferencesFormat.detect(in);
+            LOGGER.log(INFO, "Importing preferences {0}{1} in batches of {2} nodes from byte {3}",
+                    delta ? "delta " : "", format, batchSize, base);
+
+            var writer = new CheckpointWriter(sidecar, size, modified, progress);
+            var applier = new BatchedPreferencesApplier(batchSize, () -> base + counter.getCount(), writer);
+            var jsonReader = seekable ? new PreferencesJsonReader(delta) : null;
+            LongSupplier offset = seekable ? () -> base + jsonReader.getRecordOffset() : null;
+            writer.checkpoints = new CheckpointHandler(compare(applier), from, base > 0, offset);
+            if (jsonReader != null) {
+                jsonReader.read(in, writer.checkpoints);
+            } else {
+                parse(format, in, writer.checkpoints);
+            }
+            LOGGER.log(INFO, "Imported {0}", applier.getProgress());
+            if (skipUnchanged) {
+                LOGGER.log(INFO, "Compared with current values: {0}", changes);
+            }
+        }
+        Files.deleteIfExists(sidecar);
+    }
+
+    /**
+     * Returns {@code true} if the file is uncompressed NDJSON, which can be read
+     * from the start of any record.
+     */
+    private static boolean isUncompressedNdjson(FileChannel channel) throws IOException {
+        var in = FileChannels.newInputStream(channel, 0);
+        return Compression.detect(in) == Compression.NONE && PreferencesFormat.detect(in) == PreferencesFormat.NDJSON;
+    }
+
+    /**
+     * Reads the document in the given format and reports it to the handler,
+     * skipping unchanged values if asked to.
+     */
+    private void read(PreferencesFormat format, InputStream in, PreferencesHandler handler)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        parse(format, in, compare(handler));
+        if (skipUnchanged) {
+            LOGGER.log(INFO, "Compared with current values: {0}", changes);
+        }
+    }
+
+    /**
+     * Puts a {@link PreferencesChangeDetector} in front of the handler if
+     * unchanged values are skipped.
+     */
+    private PreferencesHandler compare(PreferencesHandler handler) {
+        if (!skipUnchanged) {
+            return handler;
+        }
+        var detector = new PreferencesChangeDetector(handler);
+        changes = detector.getChanges();
+        return detector;
+    }
+
+    /**
+     * Reads the document in the given format and reports it to the handler. A
+     * document that isn't a delta can't remove keys or nodes, and XML may only
+     * contain what the Preferences DTD allows.
+     */
+    private void parse(PreferencesFormat format, InputStream in, PreferencesHandler handler)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        format.read(in, handler, delta);
+    }
+
     /**
      * Command line access to executing import of Preferences XML.
      * 
@@ -63,16 +506,62 @@ public class ImportPreferences implements Callable<Void> {
      * <DL>
      * <DT><CODE>-i &lt;prefs-xml-file&gt;</CODE>
      * <DD>Input file to read preferences XML from. If not set, preferences XML is
-     * read from {@link System#in}.
+     * read from {@link System#in}. XML compressed with gzip or deflate is
+     * decompressed. Binary snapshots and NDJSON (compressed or not) are read too.
+     * <DT><CODE>-n &lt;nodename&gt;</CODE>
+     * <DD>Import only the keys of the named node from an uncompressed binary
+     * snapshot file given with <CODE>-i</CODE>. Only the snapshot's index and the
+     * node itself are read. Node names can be prefixed with <CODE>User:</CODE> or
+     * <CODE>System:</CODE>; without a prefix, the node is under the root chosen by
+     * <CODE>com.github.argherna.preftool.systemRoot</CODE>.
+     * <DT><CODE>--delta</CODE>
+     * <DD>The input is a delta exported with <CODE>ExportPreferences -b</CODE>.
+     * Keys and nodes it marks as removed are removed. Without it, an input in any
+     * format that removes keys or nodes is rejected.
+     * <DT><CODE>--parallelism &lt;n&gt;</CODE>
+     * <DD>Write different top-level subtrees on up to {@code n} threads at once.
+     * The nodes of each subtree are written in order, so the result is the same
+     * as with one thread. The default is 1.
+     * <DT><CODE>--batch-size &lt;n&gt;</CODE>
+     * <DD>Write nodes {@code n} at a time, flushing each batch to the backing
+     * store, and print the nodes and keys imported, bytes read and rate to
+     * {@link System#err} as the import goes. Can't be used with
+     * <CODE>--parallelism</CODE>.
+     * <DT><CODE>--skip-unchanged</CODE>
+     * <DD>Write only keys whose value differs from the current value, leaving
+     * unchanged nodes untouched, and print how many keys and nodes were
+     * unchanged, updated, added and removed to {@link System#err}. Can't be used
+     * with <CODE>--parallelism</CODE>.
+     * <DT><CODE>--checkpoint</CODE>
+     * <DD>Import the file given with <CODE>-i</CODE> in batches (of 1000 nodes
+     * unless <CODE>--batch-size</CODE> is given), recording after each batch the
+     * last node applied and where the rest of the input starts in
+     * <CODE>&lt;prefs-xml-file&gt;.checkpoint</CODE>. The checkpoint file is
+     * deleted when the import is done.
+     * <DT><CODE>--resume</CODE>
+     * <DD>Like <CODE>--checkpoint</CODE>, but continue from the checkpoint file
+     * left by an import that failed. Uncompressed NDJSON is read from where the
+     * checkpoint says; other inputs are read from the start without writing the
+     * nodes already imported. Fails if the input file has changed since.
+     * <DT><CODE>--validate</CODE>
+     * <DD>Check the whole file given with <CODE>-i</CODE> with a
+     * {@link PreferencesValidator} before importing anything, and stop at the
+     * first problem, printing where it is.
      * </DL>
      * 
      * <P>
      * The system properties you can set are:
      * <DL>
-     * <DT><CODE>com.github.argherna.preftool.ImportPreferences.dryRun</CODE>
-     * <DD>If <CODE>true</CODE>, do not actually import the preferences XML but
-     * print the name of the class, root, and XML file name and exit with status
-     * <CODE>2</CODE>.
+     * <DT><CODE>com.github.argherna.preftool.dryRun</CODE>
+     * <DD>If <CODE>true</CODE>, do not actually import the preferences but print
+     * the name of the class and the options, then read the input, compare it with
+     * the preferences and print the plan: the nodes and keys that would be
+     * created, updated, removed or left unchanged, an estimate of the flush
+     * volume, and conflicts. Nothing is written. Exits with status <CODE>2</CODE>.
+     * See {@link #plan()}.
+     * <DT><CODE>com.github.argherna.preftool.systemRoot</CODE>
+     * <DD>If <CODE>true</CODE>, a node name given with <CODE>-n</CODE> without a
+     * root prefix is under the system root. By default, it is under the user root.
      * </DL>
      * 
      * @param args command line arguments
@@ -84,25 +573,70 @@ public class ImportPreferences implements Callable<Void> {
         if (args.length == 1 && argIsHelpFlag(args[0])) {
             usage();
             System.exit(2);
-        } else if (args.length == 1) {
-            System.err.printf("Unsupported arg \"%s\"%n", args[0]);
-            usage();
-            System.exit(1);
         }
 
         var instream = System.in;
         var filename = "";
+        var nodename = "";
+        var delta = false;
+        var parallelism = 1;
+        var batchSize = 0;
+        var skipUnchanged = false;
+        var checkpoint = false;
+        var resume = false;
+        var validate = false;
 
         var argsCount = 0;
         var nextArgIsOptionValue = false;
+        var nextArgIsNodename = false;
+        var nextArgIsParallelism = false;
+        var nextArgIsBatchSize = false;
 
         while (argsCount < args.length) {
             var arg = args[argsCount];
             if (arg.equals("-i")) {
                 nextArgIsOptionValue = true;
+            } else if (arg.equals("-n")) {
+                nextArgIsNodename = true;
+            } else if (arg.equals("--delta")) {
+                delta = true;
+            } else if (arg.equals("--parallelism")) {
+                nextArgIsParallelism = true;
+            } else if (arg.equals("--skip-unchanged")) {
+                skipUnchanged = true;
+            } else if (arg.equals("--batch-size")) {
+                nextArgIsBatchSize = true;
+            } else if (arg.equals("--checkpoint")) {
+                checkpoint = true;
+            } else if (arg.equals("--resume")) {
+                checkpoint = true;
+                resume = true;
+            } else if (arg.equals("--validate")) {
+                validate = true;
+            } else if (nextArgIsBatchSize) {
+                nextArgIsBatchSize = false;
+                try {
+                    batchSize = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    System.err.printf("Batch size must be a number (was given \"%s\")%n", arg);
+                    usage();
+                    System.exit(1);
+                }
+            } else if (nextArgIsParallelism) {
+                nextArgIsParallelism = false;
+                try {
+                    parallelism = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    System.err.printf("Parallelism must be a number (was given \"%s\")%n", arg);
+                    usage();
+                    System.exit(1);
+                }
             } else if (nextArgIsOptionValue) {
                 nextArgIsOptionValue = false;
                 filename = arg;
+            } else if (nextArgIsNodename) {
+                nextArgIsNodename = false;
+                nodename = arg;
             } else {
                 System.err.printf("Unsupported arg \"%s\"%n", arg);
                 usage();
@@ -111,18 +645,110 @@ public class ImportPreferences implements Callable<Void> {
             argsCount++;
         }
 
+        if (nextArgIsOptionValue || nextArgIsNodename || nextArgIsParallelism || nextArgIsBatchSize) {
+            System.err.printf("Missing value for \"%s\"%n", args[args.length - 1]);
+            usage();
+            System.exit(1);
+        }
+        if (!nodename.isBlank() && filename.isBlank()) {
+            System.err.printf("-n requires a snapshot file given with -i%n");
+            usage();
+            System.exit(1);
+        }
+        if (!nodename.isBlank() && (delta || skipUnchanged)) {
+            System.err.printf("-n can't be used with --delta or --skip-unchanged%n");
+            usage();
+            System.exit(1);
+        }
+        if (skipUnchanged && parallelism > 1) {
+            System.err.printf("--skip-unchanged can't be used with --parallelism%n");
+            usage();
+            System.exit(1);
+        }
+        if (batchSize > 0 && (parallelism > 1 || !nodename.isBlank())) {
+            System.err.printf("--batch-size can't be used with --parallelism or -n%n");
+            usage();
+            System.exit(1);
+        }
+
+        if (checkpoint && (filename.isBlank() || !nodename.isBlank() || parallelism > 1)) {
+            System.err.printf("--checkpoint and --resume need a file given with -i and can't be used with -n or --parallelism%n");
+            usage();
+            System.exit(1);
+        }
+        if (validate && filename.isBlank()) {
+            System.err.printf("--validate needs a file given with -i%n");
+            usage();
+            System.exit(1);
+        }
+        if (checkpoint && batchSize == 0) {
+            batchSize = DEFAULT_CHECKPOINT_BATCH_SIZE;
+        }
+
         if (DRY_RUN) {
             var fname = (filename.isBlank()) ? "<System.in>" : filename;
-            System.err.printf("%s Dry Run:filename=%s%n", ImportPreferences.class.getName(), fname);
+            var nname = (nodename.isBlank()) ? "<all>" : nodename;
+            System.err.printf(
+                    "%s Dry Run:filename=%s,node=%s,delta=%b,parallelism=%d,batchSize=%d,skipUnchanged=%b,checkpoint=%b,resume=%b,validate=%b%n",
+                    ImportPreferences.class.getName(), fname, nname, delta, parallelism, batchSize, skipUnchanged,
+                    checkpoint, resume, validate);
+            if (validate) {
+                validateOrExit(filename, delta);
+            }
+            try {
+                PreferencesPlanner.Plan plan;
+                if (!nodename.isBlank()) {
+                    try (var channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+                        plan = new ImportPreferences(channel, nodename, SYSTEM_ROOT).plan();
+                    }
+                } else {
+                    if (!filename.isBlank()) {
+                        instream = FileChannels.newInputStream(Path.of(filename));
+                    }
+                    plan = new ImportPreferences(instream, delta).plan();
+                }
+                System.err.printf("%s%n", plan);
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
             System.exit(2);
         }
 
+        if (validate) {
+            validateOrExit(filename, delta);
+        }
+
+        if (!nodename.isBlank()) {
+            try (var channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+                new ImportPreferences(channel, nodename, SYSTEM_ROOT).call();
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
         try {
-            if (!filename.isBlank()) {
-                instream = new FileInputStream(new File(filename));
+            var reporter = batchSize > 0 ? new ProgressReporter() : null;
+            ImportPreferences importPreferencesAction;
+            if (checkpoint) {
+                importPreferencesAction = new ImportPreferences(Path.of(filename), delta, batchSize, skipUnchanged,
+                        resume, reporter);
+            } else {
+                if (!filename.isBlank()) {
+                    instream = FileChannels.newInputStream(Path.of(filename));
+                }
+                importPreferencesAction = new ImportPreferences(instream, delta, parallelism, batchSize,
+                        skipUnchanged, reporter);
             }
-            var importPreferencesAction = new ImportPreferences(instream);
             importPreferencesAction.call();
+            if (reporter != null) {
+                reporter.finish();
+            }
+            if (skipUnchanged) {
+                System.err.printf("%s%n", importPreferencesAction.getChanges());
+            }
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
@@ -133,7 +759,93 @@ public class ImportPreferences implements Callable<Void> {
      * Prints a usage message to {@link System#err}.
      */
     private static void usage() {
-        System.err.printf("Usage: %s [-i prefs-xml-file]%n", ImportPreferences.class.getName());
+        System.err.printf("Usage: %s [-i prefs-xml-file [-n nodename]] [--delta] [--parallelism n | --batch-size n] [--skip-unchanged] [--checkpoint | --resume] [--validate]%n", ImportPreferences.class.getName());
+    }
+
+    /**
+     * Checks the file with a {@link PreferencesValidator}, printing the first
+     * problem and exiting with status {@code 1} if there is one.
+     */
+    private static void validateOrExit(String filename, boolean delta) {
+        try (var in = FileChannels.newInputStream(Path.of(filename))) {
+            var format = new PreferencesValidator(delta).validate(in);
+            LOGGER.log(INFO, "Validated {0} {1}", format, filename);
+        } catch (InvalidPreferencesFormatException e) {
+            System.err.printf("%s: %s%n", filename, e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints progress reports to {@link System#err}, at most one a second, and the
+     * last one when the import is done.
+     */
+    private static final class ProgressReporter implements Consumer<ImportProgress> {
+
+        private static final long INTERVAL_MILLIS = 1000;
+
+        private ImportProgress latest;
+
+        private long lastPrinted = -INTERVAL_MILLIS;
+
+        @Override
+        public void accept(ImportProgress progress) {
+            latest = progress;
+            var now = progress.getElapsed().toMillis();
+            if (now - lastPrinted >= INTERVAL_MILLIS) {
+                lastPrinted = now;
+                System.err.printf("Imported %s%n", progress);
+                latest = null;
+            }
+        }
+
+        void finish() {
+            if (latest != null) {
+                System.err.printf("Imported %s%n", latest);
+            }
+        }
+    }
+
+    /**
+     * Saves a checkpoint after every flush of a batch, then passes the progress
+     * report on.
+     */
+    private static final class CheckpointWriter implements Consumer<ImportProgress> {
+
+        private final Path sidecar;
+
+        private final long inputSize;
+
+        private final long inputModified;
+
+        private final Consumer<ImportProgress> progress;
+
+        private CheckpointHandler checkpoints;
+
+        CheckpointWriter(Path sidecar, long inputSize, long inputModified, Consumer<ImportProgress> progress) {
+            this.sidecar = sidecar;
+            this.inputSize = inputSize;
+            this.inputModified = inputModified;
+            this.progress = progress;
+        }
+
+        @Override
+        public void accept(ImportProgress report) {
+            var checkpoint = checkpoints.checkpoint(inputSize, inputModified);
+            if (checkpoint != null) {
+                try {
+                    checkpoint.save(sidecar);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            if (progress != null) {
+                progress.accept(report);
+            }
+        }
     }
 
     /**
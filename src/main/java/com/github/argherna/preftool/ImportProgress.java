@@ -0,0 +1,83 @@
+package com.github.argherna.preftool;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * How far an import has got: the nodes and keys applied so far, the bytes of
+ * input read and the time taken.
+ *
+ * <P>
+ * Instances are immutable.
+ *
+ * @see BatchedPreferencesApplier
+ */
+public final class ImportProgress {
+
+    private final long nodes;
+
+    private final long keys;
+
+    private final long bytesRead;
+
+    private final Duration elapsed;
+
+    /**
+     * Constructs an ImportProgress.
+     *
+     * @param nodes     the number of nodes applied, including removed nodes.
+     * @param keys      the number of keys applied, including removed keys.
+     * @param bytesRead the number of bytes of input read, before any
+     *                  decompression.
+     * @param elapsed   the time since the import started.
+     * @throws NullPointerException if elapsed is null.
+     */
+    public ImportProgress(long nodes, long keys, long bytesRead, Duration elapsed) {
+        this.nodes = nodes;
+        this.keys = keys;
+        this.bytesRead = bytesRead;
+        this.elapsed = Objects.requireNonNull(elapsed, "Elapsed time cannot be null!");
+    }
+
+    /**
+     * @return the number of nodes applied, including removed nodes.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the number of keys applied, including removed keys.
+     */
+    public long getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the number of bytes of input read, before any decompression.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the time since the import started.
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return the number of keys applied per second so far.
+     */
+    public double getKeysPerSecond() {
+        var millis = elapsed.toMillis();
+        return millis == 0 ? 0 : keys * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d nodes, %,d keys, %,d bytes read in %.1fs (%,.0f keys/s)", nodes, keys,
+                bytesRead, elapsed.toMillis() / 1000.0, getKeysPerSecond());
+    }
+}
@@ -0,0 +1,517 @@
+package com.github.argherna.preftool;
+
+import static com.github.argherna.preftool.Constants.DRY_RUN;
+import static com.github.argherna.preftool.Constants.SYSTEM_ROOT;
+import static java.lang.System.Logger.Level.INFO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Invoked to count what is in a Preferences subtree using a fork-join pool.
+ *
+ * <P>
+ * Each node is read once, as a {@link NodeSnapshot}, and the subtree totals are
+ * added up as tasks complete, so nothing but the totals is kept. Sibling
+ * subtrees are read concurrently and no task waits on its children, so the
+ * depth of the tree doesn't affect the depth of any thread's stack.
+ *
+ * <P>
+ * The {@link Inventory} returned holds the totals for the whole subtree and, to
+ * a given depth, for each subtree under it.
+ */
+public class InventoryPreferences implements Callable<InventoryPreferences.Inventory> {
+
+    private static final System.Logger LOGGER = System.getLogger(InventoryPreferences.class.getName());
+
+    private static final int DEFAULT_LARGEST_VALUES = 10;
+
+    private final Preferences node;
+
+    private final int parallelism;
+
+    private final int depth;
+
+    private final int largestValues;
+
+    /**
+     * Constructs an InventoryPreferences instance that reads with one thread per
+     * available processor and keeps totals for the node's children.
+     *
+     * @param node the Preferences node whose subtree is to be counted.
+     */
+    public InventoryPreferences(Preferences node) {
+        this(node, Runtime.getRuntime().availableProcessors(), 1, DEFAULT_LARGEST_VALUES);
+    }
+
+    /**
+     * Constructs an InventoryPreferences instance.
+     *
+     * @param node          the Preferences node whose subtree is to be counted.
+     * @param parallelism   the number of threads reading the subtree.
+     * @param depth         how many levels below the node to keep subtree totals
+     *                      for; 0 keeps only the node's.
+     * @param largestValues how many of the largest values to keep per subtree.
+     * @throws NullPointerException     if node is null.
+     * @throws IllegalArgumentException if parallelism is less than 1 or depth or
+     *                                  largestValues are negative.
+     */
+    public InventoryPreferences(Preferences node, int parallelism, int depth, int largestValues) {
+        this.node = Objects.requireNonNull(node, "Preferences cannot be null!");
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Parallelism must be at least 1 (was given %d)", parallelism));
+        }
+        if (depth < 0 || largestValues < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Depth and largest values cannot be negative (was given %d and %d)", depth, largestValues));
+        }
+        this.parallelism = parallelism;
+        this.depth = depth;
+        this.largestValues = largestValues;
+    }
+
+    /**
+     * Counts the subtree. If reading fails, the reads already started are waited
+     * for before the failure is reported.
+     *
+     * @return the totals for the subtree.
+     * @throws BackingStoreException if a BackingStoreException is thrown reading
+     *                               the subtree.
+     */
+    @Override
+    public Inventory call() throws BackingStoreException {
+        LOGGER.log(INFO, "Taking inventory of {0} with parallelism {1}", node, parallelism);
+        var inventory = new Inventory(node.absolutePath(), largestValues);
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new InventoryTask(null, node, inventory, 0, this));
+        } catch (RuntimeException e) {
+            // sibling tasks may still be reading; cancel the ones not started
+            pool.shutdownNow();
+            throw PreferencesUtilities.unwrap(e);
+        } finally {
+            pool.shutdown();
+            PreferencesUtilities.awaitTermination(pool);
+        }
+        LOGGER.log(INFO, "Counted {0} nodes and {1} keys under {2}", inventory.nodes, inventory.keys, node);
+        return inventory;
+    }
+
+    /**
+     * Returns the number of bytes a value takes when encoded as UTF-8.
+     *
+     * @param value the value.
+     * @return the encoded length.
+     */
+    static long utf8Length(String value) {
+        long length = 0;
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Command line access to taking inventory of a Preferences subtree.
+     *
+     * <P>
+     * Syntax for invoking this utility is:
+     *
+     * <PRE>
+     * <CODE>java [options] \
+     *     com.github.argherna.preftool.InventoryPreferences [options] [args]</CODE>
+     * </PRE>
+     *
+     * <P>
+     * The totals for the node and each subtree under it are printed to
+     * {@link System#out}, one subtree per line and indented by depth, followed by
+     * the largest values found in the whole subtree.
+     *
+     * <P>
+     * The command line options used are:
+     * <DL>
+     * <DT><CODE>-d &lt;depth&gt;</CODE>
+     * <DD>How many levels below the node to print subtree totals for. The default
+     * is 1.
+     * <DT><CODE>-l &lt;count&gt;</CODE>
+     * <DD>How many of the largest values to print. The default is 10.
+     * <DT><CODE>--parallelism &lt;n&gt;</CODE>
+     * <DD>Read the subtree on {@code n} threads. The default is the number of
+     * available processors.
+     * </DL>
+     *
+     * <P>
+     * The command line arguments used are:
+     * <DL>
+     * <DT><CODE>&lt;nodename&gt;</CODE>
+     * <DD>Node to take inventory of. Specify as <CODE>/path/to/node</CODE>,
+     * optionally prefixed with <CODE>User:</CODE> or <CODE>System:</CODE>.
+     * </DL>
+     *
+     * <P>
+     * The system properties you can set are:
+     * <DL>
+     * <DT><CODE>com.github.argherna.preftool.dryRun</CODE>
+     * <DD>If <CODE>true</CODE>, do not count but print the name of the class, root,
+     * node name and options and exit with status <CODE>2</CODE>.
+     * <DT><CODE>com.github.argherna.preftool.systemRoot</CODE>
+     * <DD>If <CODE>true</CODE>, a node name without a root prefix is under the
+     * system root. By default, it is under the user root.
+     * </DL>
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+
+        if (args.length == 0) {
+            System.err.printf("Missing argument: nodename%n");
+            usage();
+            System.exit(1);
+        }
+
+        var depth = 1;
+        var largest = DEFAULT_LARGEST_VALUES;
+        var parallelism = Runtime.getRuntime().availableProcessors();
+        var nodename = "";
+
+        var argsCount = 0;
+        while (argsCount < args.length) {
+            var arg = args[argsCount];
+            if ((arg.equals("-d") || arg.equals("-l") || arg.equals("--parallelism"))
+                    && argsCount + 1 < args.length) {
+                var value = parseNumber(arg, args[++argsCount]);
+                if (arg.equals("-d")) {
+                    depth = value;
+                } else if (arg.equals("-l")) {
+                    largest = value;
+                } else {
+                    parallelism = value;
+                }
+            } else if (!arg.startsWith("-") && nodename.isEmpty()) {
+                nodename = arg;
+            } else {
+                System.err.printf("Unsupported arg \"%s\"%n", arg);
+                usage();
+                System.exit(1);
+            }
+            argsCount++;
+        }
+
+        if (nodename.isEmpty()) {
+            System.err.printf("Missing argument: nodename%n");
+            usage();
+            System.exit(1);
+        }
+
+        if (DRY_RUN) {
+            var root = SYSTEM_ROOT ? "system" : "user";
+            System.err.printf("%s Dry Run:root=%s,node=%s,depth=%d,largest=%d,parallelism=%d%n",
+                    InventoryPreferences.class.getName(), root, nodename, depth, largest, parallelism);
+            System.exit(2);
+        }
+
+        try {
+            var prefs = PreferencesUtilities.getPreferences(nodename, SYSTEM_ROOT);
+            var inventory = new InventoryPreferences(prefs, parallelism, depth, largest).call();
+            print(inventory, 0);
+            if (!inventory.getLargestValues().isEmpty()) {
+                System.out.printf("%nLargest values:%n");
+                for (var value : inventory.getLargestValues()) {
+                    System.out.printf("%10d  %s %s%n", value.getBytes(), value.getPath(), value.getKey());
+                }
+            }
+            System.out.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void print(Inventory inventory, int level) {
+        System.out.printf("%s%s  nodes=%d keys=%d bytes=%d types=%s%n", "  ".repeat(level), inventory.getPath(),
+                inventory.getNodes(), inventory.getKeys(), inventory.getValueBytes(), inventory.getTypeCounts());
+        for (var subtree : inventory.getSubtrees()) {
+            print(subtree, level + 1);
+        }
+    }
+
+    /**
+     * Prints a usage message to {@link System#err}.
+     */
+    private static void usage() {
+        System.err.printf("Usage: %s [-d depth] [-l count] [--parallelism n] <nodename>%n",
+                InventoryPreferences.class.getName());
+    }
+
+    private static int parseNumber(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.printf("%s must be a number (was given \"%s\")%n", option, value);
+            usage();
+            System.exit(1);
+            return 0;
+        }
+    }
+
+    /**
+     * Totals for a Preferences subtree.
+     *
+     * <P>
+     * Instances are filled in while the subtree is read and must not be used until
+     * {@link InventoryPreferences#call()} returns.
+     */
+    public static final class Inventory {
+
+        private final String path;
+
+        private final int largestValues;
+
+        private final Map<Class<?>, Long> types = new HashMap<>();
+
+        private final PriorityQueue<LargeValue> largest = new PriorityQueue<>(LargeValue.BY_SIZE);
+
+        private final List<Inventory> subtrees = new ArrayList<>();
+
+        private long nodes;
+
+        private long keys;
+
+        private long valueBytes;
+
+        Inventory(String path, int largestValues) {
+            this.path = path;
+            this.largestValues = largestValues;
+        }
+
+        /**
+         * @return the absolute path of the subtree's node.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the number of nodes in the subtree, including its node.
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return the number of keys in the subtree.
+         */
+        public long getKeys() {
+            return keys;
+        }
+
+        /**
+         * @return the total length of all values in the subtree, encoded as UTF-8.
+         */
+        public long getValueBytes() {
+            return valueBytes;
+        }
+
+        /**
+         * Returns how many values in the subtree there are of each type, keyed by the
+         * simple name of the type guessed for the value.
+         *
+         * @return the type counts, sorted by type name.
+         * @see PreferencesUtilities#classifyValue(String)
+         */
+        public Map<String, Long> getTypeCounts() {
+            var counts = new TreeMap<String, Long>();
+            types.forEach((type, count) -> counts.put(type.getSimpleName(), count));
+            return counts;
+        }
+
+        /**
+         * @return the largest values in the subtree, largest first.
+         */
+        public List<LargeValue> getLargestValues() {
+            var values = new ArrayList<>(largest);
+            values.sort(LargeValue.BY_SIZE.reversed());
+            return values;
+        }
+
+        /**
+         * @return totals for the subtrees under this one that were kept, sorted by
+         *         path.
+         */
+        public List<Inventory> getSubtrees() {
+            var sorted = new ArrayList<>(subtrees);
+            sorted.sort(Comparator.comparing(Inventory::getPath));
+            return Collections.unmodifiableList(sorted);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d nodes, %d keys, %d value bytes", path, nodes, keys, valueBytes);
+        }
+
+        /**
+         * Adds the contents of a single node.
+         */
+        private void add(NodeSnapshot snapshot) {
+            nodes++;
+            keys += snapshot.size();
+            for (var i = 0; i < snapshot.size(); i++) {
+                var bytes = utf8Length(snapshot.getValue(i));
+                valueBytes += bytes;
+                types.merge(snapshot.getType(i), 1L, Long::sum);
+                offer(new LargeValue(snapshot.getAbsolutePath(), snapshot.getKey(i), bytes));
+            }
+        }
+
+        /**
+         * Adds the totals of a subtree under this one.
+         */
+        private synchronized void add(Inventory subtree) {
+            nodes += subtree.nodes;
+            keys += subtree.keys;
+            valueBytes += subtree.valueBytes;
+            subtree.types.forEach((type, count) -> types.merge(type, count, Long::sum));
+            subtree.largest.forEach(this::offer);
+        }
+
+        private synchronized void keep(Inventory subtree) {
+            subtrees.add(subtree);
+        }
+
+        private void offer(LargeValue value) {
+            if (largest.size() < largestValues) {
+                largest.add(value);
+            } else if (largestValues > 0 && LargeValue.BY_SIZE.compare(value, largest.peek()) > 0) {
+                largest.poll();
+                largest.add(value);
+            }
+        }
+    }
+
+    /**
+     * A value found while taking inventory and how large it is.
+     */
+    public static final class LargeValue {
+
+        private static final Comparator<LargeValue> BY_SIZE = Comparator.comparingLong(LargeValue::getBytes)
+                .thenComparing(LargeValue::getPath, Comparator.reverseOrder())
+                .thenComparing(LargeValue::getKey, Comparator.reverseOrder());
+
+        private final String path;
+
+        private final String key;
+
+        private final long bytes;
+
+        LargeValue(String path, String key, long bytes) {
+            this.path = path;
+            this.key = key;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the absolute path of the node holding the value.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the key of the value.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the length of the value, encoded as UTF-8.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s (%d bytes)", path, key, bytes);
+        }
+    }
+
+    /**
+     * Reads one node into its own Inventory and forks a task for each of its
+     * children. When the task and all its children have completed, its totals are
+     * added to its parent's.
+     */
+    private static final class InventoryTask extends CountedCompleter<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Preferences node;
+
+        private final transient Inventory inventory;
+
+        private final int level;
+
+        private final transient InventoryPreferences scan;
+
+        InventoryTask(InventoryTask parent, Preferences node, Inventory inventory, int level,
+                InventoryPreferences scan) {
+            super(parent);
+            this.node = node;
+            this.inventory = inventory;
+            this.level = level;
+            this.scan = scan;
+        }
+
+        @Override
+        public void compute() {
+            try {
+                inventory.add(PreferencesUtilities.snapshot(node));
+                for (var childName : node.childrenNames()) {
+                    var child = new Inventory(PreferencesUtilities.childPath(inventory.path, childName),
+                            scan.largestValues);
+                    addToPendingCount(1);
+                    new InventoryTask(this, node.node(childName), child, level + 1, scan).fork();
+                }
+            } catch (BackingStoreException e) {
+                throw new CompletionException(e);
+            }
+            tryComplete();
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            var parent = (InventoryTask) getCompleter();
+            if (parent != null) {
+                parent.inventory.add(inventory);
+                if (level <= scan.depth) {
+                    parent.inventory.keep(inventory);
+                }
+            }
+        }
+    }
+}
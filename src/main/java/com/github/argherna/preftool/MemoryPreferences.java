@@ -0,0 +1,104 @@
+package com.github.argherna.preftool;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.prefs.AbstractPreferences;
+
+/**
+ * A Preferences tree held entirely in memory.
+ *
+ * <P>
+ * Nothing is ever read from or written to a backing store, so flushing and
+ * syncing do nothing. Useful for loading a Preferences document to compare it
+ * with or use it as a baseline for a live tree without importing it.
+ */
+public final class MemoryPreferences extends AbstractPreferences {
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private final Map<String, String> values = new HashMap<>();
+
+    private final boolean userNode;
+
+    /**
+     * Constructs a new, empty user root node.
+     */
+    public MemoryPreferences() {
+        this(true);
+    }
+
+    /**
+     * Constructs a new, empty root node.
+     *
+     * @param userNode {@code true} if the tree stands in for a user root,
+     *                 {@code false} if it stands in for a system root.
+     */
+    public MemoryPreferences(boolean userNode) {
+        super(null, "");
+        this.userNode = userNode;
+    }
+
+    private MemoryPreferences(MemoryPreferences parent, String name) {
+        super(parent, name);
+        this.userNode = parent.userNode;
+        newNode = true;
+    }
+
+    @Override
+    public boolean isUserNode() {
+        return userNode;
+    }
+
+    @Override
+    protected void putSpi(String key, String value) {
+        values.put(key, value);
+    }
+
+    @Override
+    protected String getSpi(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    protected void removeSpi(String key) {
+        values.remove(key);
+    }
+
+    @Override
+    protected void removeNodeSpi() {
+        values.clear();
+    }
+
+    @Override
+    protected String[] keysSpi() {
+        return values.keySet().toArray(NO_NAMES);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <P>
+     * Every child of a MemoryPreferences node is held in the cache
+     * {@link AbstractPreferences} keeps of its children, so there are never any
+     * other children to report.
+     */
+    @Override
+    protected String[] childrenNamesSpi() {
+        return NO_NAMES;
+    }
+
+    @Override
+    protected AbstractPreferences childSpi(String name) {
+        return new MemoryPreferences(this, name);
+    }
+
+    @Override
+    protected void syncSpi() {
+        // nothing to sync with
+    }
+
+    @Override
+    protected void flushSpi() {
+        // nothing to flush to
+    }
+}
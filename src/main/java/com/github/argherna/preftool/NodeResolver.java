@@ -0,0 +1,93 @@
+package com.github.argherna.preftool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Resolves absolute paths to Preferences nodes under a root, one path segment
+ * at a time.
+ *
+ * <P>
+ * {@link Preferences#node(String)} resolves a multi-segment path recursively,
+ * which overflows the stack on deep trees, and starts over from the root every
+ * time. This class keeps the chain of nodes resolved for the last path, so
+ * resolving nodes in tree order costs one {@code node(name)} call per node.
+ * Instances are not thread safe.
+ */
+final class NodeResolver {
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Preferences> nodes = new ArrayList<>();
+
+    /**
+     * Constructs a NodeResolver.
+     *
+     * @param root the node paths are resolved from.
+     */
+    NodeResolver(Preferences root) {
+        nodes.add(root);
+    }
+
+    /**
+     * Returns the node at the given path, creating it (and any missing ancestors)
+     * if it doesn't exist.
+     *
+     * @param path absolute path of the node.
+     * @return the node.
+     */
+    Preferences resolve(String path) {
+        var segments = segments(path);
+        var common = 0;
+        while (common < names.size() && common < segments.length && names.get(common).equals(segments[common])) {
+            common++;
+        }
+        while (names.size() > common) {
+            names.remove(names.size() - 1);
+            nodes.remove(nodes.size() - 1);
+        }
+        for (var i = common; i < segments.length; i++) {
+            nodes.add(nodes.get(nodes.size() - 1).node(segments[i]));
+            names.add(segments[i]);
+        }
+        return nodes.get(nodes.size() - 1);
+    }
+
+    /**
+     * Returns the node at the given path if it exists, without creating it or any
+     * of its ancestors.
+     *
+     * @param path absolute path of the node.
+     * @return the node, or {@code null} if it doesn't exist.
+     * @throws BackingStoreException if a BackingStoreException is thrown checking
+     *                               for a node.
+     */
+    Preferences find(String path) throws BackingStoreException {
+        var segments = segments(path);
+        var common = 0;
+        while (common < names.size() && common < segments.length && names.get(common).equals(segments[common])) {
+            common++;
+        }
+        var node = nodes.get(common);
+        for (var i = common; i < segments.length; i++) {
+            if (!node.nodeExists(segments[i])) {
+                return null;
+            }
+            node = node.node(segments[i]);
+        }
+        return node;
+    }
+
+    /**
+     * Splits an absolute path into its node names.
+     *
+     * @param path absolute path.
+     * @return node names, empty for the root.
+     */
+    static String[] segments(String path) {
+        var trimmed = path.startsWith("/") ? path.substring(1) : path;
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("/");
+    }
+}
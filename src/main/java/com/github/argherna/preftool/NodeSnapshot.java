@@ -0,0 +1,178 @@
+package com.github.argherna.preftool;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.prefs.Preferences;
+
+/**
+ * An immutable copy of the keys and values of a single Preferences node.
+ *
+ * <P>
+ * The keys, their guessed types and their stored (raw) values are kept in
+ * parallel arrays sorted by key name. Typed values are decoded from the raw
+ * values the first time they are asked for, so building a snapshot costs one
+ * backing store read per key and nothing more.
+ *
+ * @see PreferencesUtilities#snapshot(Preferences)
+ */
+public final class NodeSnapshot {
+
+    private final String absolutePath;
+
+    private final String[] keys;
+
+    private final Class<?>[] types;
+
+    private final String[] values;
+
+    private final Object[] typedValues;
+
+    /**
+     * Constructs a NodeSnapshot. The arrays are owned by the snapshot after this
+     * call and must already be sorted by key.
+     *
+     * @param absolutePath the absolute path of the node.
+     * @param keys         the keys, sorted.
+     * @param values       the raw values, in the same order as the keys.
+     */
+    NodeSnapshot(String absolutePath, String[] keys, String[] values) {
+        this.absolutePath = absolutePath;
+        this.keys = keys;
+        this.values = values;
+        this.types = new Class<?>[keys.length];
+        for (var i = 0; i < keys.length; i++) {
+            types[i] = PreferencesUtilities.classifyValue(values[i]);
+        }
+        this.typedValues = new Object[keys.length];
+    }
+
+    /**
+     * Returns the absolute path of the node this snapshot was taken from.
+     *
+     * @return the absolute path.
+     * @see Preferences#absolutePath()
+     */
+    public String getAbsolutePath() {
+        return absolutePath;
+    }
+
+    /**
+     * Returns the number of keys in this snapshot.
+     *
+     * @return the number of keys.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Returns {@code true} if the node had no keys when the snapshot was taken.
+     *
+     * @return {@code true} if there are no keys.
+     */
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    /**
+     * Returns the key at the given index.
+     *
+     * @param index index of the key.
+     * @return the key.
+     */
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Returns the guessed type of the value at the given index.
+     *
+     * @param index index of the key.
+     * @return the Class type of the value.
+     * @see PreferencesUtilities#classifyValue(String)
+     */
+    public Class<?> getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * Returns the value at the given index as it is stored in the backing store.
+     *
+     * @param index index of the key.
+     * @return the raw value.
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns the value at the given index decoded to its guessed type. Byte arrays
+     * are copied so the snapshot stays immutable.
+     *
+     * @param index index of the key.
+     * @return the typed value.
+     * @see PreferencesUtilities#getTypedValueFrom(Preferences, String, Class)
+     */
+    public Object getTypedValue(int index) {
+        var typedValue = typedValues[index];
+        if (typedValue == null) {
+            typedValue = decode(values[index], types[index]);
+            typedValues[index] = typedValue;
+        }
+        return typedValue instanceof byte[] ? ((byte[]) typedValue).clone() : typedValue;
+    }
+
+    /**
+     * Returns the index of the given key or a negative number if it isn't in this
+     * snapshot.
+     *
+     * @param key the key.
+     * @return the index of the key.
+     */
+    public int indexOf(String key) {
+        return Arrays.binarySearch(keys, key);
+    }
+
+    /**
+     * Returns the raw value for the given key or {@code null} if it isn't in this
+     * snapshot.
+     *
+     * @param key the key.
+     * @return the raw value or {@code null}.
+     */
+    public String get(String key) {
+        var index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s,keys=%d]", getClass().getSimpleName(), absolutePath, keys.length);
+    }
+
+    /**
+     * Decodes the raw value to the given type the same way the Preferences
+     * {@code get*} methods would.
+     *
+     * @param value the raw value.
+     * @param type  the type to decode to.
+     * @return the decoded value.
+     */
+    private static Object decode(String value, Class<?> type) {
+        if (type.equals(boolean.class)) {
+            return Boolean.valueOf(value.equalsIgnoreCase("true"));
+        } else if (type.equals(byte[].class)) {
+            return Base64.getDecoder().decode(value);
+        } else if (type.equals(double.class)) {
+            return Double.valueOf(value);
+        } else if (type.equals(float.class)) {
+            return Float.valueOf(value);
+        } else if (type.equals(int.class)) {
+            return Integer.valueOf(value);
+        } else if (type.equals(long.class)) {
+            return Long.valueOf(value);
+        } else {
+            return value;
+        }
+    }
+}
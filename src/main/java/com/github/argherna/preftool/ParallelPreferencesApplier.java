@@ -0,0 +1,302 @@
+package com.github.argherna.preftool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * A PreferencesHandler that writes the nodes it is handed to a user and a
+ * system root on a pool of threads, one top-level subtree per thread at a time.
+ *
+ * <P>
+ * Each top-level subtree of a root (the nodes under one child of the root, and
+ * the root's own keys on their own) is written in order by one thread at a
+ * time, while different subtrees are written concurrently. Since subtrees
+ * never share nodes, the result is the same as with a
+ * {@link PreferencesApplier}, including for removed nodes. The keys of a node
+ * are collected until the node ends and then queued for its subtree. Up to a
+ * few hundred nodes per thread are queued, so reading can run ahead into the
+ * next subtrees while one is written; reading waits when that many are waiting
+ * to be written.
+ *
+ * <P>
+ * The first exception thrown writing a node is rethrown from the next handler
+ * method called. Close the applier to stop its threads.
+ */
+public class ParallelPreferencesApplier implements PreferencesHandler, AutoCloseable {
+
+    /** Nodes queued per thread before reading waits. */
+    private static final int MAX_PENDING_PER_THREAD = 256;
+
+    /** Operations a subtree runs before letting other subtrees have its thread. */
+    private static final int OPERATIONS_PER_TURN = 64;
+
+    private final Preferences userRoot;
+
+    private final Preferences systemRoot;
+
+    private final ExecutorService executor;
+
+    private final Semaphore pending;
+
+    private final int maxPending;
+
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    private final Map<String, Subtree> subtrees = new HashMap<>();
+
+    private String rootType = "user";
+
+    private NodeWrite current;
+
+    /**
+     * Constructs a ParallelPreferencesApplier that writes to the JDK's user and
+     * system roots.
+     *
+     * @param parallelism the number of threads writing nodes.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public ParallelPreferencesApplier(int parallelism) {
+        this(Preferences.userRoot(), Preferences.systemRoot(), parallelism);
+    }
+
+    /**
+     * Constructs a ParallelPreferencesApplier.
+     *
+     * @param userRoot    node to write nodes under a user root to.
+     * @param systemRoot  node to write nodes under a system root to.
+     * @param parallelism the number of threads writing nodes.
+     * @throws NullPointerException     if either root is null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public ParallelPreferencesApplier(Preferences userRoot, Preferences systemRoot, int parallelism) {
+        this.userRoot = Objects.requireNonNull(userRoot, "User root cannot be null!");
+        this.systemRoot = Objects.requireNonNull(systemRoot, "System root cannot be null!");
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Parallelism must be at least 1 (was given %d)", parallelism));
+        }
+        this.executor = Executors.newFixedThreadPool(parallelism);
+        this.maxPending = parallelism * MAX_PENDING_PER_THREAD;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    @Override
+    public void startRoot(String type) throws BackingStoreException {
+        checkFailure();
+        rootType = type;
+    }
+
+    @Override
+    public void startNode(String path) throws BackingStoreException {
+        checkFailure();
+        current = new NodeWrite(path);
+    }
+
+    @Override
+    public void entry(String key, String value) {
+        current.keys.add(key);
+        current.values.add(value);
+    }
+
+    @Override
+    public void removeKey(String key) {
+        current.removedKeys.add(key);
+    }
+
+    @Override
+    public void endNode(String path) throws BackingStoreException {
+        var write = current;
+        current = null;
+        submit(path, write);
+    }
+
+    @Override
+    public void removeNode(String path) throws BackingStoreException {
+        submit(path, resolver -> {
+            var node = resolver.find(path);
+            if (node != null) {
+                node.removeNode();
+                // don't leave the removed node in the resolver's chain
+                var parent = path.substring(0, path.lastIndexOf('/'));
+                resolver.resolve(parent.isEmpty() ? "/" : parent);
+            }
+        });
+    }
+
+    /**
+     * Waits for every node to be written.
+     *
+     * @throws BackingStoreException if a BackingStoreException was thrown writing
+     *                               a node.
+     */
+    @Override
+    public void endDocument() throws BackingStoreException {
+        pending.acquireUninterruptibly(maxPending);
+        pending.release(maxPending);
+        checkFailure();
+    }
+
+    /**
+     * Stops the threads, abandoning nodes that haven't been written yet.
+     */
+    @Override
+    public void close() {
+        for (var subtree : executor.shutdownNow()) {
+            ((Subtree) subtree).abandon();
+        }
+    }
+
+    /**
+     * Queues an operation for the subtree the path is in, waiting while too many
+     * are queued.
+     */
+    private void submit(String path, Operation operation) throws BackingStoreException {
+        pending.acquireUninterruptibly();
+        if (failure.get() != null) {
+            pending.release();
+            checkFailure();
+        }
+        var segments = NodeResolver.segments(path);
+        var name = rootType + ":" + (segments.length == 0 ? "" : segments[0]);
+        subtrees.computeIfAbsent(name,
+                n -> new Subtree(rootType.equals("system") ? systemRoot : userRoot)).add(operation);
+    }
+
+    private void checkFailure() throws BackingStoreException {
+        var e = failure.get();
+        if (e instanceof BackingStoreException) {
+            throw (BackingStoreException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Something to do to one node of a subtree.
+     */
+    @FunctionalInterface
+    private interface Operation {
+
+        void apply(NodeResolver resolver) throws BackingStoreException;
+    }
+
+    /**
+     * The operations queued for one top-level subtree, run in order on one pool
+     * thread at a time.
+     */
+    private final class Subtree implements Runnable {
+
+        private final NodeResolver resolver;
+
+        private final Queue<Operation> queue = new ArrayDeque<>();
+
+        private boolean scheduled;
+
+        Subtree(Preferences root) {
+            this.resolver = new NodeResolver(root);
+        }
+
+        void add(Operation operation) {
+            synchronized (this) {
+                queue.add(operation);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                abandon();
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            for (var i = 0; i < OPERATIONS_PER_TURN; i++) {
+                Operation operation;
+                synchronized (this) {
+                    operation = queue.poll();
+                    if (operation == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    if (failure.get() == null) {
+                        operation.apply(resolver);
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    pending.release();
+                }
+            }
+            // give the other subtrees a turn
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // closed; the rest won't be written
+                abandon();
+            }
+        }
+
+        /**
+         * Drops the operations still queued, releasing their places in the queue
+         * so no one waiting to submit is left blocked.
+         */
+        private void abandon() {
+            int abandoned;
+            synchronized (this) {
+                abandoned = queue.size();
+                queue.clear();
+                scheduled = false;
+            }
+            pending.release(abandoned);
+        }
+    }
+
+    /**
+     * The keys to put into and remove from one node.
+     */
+    private static final class NodeWrite implements Operation {
+
+        private final String path;
+
+        private final List<String> keys = new ArrayList<>();
+
+        private final List<String> values = new ArrayList<>();
+
+        private final List<String> removedKeys = new ArrayList<>();
+
+        NodeWrite(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void apply(NodeResolver resolver) {
+            var node = resolver.resolve(path);
+            for (var i = 0; i < keys.size(); i++) {
+                node.put(keys.get(i), values.get(i));
+            }
+            for (var key : removedKeys) {
+                node.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.argherna.preftool;
+
+import java.util.Objects;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * A PreferencesHandler that writes every node and key it is handed to a user
+ * and a system root.
+ *
+ * <P>
+ * Keys are put as soon as they are reported, so nothing is held in memory
+ * beyond the node being written. Tombstones remove keys and nodes that exist and
+ * are ignored otherwise.
+ */
+public class PreferencesApplier implements PreferencesHandler {
+
+    private final Preferences userRoot;
+
+    private final Preferences systemRoot;
+
+    private NodeResolver resolver;
+
+    private Preferences current;
+
+    /**
+     * Constructs a PreferencesApplier that writes to the JDK's user and system
+     * roots.
+     *
+     * @see Preferences#userRoot()
+     * @see Preferences#systemRoot()
+     */
+    public PreferencesApplier() {
+        this(Preferences.userRoot(), Preferences.systemRoot());
+    }
+
+    /**
+     * Constructs a PreferencesApplier.
+     *
+     * @param userRoot   node to write nodes under a user root to.
+     * @param systemRoot node to write nodes under a system root to.
+     * @throws NullPointerException if either root is null.
+     */
+    public PreferencesApplier(Preferences userRoot, Preferences systemRoot) {
+        this.userRoot = Objects.requireNonNull(userRoot, "User root cannot be null!");
+        this.systemRoot = Objects.requireNonNull(systemRoot, "System root cannot be null!");
+    }
+
+    @Override
+    public void startRoot(String type) {
+        resolver = new NodeResolver(type.equals("system") ? systemRoot : userRoot);
+    }
+
+    @Override
+    public void startNode(String path) {
+        if (resolver == null) {
+            startRoot("user");
+        }
+        current = resolver.resolve(path);
+    }
+
+    @Override
+    public void entry(String key, String value) {
+        current.put(key, value);
+    }
+
+    @Override
+    public void removeKey(String key) {
+        current.remove(key);
+    }
+
+    @Override
+    public void removeNode(String path) throws BackingStoreException {
+        if (resolver == null) {
+            startRoot("user");
+        }
+        var node = resolver.find(path);
+        if (node != null) {
+            node.removeNode();
+            // don't leave the removed node in the resolver's chain
+            var parent = path.substring(0, path.lastIndexOf('/'));
+            resolver.resolve(parent.isEmpty() ? "/" : parent);
+        }
+    }
+
+    @Override
+    public void endNode(String path) {
+        current = null;
+    }
+}
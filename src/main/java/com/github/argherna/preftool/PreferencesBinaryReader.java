@@ -0,0 +1,382 @@
+package com.github.argherna.preftool;
+
+import static com.github.argherna.preftool.PreferencesBinaryWriter.DELTA_VERSION;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.END;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.END_ROOT;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.FLAG_DELTA;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.FLAG_TYPE_TAGS;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.MAGIC;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.NODE;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.REMOVE_NODE;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.ROOT;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.SYSTEM_ROOT;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.TYPE_TAGS;
+import static com.github.argherna.preftool.PreferencesBinaryWriter.USER_ROOT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+
+/**
+ * Reads binary snapshots written by {@link PreferencesBinaryWriter} and reports
+ * their contents to a {@link PreferencesHandler}.
+ *
+ * <P>
+ * A snapshot can be read from start to end from any stream, or a single node
+ * can be read from a file using the snapshot's node index. The tombstones in a
+ * delta are reported as {@link PreferencesHandler#removeKey(String)} and
+ * {@link PreferencesHandler#removeNode(String)}, unless the reader is
+ * constructed to reject them.
+ */
+public class PreferencesBinaryReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int TRAILER_SIZE = Long.BYTES + MAGIC.length;
+
+    private final boolean tombstones;
+
+    /**
+     * Constructs a PreferencesBinaryReader that reads snapshots and deltas.
+     */
+    public PreferencesBinaryReader() {
+        this(true);
+    }
+
+    /**
+     * Constructs a PreferencesBinaryReader.
+     *
+     * @param tombstones if {@code false}, the removed keys and nodes of a delta
+     *                   are rejected.
+     */
+    public PreferencesBinaryReader(boolean tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Reads the snapshot and reports its contents to the handler. The stream is
+     * not closed.
+     *
+     * @param inputStream the stream to read the snapshot from.
+     * @param handler     the handler to report to.
+     * @throws InvalidPreferencesFormatException if the stream isn't a snapshot or
+     *                                           is cut short.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if the handler throws a
+     *                                           BackingStoreException.
+     */
+    public void read(InputStream inputStream, PreferencesHandler handler)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        var in = new DataInputStream(
+                inputStream instanceof BufferedInputStream || inputStream instanceof FileChannels.MappedInputStream
+                        ? inputStream
+                        : new BufferedInputStream(inputStream, BUFFER_SIZE));
+        try {
+            var flags = readHeader(in);
+            var typeTags = (flags & FLAG_TYPE_TAGS) != 0;
+            var delta = (flags & FLAG_DELTA) != 0;
+            var strings = new ArrayList<String>();
+            String rootType = null;
+            var tag = in.readUnsignedByte();
+            while (tag != END) {
+                if (tag == ROOT) {
+                    rootType = rootTypeName(in.readUnsignedByte());
+                    handler.startRoot(rootType);
+                } else if (tag == NODE) {
+                    readNode(in, strings, true, typeTags, delta, tombstones, handler);
+                } else if (tag == REMOVE_NODE && delta) {
+                    var path = readPath(in, strings, true);
+                    requireTombstones(tombstones, "nodes", path);
+                    handler.removeNode(path);
+                } else if (tag == END_ROOT) {
+                    handler.endRoot(rootType);
+                    rootType = null;
+                } else {
+                    throw new InvalidPreferencesFormatException(String.format("Unknown record tag %d", tag));
+                }
+                tag = in.readUnsignedByte();
+            }
+        } catch (EOFException e) {
+            throw new InvalidPreferencesFormatException("Snapshot ends unexpectedly");
+        }
+        handler.endDocument();
+    }
+
+    /**
+     * Reads a single node from a snapshot file and reports it to the handler,
+     * without reading any other node.
+     *
+     * @param channel  the snapshot file.
+     * @param rootType {@code "user"} or {@code "system"}.
+     * @param path     absolute path of the node.
+     * @param handler  the handler to report to.
+     * @return {@code true} if the snapshot has the node, {@code false} if it
+     *         doesn't.
+     * @throws InvalidPreferencesFormatException if the file isn't a snapshot.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if the handler throws a
+     *                                           BackingStoreException.
+     */
+    public boolean readNode(FileChannel channel, String rootType, String path, PreferencesHandler handler)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        var index = readIndex(channel);
+        var offset = index.find(rootType.equals("system") ? SYSTEM_ROOT : USER_ROOT, NodeResolver.segments(path));
+        if (offset < 0) {
+            return false;
+        }
+        channel.position(offset);
+        var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        try {
+            if (in.readUnsignedByte() != NODE) {
+                throw new InvalidPreferencesFormatException(
+                        String.format("Node index points to offset %d, which isn't a node", offset));
+            }
+            handler.startRoot(rootType);
+            readNode(in, index.strings, false, index.typeTags, index.delta, tombstones, handler);
+            handler.endRoot(rootType);
+        } catch (EOFException e) {
+            throw new InvalidPreferencesFormatException("Snapshot ends unexpectedly");
+        }
+        handler.endDocument();
+        return true;
+    }
+
+    /**
+     * Reads the header and returns its flags.
+     */
+    private static int readHeader(DataInputStream in) throws IOException, InvalidPreferencesFormatException {
+        var magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new InvalidPreferencesFormatException("Not a Preferences binary snapshot");
+        }
+        var version = in.readUnsignedByte();
+        if (version > DELTA_VERSION) {
+            throw new InvalidPreferencesFormatException(String.format(
+                    "Snapshot format version %d is not supported. Versions %d or older can be read.", version,
+                    DELTA_VERSION));
+        }
+        return in.readUnsignedByte();
+    }
+
+    /**
+     * Reads a node record (after its tag) and reports it.
+     *
+     * @param define if {@code true}, strings defined in the record are added to
+     *               the string table; otherwise the table is already complete.
+     */
+    private static void readNode(DataInputStream in, List<String> strings, boolean define, boolean typeTags,
+            boolean delta, boolean tombstones, PreferencesHandler handler)
+            throws IOException, InvalidPreferencesFormatException, BackingStoreException {
+        var absolutePath = readPath(in, strings, define);
+        handler.startNode(absolutePath);
+        var keyCount = readVarInt(in);
+        for (var i = 0; i < keyCount; i++) {
+            var key = readString(in, strings, define);
+            if (typeTags) {
+                var type = in.readUnsignedByte();
+                if (type >= TYPE_TAGS.size()) {
+                    throw new InvalidPreferencesFormatException(String.format("Unknown type tag %d", type));
+                }
+            }
+            handler.entry(key, new String(readBytes(in), UTF_8));
+        }
+        if (delta) {
+            var removedCount = readVarInt(in);
+            for (var i = 0; i < removedCount; i++) {
+                var key = readString(in, strings, define);
+                requireTombstones(tombstones, "keys", key);
+                handler.removeKey(key);
+            }
+        }
+        handler.endNode(absolutePath);
+    }
+
+    private static String readPath(DataInputStream in, List<String> strings, boolean define)
+            throws IOException, InvalidPreferencesFormatException {
+        var depth = readVarInt(in);
+        var path = new StringBuilder();
+        for (var i = 0; i < depth; i++) {
+            path.append('/').append(readString(in, strings, define));
+        }
+        return depth == 0 ? "/" : path.toString();
+    }
+
+    private static String readString(DataInputStream in, List<String> strings, boolean define)
+            throws IOException, InvalidPreferencesFormatException {
+        var ref = readVarInt(in);
+        if (ref == 0) {
+            var string = new String(readBytes(in), UTF_8);
+            if (define) {
+                strings.add(string);
+            }
+            return string;
+        } else if (ref > strings.size()) {
+            throw new InvalidPreferencesFormatException(String.format("Undefined string reference %d", ref));
+        }
+        return strings.get(ref - 1);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException, InvalidPreferencesFormatException {
+        var bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads an unsigned variable-length integer.
+     *
+     * @see PreferencesBinaryWriter#writeVarInt(java.io.DataOutputStream, int)
+     */
+    static int readVarInt(DataInputStream in) throws IOException, InvalidPreferencesFormatException {
+        var value = 0;
+        for (var shift = 0; shift < 32; shift += 7) {
+            var b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidPreferencesFormatException("Malformed variable-length integer");
+    }
+
+    private static void requireTombstones(boolean tombstones, String what, String name)
+            throws InvalidPreferencesFormatException {
+        if (!tombstones) {
+            throw new InvalidPreferencesFormatException(
+                    String.format("Unexpected removal of %s; only a delta can remove %s", name, what));
+        }
+    }
+
+    private static String rootTypeName(int rootType) throws InvalidPreferencesFormatException {
+        if (rootType == USER_ROOT) {
+            return "user";
+        } else if (rootType == SYSTEM_ROOT) {
+            return "system";
+        }
+        throw new InvalidPreferencesFormatException(String.format("Unknown root type %d", rootType));
+    }
+
+    /**
+     * Reads the string table and node index from the footer of a snapshot file.
+     */
+    private static NodeIndex readIndex(FileChannel channel) throws IOException, InvalidPreferencesFormatException {
+        var size = channel.size();
+        if (size < MAGIC.length + 2 + TRAILER_SIZE) {
+            throw new InvalidPreferencesFormatException("Not a Preferences binary snapshot");
+        }
+        var header = ByteBuffer.allocate(MAGIC.length + 2);
+        readFully(channel, header, 0);
+        var magic = new byte[MAGIC.length];
+        header.flip().get(magic);
+        if (!Arrays.equals(magic, MAGIC) || (header.get() & 0xff) > DELTA_VERSION) {
+            throw new InvalidPreferencesFormatException("Not a supported Preferences binary snapshot");
+        }
+        var flags = header.get();
+
+        var trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, size - TRAILER_SIZE);
+        var footerOffset = trailer.flip().getLong();
+        trailer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || footerOffset < 0 || footerOffset > size - TRAILER_SIZE) {
+            throw new InvalidPreferencesFormatException("Snapshot has no node index");
+        }
+
+        channel.position(footerOffset);
+        var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        try {
+            var strings = new ArrayList<String>();
+            var stringCount = readVarInt(in);
+            for (var i = 0; i < stringCount; i++) {
+                strings.add(new String(readBytes(in), UTF_8));
+            }
+            var nodeCount = readVarInt(in);
+            var roots = new int[nodeCount];
+            var paths = new int[nodeCount][];
+            var offsets = new long[nodeCount];
+            for (var i = 0; i < nodeCount; i++) {
+                roots[i] = in.readUnsignedByte();
+                paths[i] = new int[readVarInt(in)];
+                for (var j = 0; j < paths[i].length; j++) {
+                    paths[i][j] = readVarInt(in);
+                }
+                offsets[i] = in.readLong();
+            }
+            return new NodeIndex((flags & FLAG_TYPE_TAGS) != 0, (flags & FLAG_DELTA) != 0, strings, roots, paths,
+                    offsets);
+        } catch (EOFException e) {
+            throw new InvalidPreferencesFormatException("Snapshot node index ends unexpectedly");
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * The footer of a snapshot.
+     */
+    private static final class NodeIndex {
+
+        private final boolean typeTags;
+
+        private final boolean delta;
+
+        private final List<String> strings;
+
+        private final int[] roots;
+
+        private final int[][] paths;
+
+        private final long[] offsets;
+
+        NodeIndex(boolean typeTags, boolean delta, List<String> strings, int[] roots, int[][] paths,
+                long[] offsets) {
+            this.typeTags = typeTags;
+            this.delta = delta;
+            this.strings = strings;
+            this.roots = roots;
+            this.paths = paths;
+            this.offsets = offsets;
+        }
+
+        /**
+         * Returns the offset of the node record or -1 if there isn't one.
+         */
+        long find(int root, String[] segments) {
+            for (var i = 0; i < offsets.length; i++) {
+                if (roots[i] == root && matches(paths[i], segments)) {
+                    return offsets[i];
+                }
+            }
+            return -1;
+        }
+
+        private boolean matches(int[] path, String[] segments) {
+            if (path.length != segments.length) {
+                return false;
+            }
+            for (var i = 0; i < path.length; i++) {
+                if (path[i] >= strings.size() || !strings.get(path[i]).equals(segments[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.github.argherna.preftool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A PreferencesHandler that writes what it is handed as a compact binary
+ * snapshot.
+ *
+ * <P>
+ * A snapshot is laid out as:
+ * <OL>
+ * <LI>A header: the magic bytes {@code PTBS}, a version byte and a flags byte.
+ * <LI>Records, each starting with a tag byte: a root record (root type), a node
+ * record (path, then each key and value) or an end of root record, and finally
+ * an end record.
+ * <LI>A footer: the string table and the node index.
+ * <LI>A trailer: the offset of the footer as 8 bytes and the magic bytes again.
+ * </OL>
+ *
+ * <P>
+ * Key names and node names are stored once in the string table and referred to
+ * by number everywhere else. A string is written in full, after a reference of
+ * 0, the first time it is used, so a snapshot can be read from start to end
+ * without seeking to the footer. Values are UTF-8 bytes prefixed with their
+ * length. When type tags are written, each value is preceded by a byte giving
+ * its type as guessed by {@link PreferencesUtilities#classifyValue(String)}.
+ * All counts, lengths and references are unsigned variable-length integers.
+ *
+ * <P>
+ * The node index gives the offset of every node record, so a single node can be
+ * read from a file without reading the rest of it.
+ *
+ * <P>
+ * A delta is written with format version 2 and the delta flag set. Each node
+ * record then ends with the keys to remove from the node, and nodes to remove
+ * are written as remove node records holding the node's path. Remove node
+ * records aren't in the node index.
+ *
+ * <P>
+ * The output stream is flushed but not closed when the document ends.
+ *
+ * @see PreferencesBinaryReader
+ */
+public class PreferencesBinaryWriter implements PreferencesHandler {
+
+    /** The magic bytes at the start and end of a snapshot. */
+    static final byte[] MAGIC = { 'P', 'T', 'B', 'S' };
+
+    /** The snapshot format version written. */
+    static final int VERSION = 1;
+
+    /** The snapshot format version written for deltas. */
+    static final int DELTA_VERSION = 2;
+
+    /** Header flag set when values are preceded by type tags. */
+    static final int FLAG_TYPE_TAGS = 1;
+
+    /** Header flag set when the snapshot is a delta with tombstones. */
+    static final int FLAG_DELTA = 2;
+
+    /** Record tag ending the records. */
+    static final int END = 0;
+
+    /** Record tag starting a root, followed by the root type. */
+    static final int ROOT = 1;
+
+    /** Record tag for a node, followed by its path and keys. */
+    static final int NODE = 2;
+
+    /** Record tag ending a root. */
+    static final int END_ROOT = 3;
+
+    /** Record tag for a node to remove, followed by its path. */
+    static final int REMOVE_NODE = 4;
+
+    /** Root type byte for the user root. */
+    static final int USER_ROOT = 0;
+
+    /** Root type byte for the system root. */
+    static final int SYSTEM_ROOT = 1;
+
+    /** Value types, indexed by type tag. */
+    static final List<Class<?>> TYPE_TAGS = List.of(String.class, boolean.class, int.class, long.class, float.class,
+            double.class, byte[].class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream counter;
+
+    private final DataOutputStream out;
+
+    private final boolean typeTags;
+
+    private final boolean delta;
+
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    private final List<String> stringTable = new ArrayList<>();
+
+    private final List<int[]> indexPaths = new ArrayList<>();
+
+    private final List<Long> indexOffsets = new ArrayList<>();
+
+    private final List<Integer> indexRoots = new ArrayList<>();
+
+    private final List<String> keys = new ArrayList<>();
+
+    private final List<String> values = new ArrayList<>();
+
+    private final List<String> removedKeys = new ArrayList<>();
+
+    private int rootType = USER_ROOT;
+
+    private boolean rootStarted;
+
+    private String nodePath;
+
+    /**
+     * Constructs a PreferencesBinaryWriter that writes type tags.
+     *
+     * @param outputStream the stream to write the snapshot to.
+     * @throws IOException if an IOException occurs writing the header.
+     */
+    public PreferencesBinaryWriter(OutputStream outputStream) throws IOException {
+        this(outputStream, true);
+    }
+
+    /**
+     * Constructs a PreferencesBinaryWriter.
+     *
+     * @param outputStream the stream to write the snapshot to.
+     * @param typeTags     if {@code true}, write a type tag before each value.
+     * @throws IOException          if an IOException occurs writing the header.
+     * @throws NullPointerException if outputStream is null.
+     */
+    public PreferencesBinaryWriter(OutputStream outputStream, boolean typeTags) throws IOException {
+        this(outputStream, typeTags, false);
+    }
+
+    /**
+     * Constructs a PreferencesBinaryWriter that writes a snapshot or a delta.
+     *
+     * @param outputStream the stream to write the snapshot to.
+     * @param typeTags     if {@code true}, write a type tag before each value.
+     * @param delta        if {@code true}, write a delta that can hold
+     *                     tombstones.
+     * @throws IOException          if an IOException occurs writing the header.
+     * @throws NullPointerException if outputStream is null.
+     */
+    public PreferencesBinaryWriter(OutputStream outputStream, boolean typeTags, boolean delta) throws IOException {
+        this.counter = new CountingOutputStream(new BufferedOutputStream(
+                Objects.requireNonNull(outputStream, "Export OutputStream cannot be null!"), BUFFER_SIZE));
+        this.out = new DataOutputStream(counter);
+        this.typeTags = typeTags;
+        this.delta = delta;
+        out.write(MAGIC);
+        out.writeByte(delta ? DELTA_VERSION : VERSION);
+        out.writeByte((typeTags ? FLAG_TYPE_TAGS : 0) | (delta ? FLAG_DELTA : 0));
+    }
+
+    @Override
+    public void startRoot(String type) throws IOException {
+        if (rootStarted) {
+            endRoot(null);
+        }
+        rootType = type.equals("system") ? SYSTEM_ROOT : USER_ROOT;
+        out.writeByte(ROOT);
+        out.writeByte(rootType);
+        rootStarted = true;
+    }
+
+    @Override
+    public void startNode(String path) throws IOException {
+        if (!rootStarted) {
+            startRoot("user");
+        }
+        nodePath = path;
+        keys.clear();
+        values.clear();
+        removedKeys.clear();
+    }
+
+    @Override
+    public void entry(String key, String value) {
+        keys.add(key);
+        values.add(value);
+    }
+
+    /**
+     * @throws IllegalStateException if this isn't writing a delta.
+     */
+    @Override
+    public void removeKey(String key) {
+        checkDelta();
+        removedKeys.add(key);
+    }
+
+    /**
+     * @throws IllegalStateException if this isn't writing a delta.
+     */
+    @Override
+    public void removeNode(String path) throws IOException {
+        checkDelta();
+        if (!rootStarted) {
+            startRoot("user");
+        }
+        out.writeByte(REMOVE_NODE);
+        writePath(NodeResolver.segments(path));
+    }
+
+    @Override
+    public void endNode(String path) throws IOException {
+        indexRoots.add(rootType);
+        indexOffsets.add(counter.count);
+        out.writeByte(NODE);
+        indexPaths.add(writePath(NodeResolver.segments(nodePath)));
+        writeVarInt(out, keys.size());
+        for (var i = 0; i < keys.size(); i++) {
+            writeString(keys.get(i));
+            var value = values.get(i);
+            if (typeTags) {
+                out.writeByte(TYPE_TAGS.indexOf(PreferencesUtilities.classifyValue(value)));
+            }
+            writeBytes(out, value.getBytes(UTF_8));
+        }
+        if (delta) {
+            writeVarInt(out, removedKeys.size());
+            for (var key : removedKeys) {
+                writeString(key);
+            }
+        }
+        keys.clear();
+        values.clear();
+        removedKeys.clear();
+        nodePath = null;
+    }
+
+    @Override
+    public void endRoot(String type) throws IOException {
+        out.writeByte(END_ROOT);
+        rootStarted = false;
+    }
+
+    /**
+     * Writes the end record, the footer and the trailer and flushes the stream.
+     */
+    @Override
+    public void endDocument() throws IOException {
+        if (rootStarted) {
+            endRoot(null);
+        }
+        out.writeByte(END);
+        var footerOffset = counter.count;
+        writeVarInt(out, stringTable.size());
+        for (var string : stringTable) {
+            writeBytes(out, string.getBytes(UTF_8));
+        }
+        writeVarInt(out, indexOffsets.size());
+        for (var i = 0; i < indexOffsets.size(); i++) {
+            out.writeByte(indexRoots.get(i));
+            var ids = indexPaths.get(i);
+            writeVarInt(out, ids.length);
+            for (var id : ids) {
+                writeVarInt(out, id);
+            }
+            out.writeLong(indexOffsets.get(i));
+        }
+        out.writeLong(footerOffset);
+        out.write(MAGIC);
+        out.flush();
+    }
+
+    private void checkDelta() {
+        if (!delta) {
+            throw new IllegalStateException("Tombstones can only be written to a delta");
+        }
+    }
+
+    /**
+     * Writes the depth of a path and a reference to each of its node names.
+     *
+     * @return the string table numbers of the node names.
+     */
+    private int[] writePath(String[] segments) throws IOException {
+        var ids = new int[segments.length];
+        writeVarInt(out, segments.length);
+        for (var i = 0; i < segments.length; i++) {
+            ids[i] = writeString(segments[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Writes a reference to a string, defining it first if this is its first use.
+     *
+     * @return the string's number in the string table.
+     */
+    private int writeString(String string) throws IOException {
+        var id = strings.get(string);
+        if (id == null) {
+            id = stringTable.size();
+            strings.put(string, id);
+            stringTable.add(string);
+            writeVarInt(out, 0);
+            writeBytes(out, string.getBytes(UTF_8));
+        } else {
+            writeVarInt(out, id + 1);
+        }
+        return id;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes an unsigned variable-length integer, 7 bits per byte, least
+     * significant bits first.
+     */
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Counts the bytes written so record offsets are known.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
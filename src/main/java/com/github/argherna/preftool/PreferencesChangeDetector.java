@@ -0,0 +1,269 @@
+package com.github.argherna.preftool;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * A PreferencesHandler that compares what it is handed with a live tree and
+ * passes on only what would change it, counting what it finds.
+ *
+ * <P>
+ * An entry whose value is the same as the live value is dropped, and so is a
+ * tombstone for a key or node that doesn't exist. A node is passed on only if
+ * something in it changes or it doesn't exist yet, so applying the result to
+ * the live tree writes nothing that is already there: unchanged nodes aren't
+ * marked for flushing and no preference change events are fired for them.
+ *
+ * <P>
+ * The live tree is read as each node is reached and never written. Nodes that
+ * don't exist are not created.
+ */
+public class PreferencesChangeDetector implements PreferencesHandler {
+
+    private final Preferences userRoot;
+
+    private final Preferences systemRoot;
+
+    private final PreferencesHandler handler;
+
+    private final Changes changes = new Changes();
+
+    private NodeResolver resolver;
+
+    private String path;
+
+    private Preferences live;
+
+    private boolean started;
+
+    private boolean changed;
+
+    /**
+     * Constructs a PreferencesChangeDetector that compares with the JDK's user
+     * and system roots.
+     *
+     * @param handler the handler to pass changes on to.
+     * @throws NullPointerException if handler is null.
+     */
+    public PreferencesChangeDetector(PreferencesHandler handler) {
+        this(Preferences.userRoot(), Preferences.systemRoot(), handler);
+    }
+
+    /**
+     * Constructs a PreferencesChangeDetector.
+     *
+     * @param userRoot   node to compare nodes under a user root with.
+     * @param systemRoot node to compare nodes under a system root with.
+     * @param handler    the handler to pass changes on to.
+     * @throws NullPointerException if either root or the handler is null.
+     */
+    public PreferencesChangeDetector(Preferences userRoot, Preferences systemRoot, PreferencesHandler handler) {
+        this.userRoot = Objects.requireNonNull(userRoot, "User root cannot be null!");
+        this.systemRoot = Objects.requireNonNull(systemRoot, "System root cannot be null!");
+        this.handler = Objects.requireNonNull(handler, "Handler cannot be null!");
+    }
+
+    /**
+     * Returns what has been found so far.
+     *
+     * @return the counts of changed and unchanged nodes and keys.
+     */
+    public Changes getChanges() {
+        return changes;
+    }
+
+    @Override
+    public void startRoot(String type) throws IOException, BackingStoreException {
+        resolver = new NodeResolver(type.equals("system") ? systemRoot : userRoot);
+        handler.startRoot(type);
+    }
+
+    @Override
+    public void startNode(String path) throws IOException, BackingStoreException {
+        if (resolver == null) {
+            startRoot("user");
+        }
+        this.path = path;
+        live = resolver.find(path);
+        started = false;
+        changed = false;
+    }
+
+    @Override
+    public void entry(String key, String value) throws IOException, BackingStoreException {
+        var current = live == null ? null : live.get(key, null);
+        if (value.equals(current)) {
+            changes.keysUnchanged++;
+            return;
+        }
+        if (current == null) {
+            changes.keysAdded++;
+        } else {
+            changes.keysUpdated++;
+        }
+        startChange();
+        handler.entry(key, value);
+    }
+
+    @Override
+    public void removeKey(String key) throws IOException, BackingStoreException {
+        if (live == null || live.get(key, null) == null) {
+            changes.missingRemovals++;
+            return;
+        }
+        changes.keysRemoved++;
+        startChange();
+        handler.removeKey(key);
+    }
+
+    @Override
+    public void endNode(String path) throws IOException, BackingStoreException {
+        if (live == null) {
+            changes.nodesAdded++;
+            startChange();
+        } else if (changed) {
+            changes.nodesUpdated++;
+        } else {
+            changes.nodesUnchanged++;
+        }
+        if (started) {
+            handler.endNode(path);
+        }
+        live = null;
+    }
+
+    @Override
+    public void removeNode(String path) throws IOException, BackingStoreException {
+        if (resolver == null) {
+            startRoot("user");
+        }
+        if (resolver.find(path) != null) {
+            changes.nodesRemoved++;
+            handler.removeNode(path);
+        } else {
+            changes.missingRemovals++;
+        }
+    }
+
+    @Override
+    public void endRoot(String type) throws IOException, BackingStoreException {
+        handler.endRoot(type);
+    }
+
+    @Override
+    public void endDocument() throws IOException, BackingStoreException {
+        handler.endDocument();
+    }
+
+    /**
+     * Passes the start of the current node on if it hasn't been already.
+     */
+    private void startChange() throws IOException, BackingStoreException {
+        changed = true;
+        if (!started) {
+            started = true;
+            handler.startNode(path);
+        }
+    }
+
+    /**
+     * Counts of the nodes and keys compared.
+     */
+    public static final class Changes {
+
+        private long nodesAdded;
+
+        private long nodesUpdated;
+
+        private long nodesUnchanged;
+
+        private long nodesRemoved;
+
+        private long keysAdded;
+
+        private long keysUpdated;
+
+        private long keysUnchanged;
+
+        private long keysRemoved;
+
+        private long missingRemovals;
+
+        Changes() {
+        }
+
+        /**
+         * @return the number of nodes that don't exist yet.
+         */
+        public long getNodesAdded() {
+            return nodesAdded;
+        }
+
+        /**
+         * @return the number of existing nodes with keys added, updated or
+         *         removed.
+         */
+        public long getNodesUpdated() {
+            return nodesUpdated;
+        }
+
+        /**
+         * @return the number of existing nodes left as they are.
+         */
+        public long getNodesUnchanged() {
+            return nodesUnchanged;
+        }
+
+        /**
+         * @return the number of existing nodes removed with their subtrees.
+         */
+        public long getNodesRemoved() {
+            return nodesRemoved;
+        }
+
+        /**
+         * @return the number of keys that don't exist yet.
+         */
+        public long getKeysAdded() {
+            return keysAdded;
+        }
+
+        /**
+         * @return the number of keys whose value is different.
+         */
+        public long getKeysUpdated() {
+            return keysUpdated;
+        }
+
+        /**
+         * @return the number of keys that already have the value.
+         */
+        public long getKeysUnchanged() {
+            return keysUnchanged;
+        }
+
+        /**
+         * @return the number of existing keys removed.
+         */
+        public long getKeysRemoved() {
+            return keysRemoved;
+        }
+
+        /**
+         * @return the number of tombstones for keys and nodes that don't exist.
+         */
+        public long getMissingRemovals() {
+            return missingRemovals;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "keys: %,d unchanged, %,d updated, %,d added, %,d removed; nodes: %,d unchanged, %,d updated, %,d added, %,d removed",
+                    keysUnchanged, keysUpdated, keysAdded, keysRemoved, nodesUnchanged, nodesUpdated, nodesAdded,
+                    nodesRemoved);
+        }
+    }
+}
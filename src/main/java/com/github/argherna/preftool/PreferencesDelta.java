@@ -0,0 +1,233 @@
+package com.github.argherna.preftool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+import java.util.prefs.Preferences;
+
+/**
+ * Reports what changed in a live Preferences node, or the subtree under it,
+ * since a baseline to a {@link PreferencesHandler}.
+ *
+ * <P>
+ * Only nodes that changed are reported. Added and changed keys are reported as
+ * entries, and removed keys and nodes as tombstones
+ * ({@link PreferencesHandler#removeKey(String)} and
+ * {@link PreferencesHandler#removeNode(String)}). An added node is reported
+ * with all of its keys and descendants; a removed node is reported once for its
+ * whole subtree. Applying the delta to a tree that matches the baseline with a
+ * {@link PreferencesApplier} makes it match the live tree.
+ *
+ * <P>
+ * The comparison is done by a {@link PreferencesDiff}, one node at a time, so
+ * nothing is held beyond the node being compared and the baseline.
+ */
+public class PreferencesDelta {
+
+    private final Preferences baseline;
+
+    private final Preferences preferences;
+
+    private final boolean subtree;
+
+    /**
+     * Constructs a PreferencesDelta.
+     *
+     * @param baseline    the node as it was, usually loaded with
+     *                    {@link #baseline(InputStream, Preferences)}.
+     * @param preferences the live node.
+     * @param subtree     if {@code true}, compare the whole subtree under the
+     *                    node, otherwise the node's keys only.
+     * @throws NullPointerException if baseline or preferences are null.
+     */
+    public PreferencesDelta(Preferences baseline, Preferences preferences, boolean subtree) {
+        this.baseline = Objects.requireNonNull(baseline, "Baseline Preferences cannot be null!");
+        this.preferences = Objects.requireNonNull(preferences, "Preferences cannot be null!");
+        this.subtree = subtree;
+    }
+
+    /**
+     * Compares the node with the baseline and reports the differences to the
+     * handler, wrapped in {@link PreferencesHandler#startRoot(String)} and
+     * {@link PreferencesHandler#endRoot(String)} for the node's root.
+     *
+     * @param handler the handler to report to.
+     * @return the number of differences reported.
+     * @throws IOException           if the handler throws an IOException.
+     * @throws BackingStoreException if a BackingStoreException is thrown reading
+     *                               either tree or by the handler.
+     */
+    public long write(PreferencesHandler handler) throws IOException, BackingStoreException {
+        var type = PreferencesWalker.rootType(preferences);
+        var listener = new DeltaListener(handler);
+        handler.startRoot(type);
+        try {
+            if (subtree) {
+                new PreferencesDiff(baseline, preferences, listener).call();
+            } else {
+                PreferencesDiff.compareKeys(baseline, preferences, preferences.absolutePath(), listener);
+            }
+            listener.endNode();
+        } catch (HandlerException e) {
+            if (e.getCause() instanceof BackingStoreException) {
+                throw (BackingStoreException) e.getCause();
+            }
+            throw (IOException) e.getCause();
+        }
+        handler.endRoot(type);
+        return listener.differences;
+    }
+
+    /**
+     * Loads a Preferences document into memory and returns the node in it with
+     * the same root and path as the given node. The document can be in any
+     * {@link PreferencesFormat} and compressed or not. The stream is not closed.
+     *
+     * @param inputStream the stream to read the document from.
+     * @param preferences the node to find in the document.
+     * @return the node in the document, empty if the document doesn't have it.
+     * @throws InvalidPreferencesFormatException if the document isn't valid.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if a BackingStoreException
+     *                                           occurs.
+     */
+    public static Preferences baseline(InputStream inputStream, Preferences preferences)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        return baselines(inputStream).apply(preferences);
+    }
+
+    /**
+     * Loads a Preferences document into memory and returns a function that finds
+     * the node in it with the same root and path as a given node, so one baseline
+     * can be used for several nodes. The document can be in any
+     * {@link PreferencesFormat} and compressed or not. The stream is not closed.
+     *
+     * @param inputStream the stream to read the document from.
+     * @return a function returning the node in the document for a live node,
+     *         empty if the document doesn't have it.
+     * @throws InvalidPreferencesFormatException if the document isn't valid.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if a BackingStoreException
+     *                                           occurs.
+     */
+    public static Function<Preferences, Preferences> baselines(InputStream inputStream)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        var userRoot = new MemoryPreferences();
+        var systemRoot = new MemoryPreferences(false);
+        var in = Compression.decompress(inputStream);
+        PreferencesFormat.detect(in).read(in, new PreferencesApplier(userRoot, systemRoot));
+        return preferences -> (preferences.isUserNode() ? userRoot : systemRoot).node(preferences.absolutePath());
+    }
+
+    /**
+     * Carries an exception thrown by the handler out of the PreferencesDiff.
+     */
+    private static final class HandlerException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        HandlerException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Turns the differences found by a PreferencesDiff into handler events,
+     * grouping the key differences of each node between a start and end of the
+     * node.
+     */
+    private static final class DeltaListener implements PreferencesDiff.Listener {
+
+        private final PreferencesHandler handler;
+
+        private String openPath;
+
+        private long differences;
+
+        DeltaListener(PreferencesHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void nodeAdded(String path) {
+            differences++;
+            startNode(path);
+        }
+
+        @Override
+        public void nodeRemoved(String path) {
+            differences++;
+            try {
+                endNode();
+                handler.removeNode(path);
+            } catch (IOException | BackingStoreException e) {
+                throw new HandlerException(e);
+            }
+        }
+
+        @Override
+        public void keyAdded(String path, String key, String value) {
+            differences++;
+            entry(path, key, value);
+        }
+
+        @Override
+        public void keyRemoved(String path, String key, String value) {
+            differences++;
+            startNode(path);
+            try {
+                handler.removeKey(key);
+            } catch (IOException | BackingStoreException e) {
+                throw new HandlerException(e);
+            }
+        }
+
+        @Override
+        public void keyChanged(String path, String key, String oldValue, String newValue) {
+            differences++;
+            entry(path, key, newValue);
+        }
+
+        private void entry(String path, String key, String value) {
+            startNode(path);
+            try {
+                handler.entry(key, value);
+            } catch (IOException | BackingStoreException e) {
+                throw new HandlerException(e);
+            }
+        }
+
+        /**
+         * Starts the node with the given path unless it is already started.
+         */
+        private void startNode(String path) {
+            if (path.equals(openPath)) {
+                return;
+            }
+            try {
+                endNode();
+                handler.startNode(path);
+            } catch (IOException | BackingStoreException e) {
+                throw new HandlerException(e);
+            }
+            openPath = path;
+        }
+
+        /**
+         * Ends the node that was started last, if there is one.
+         */
+        void endNode() {
+            if (openPath != null) {
+                try {
+                    handler.endNode(openPath);
+                } catch (IOException | BackingStoreException e) {
+                    throw new HandlerException(e);
+                }
+                openPath = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,605 @@
+package com.github.argherna.preftool;
+
+import static com.github.argherna.preftool.Constants.DRY_RUN;
+import static com.github.argherna.preftool.Constants.SYSTEM_ROOT;
+import static java.lang.System.Logger.Level.INFO;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Invoked to compare two Preferences subtrees and report what was added,
+ * removed and changed.
+ *
+ * <P>
+ * Both subtrees are walked together, one node at a time, with keys and children
+ * merged in sorted name order. Differences are reported to a {@link Listener}
+ * as they are found, so nothing is accumulated beyond the node being compared.
+ * Either side can be a live tree or a document loaded into
+ * {@link MemoryPreferences}.
+ *
+ * <P>
+ * Paths are reported as the absolute paths of nodes under the {@code after}
+ * node. An added node is reported along with all of its keys and descendants;
+ * a removed node is reported once for its whole subtree.
+ *
+ * @see PreferencesUtilities#copy(Preferences, Preferences)
+ */
+public class PreferencesDiff implements Callable<Long> {
+
+    private static final System.Logger LOGGER = System.getLogger(PreferencesDiff.class.getName());
+
+    private final Preferences before;
+
+    private final Preferences after;
+
+    private final Listener listener;
+
+    private final int parallelism;
+
+    /**
+     * Receives the differences found by a PreferencesDiff.
+     *
+     * <P>
+     * When comparing with a parallelism greater than 1, the methods are called from
+     * more than one thread. All of the differences found in one node are reported
+     * together, while holding the Listener's monitor.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a node exists only in the {@code after} tree.
+         *
+         * @param path absolute path of the node.
+         */
+        void nodeAdded(String path);
+
+        /**
+         * Called when a node exists only in the {@code before} tree.
+         *
+         * @param path absolute path of the node.
+         */
+        void nodeRemoved(String path);
+
+        /**
+         * Called when a key exists only in the {@code after} tree.
+         *
+         * @param path  absolute path of the node.
+         * @param key   the key.
+         * @param value the value.
+         */
+        void keyAdded(String path, String key, String value);
+
+        /**
+         * Called when a key exists only in the {@code before} tree.
+         *
+         * @param path  absolute path of the node.
+         * @param key   the key.
+         * @param value the value.
+         */
+        void keyRemoved(String path, String key, String value);
+
+        /**
+         * Called when a key's value differs between the trees.
+         *
+         * @param path     absolute path of the node.
+         * @param key      the key.
+         * @param oldValue the value in the {@code before} tree.
+         * @param newValue the value in the {@code after} tree.
+         */
+        void keyChanged(String path, String key, String oldValue, String newValue);
+    }
+
+    /**
+     * Constructs a PreferencesDiff that compares on the calling thread, reporting
+     * differences in sorted path order.
+     *
+     * @param before   the node treated as the original.
+     * @param after    the node treated as the changed version.
+     * @param listener receives the differences.
+     */
+    public PreferencesDiff(Preferences before, Preferences after, Listener listener) {
+        this(before, after, listener, 1);
+    }
+
+    /**
+     * Constructs a PreferencesDiff.
+     *
+     * <P>
+     * With a parallelism greater than 1, sibling subtrees are compared
+     * concurrently on a fork-join pool and differences in different nodes are
+     * reported in no particular order.
+     *
+     * @param before      the node treated as the original.
+     * @param after       the node treated as the changed version.
+     * @param listener    receives the differences.
+     * @param parallelism the number of threads comparing.
+     * @throws NullPointerException     if any argument is null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public PreferencesDiff(Preferences before, Preferences after, Listener listener, int parallelism) {
+        this.before = Objects.requireNonNull(before, "Before Preferences cannot be null!");
+        this.after = Objects.requireNonNull(after, "After Preferences cannot be null!");
+        this.listener = Objects.requireNonNull(listener, "Listener cannot be null!");
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Parallelism must be at least 1 (was given %d)", parallelism));
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Performs the comparison.
+     *
+     * @return the number of differences reported.
+     * @throws BackingStoreException if a BackingStoreException is thrown.
+     */
+    @Override
+    public Long call() throws BackingStoreException {
+        LOGGER.log(INFO, "Comparing {0} with {1}", before, after);
+        var differences = new AtomicLong();
+        if (parallelism == 1) {
+            compareSequentially(new CountingListener(listener, differences));
+        } else {
+            compareInParallel(differences);
+        }
+        return differences.get();
+    }
+
+    private void compareSequentially(Listener out) throws BackingStoreException {
+        var pending = new ArrayDeque<NodePair>();
+        pending.push(new NodePair(before, after, after.absolutePath()));
+        while (!pending.isEmpty()) {
+            var pair = pending.pop();
+            var children = compareNode(pair, out);
+            for (var i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+            }
+        }
+    }
+
+    /**
+     * Compares on a fork-join pool. If a task fails, the tasks not yet started are
+     * cancelled and the ones running are waited for, so none of them reports to
+     * the listener after this returns.
+     */
+    private void compareInParallel(AtomicLong differences) throws BackingStoreException {
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new CompareTask(null, new NodePair(before, after, after.absolutePath()), listener,
+                    differences));
+        } catch (RuntimeException e) {
+            pool.shutdownNow();
+            throw PreferencesUtilities.unwrap(e);
+        } finally {
+            pool.shutdown();
+            PreferencesUtilities.awaitTermination(pool);
+        }
+    }
+
+    /**
+     * Compares the keys of a pair of nodes and the names of their children,
+     * reporting the differences, and returns the children to compare next in name
+     * order: the ones on both sides and the ones only in the {@code after} tree.
+     * A pair with no {@code before} node is an added node; it is reported with
+     * its keys and all of its children are returned as added.
+     */
+    private static List<NodePair> compareNode(NodePair pair, Listener out) throws BackingStoreException {
+        var path = pair.path;
+        if (pair.before == null) {
+            return reportAdded(pair, out);
+        }
+        compareKeys(pair.before, pair.after, path, out);
+
+        var beforeChildren = pair.before.childrenNames();
+        var afterChildren = pair.after.childrenNames();
+        Arrays.sort(beforeChildren);
+        Arrays.sort(afterChildren);
+        var children = new ArrayList<NodePair>();
+        var i = 0;
+        var j = 0;
+        while (i < beforeChildren.length || j < afterChildren.length) {
+            var order = i == beforeChildren.length ? 1
+                    : j == afterChildren.length ? -1 : beforeChildren[i].compareTo(afterChildren[j]);
+            if (order < 0) {
+                out.nodeRemoved(PreferencesUtilities.childPath(path, beforeChildren[i++]));
+            } else if (order > 0) {
+                children.add(new NodePair(null, pair.after.node(afterChildren[j]),
+                        PreferencesUtilities.childPath(path, afterChildren[j])));
+                j++;
+            } else {
+                children.add(new NodePair(pair.before.node(beforeChildren[i]), pair.after.node(afterChildren[j]),
+                        PreferencesUtilities.childPath(path, afterChildren[j])));
+                i++;
+                j++;
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Compares the keys of a pair of nodes, without looking at their children, and
+     * reports the differences in key order.
+     *
+     * @param before the node treated as the original.
+     * @param after  the node treated as the changed version.
+     * @param path   the path to report the differences with.
+     * @param out    receives the differences.
+     * @throws BackingStoreException if a BackingStoreException is thrown reading
+     *                               either node.
+     */
+    static void compareKeys(Preferences before, Preferences after, String path, Listener out)
+            throws BackingStoreException {
+        var beforeKeys = PreferencesUtilities.snapshot(before);
+        var afterKeys = PreferencesUtilities.snapshot(after);
+        var i = 0;
+        var j = 0;
+        while (i < beforeKeys.size() || j < afterKeys.size()) {
+            var order = i == beforeKeys.size() ? 1
+                    : j == afterKeys.size() ? -1 : beforeKeys.getKey(i).compareTo(afterKeys.getKey(j));
+            if (order < 0) {
+                out.keyRemoved(path, beforeKeys.getKey(i), beforeKeys.getValue(i));
+                i++;
+            } else if (order > 0) {
+                out.keyAdded(path, afterKeys.getKey(j), afterKeys.getValue(j));
+                j++;
+            } else {
+                if (!beforeKeys.getValue(i).equals(afterKeys.getValue(j))) {
+                    out.keyChanged(path, afterKeys.getKey(j), beforeKeys.getValue(i), afterKeys.getValue(j));
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Reports an added node and its keys, and returns its children in name order,
+     * each to be reported as added in turn.
+     */
+    private static List<NodePair> reportAdded(NodePair added, Listener out) throws BackingStoreException {
+        out.nodeAdded(added.path);
+        var snapshot = PreferencesUtilities.snapshot(added.after);
+        for (var i = 0; i < snapshot.size(); i++) {
+            out.keyAdded(added.path, snapshot.getKey(i), snapshot.getValue(i));
+        }
+        var childrenNames = added.after.childrenNames();
+        Arrays.sort(childrenNames);
+        var children = new ArrayList<NodePair>(childrenNames.length);
+        for (var childName : childrenNames) {
+            children.add(new NodePair(null, added.after.node(childName),
+                    PreferencesUtilities.childPath(added.path, childName)));
+        }
+        return children;
+    }
+
+    /**
+     * Command line access to comparing Preferences subtrees.
+     *
+     * <P>
+     * Syntax for invoking this utility is:
+     *
+     * <PRE>
+     * <CODE>java [options] \
+     *     com.github.argherna.preftool.PreferencesDiff [options] [args]</CODE>
+     * </PRE>
+     *
+     * <P>
+     * Each difference is printed to {@link System#out} on its own line, prefixed
+     * with {@code A} (added), {@code D} (removed) or {@code M} (changed). Key
+     * differences are printed as the node path followed by
+     * {@code key=value} (or {@code key=old -> new} for changes).
+     *
+     * <P>
+     * The command line options used are:
+     * <DL>
+     * <DT><CODE>-f &lt;prefs-xml-file&gt;</CODE>
+     * <DD>Compare the node with the same node in a Preferences XML file instead of
+     * with another live node. The file is read into memory; nothing is imported.
+     * <DT><CODE>--parallelism &lt;n&gt;</CODE>
+     * <DD>Compare sibling subtrees on {@code n} threads. Differences are then
+     * printed in no particular order. The default is 1.
+     * </DL>
+     *
+     * <P>
+     * The command line arguments used are:
+     * <DL>
+     * <DT><CODE>&lt;nodename&gt;</CODE>
+     * <DD>Node treated as the original. Specify as <CODE>/path/to/node</CODE>,
+     * optionally prefixed with <CODE>User:</CODE> or <CODE>System:</CODE>.
+     * <DT><CODE>&lt;other-nodename&gt;</CODE>
+     * <DD>Node treated as the changed version, specified the same way. Required
+     * unless <CODE>-f</CODE> is given, in which case it names the node in the file
+     * and defaults to <CODE>&lt;nodename&gt;</CODE>.
+     * </DL>
+     *
+     * <P>
+     * The system properties you can set are:
+     * <DL>
+     * <DT><CODE>com.github.argherna.preftool.dryRun</CODE>
+     * <DD>If <CODE>true</CODE>, do not compare but print the name of the class,
+     * root, node names and file name and exit with status <CODE>2</CODE>.
+     * <DT><CODE>com.github.argherna.preftool.systemRoot</CODE>
+     * <DD>If <CODE>true</CODE>, node names without a root prefix are under the
+     * system root. By default, they are under the user root.
+     * </DL>
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+
+        if (args.length == 0) {
+            System.err.printf("Missing argument: nodename%n");
+            usage();
+            System.exit(1);
+        }
+
+        var filename = "";
+        var parallelism = 1;
+        var nodenames = new ArrayList<String>();
+
+        var argsCount = 0;
+        while (argsCount < args.length) {
+            var arg = args[argsCount];
+            if ((arg.equals("-f") || arg.equals("--parallelism")) && argsCount + 1 < args.length) {
+                var value = args[++argsCount];
+                if (arg.equals("-f")) {
+                    filename = value;
+                } else {
+                    parallelism = parseParallelism(value);
+                }
+            } else if (!arg.startsWith("-") && nodenames.size() < 2) {
+                nodenames.add(arg);
+            } else {
+                System.err.printf("Unsupported arg \"%s\"%n", arg);
+                usage();
+                System.exit(1);
+            }
+            argsCount++;
+        }
+
+        if (nodenames.isEmpty() || (filename.isBlank() && nodenames.size() < 2)) {
+            System.err.printf("Missing argument: %s%n", nodenames.isEmpty() ? "nodename" : "other-nodename");
+            usage();
+            System.exit(1);
+        }
+        var otherNodename = nodenames.size() == 2 ? nodenames.get(1) : nodenames.get(0);
+
+        if (DRY_RUN) {
+            var root = SYSTEM_ROOT ? "system" : "user";
+            var fname = (filename.isBlank()) ? "<none>" : filename;
+            System.err.printf("%s Dry Run:root=%s,node=%s,otherNode=%s,filename=%s,parallelism=%d%n",
+                    PreferencesDiff.class.getName(), root, nodenames.get(0), otherNodename, fname, parallelism);
+            System.exit(2);
+        }
+
+        try {
+            var before = PreferencesUtilities.getPreferences(nodenames.get(0), SYSTEM_ROOT);
+            Preferences after;
+            if (filename.isBlank()) {
+                after = PreferencesUtilities.getPreferences(otherNodename, SYSTEM_ROOT);
+            } else {
+                var userRoot = new MemoryPreferences();
+                var systemRoot = new MemoryPreferences(false);
+                try (var in = new BufferedInputStream(new FileInputStream(filename))) {
+                    new PreferencesXmlReader().read(in, new PreferencesApplier(userRoot, systemRoot));
+                }
+                var fileRoot = PreferencesUtilities.rootTypeOf(otherNodename, SYSTEM_ROOT).equals("System")
+                        ? systemRoot
+                        : userRoot;
+                after = fileRoot.node(PreferencesUtilities.pathOf(otherNodename));
+            }
+            new PreferencesDiff(before, after, new PrintingListener(), parallelism).call();
+            System.out.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints a usage message to {@link System#err}.
+     */
+    private static void usage() {
+        System.err.printf("Usage: %s [-f prefs-xml-file] [--parallelism n] <nodename> [<other-nodename>]%n",
+                PreferencesDiff.class.getName());
+    }
+
+    private static int parseParallelism(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.printf("Parallelism must be a number (was given \"%s\")%n", value);
+            usage();
+            System.exit(1);
+            return 1;
+        }
+    }
+
+    /**
+     * A node in each tree at the same relative position. The {@code before} node
+     * is {@code null} for a node only in the {@code after} tree.
+     */
+    private static final class NodePair {
+
+        private final Preferences before;
+
+        private final Preferences after;
+
+        private final String path;
+
+        NodePair(Preferences before, Preferences after, String path) {
+            this.before = before;
+            this.after = after;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Compares one pair of nodes, reports that node's differences to the listener
+     * in one go, and forks a task for each child to compare next, including each
+     * child of an added subtree.
+     */
+    private static final class CompareTask extends CountedCompleter<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient NodePair pair;
+
+        private final transient Listener listener;
+
+        private final transient AtomicLong differences;
+
+        CompareTask(CompareTask parent, NodePair pair, Listener listener, AtomicLong differences) {
+            super(parent);
+            this.pair = pair;
+            this.listener = listener;
+            this.differences = differences;
+        }
+
+        @Override
+        public void compute() {
+            var buffer = new BufferingListener();
+            List<NodePair> children;
+            try {
+                children = compareNode(pair, buffer);
+            } catch (BackingStoreException e) {
+                throw new CompletionException(e);
+            }
+            if (!buffer.events.isEmpty()) {
+                synchronized (listener) {
+                    buffer.events.forEach(event -> event.accept(listener));
+                }
+                differences.addAndGet(buffer.events.size());
+            }
+            for (var child : children) {
+                addToPendingCount(1);
+                new CompareTask(this, child, listener, differences).fork();
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * Holds the differences found in a node until they can be handed to the real
+     * listener together.
+     */
+    private static final class BufferingListener implements Listener {
+
+        private final List<Consumer<Listener>> events = new ArrayList<>();
+
+        @Override
+        public void nodeAdded(String path) {
+            events.add(l -> l.nodeAdded(path));
+        }
+
+        @Override
+        public void nodeRemoved(String path) {
+            events.add(l -> l.nodeRemoved(path));
+        }
+
+        @Override
+        public void keyAdded(String path, String key, String value) {
+            events.add(l -> l.keyAdded(path, key, value));
+        }
+
+        @Override
+        public void keyRemoved(String path, String key, String value) {
+            events.add(l -> l.keyRemoved(path, key, value));
+        }
+
+        @Override
+        public void keyChanged(String path, String key, String oldValue, String newValue) {
+            events.add(l -> l.keyChanged(path, key, oldValue, newValue));
+        }
+    }
+
+    /**
+     * Counts the differences passed on to another listener.
+     */
+    private static final class CountingListener implements Listener {
+
+        private final Listener listener;
+
+        private final AtomicLong differences;
+
+        CountingListener(Listener listener, AtomicLong differences) {
+            this.listener = listener;
+            this.differences = differences;
+        }
+
+        @Override
+        public void nodeAdded(String path) {
+            differences.incrementAndGet();
+            listener.nodeAdded(path);
+        }
+
+        @Override
+        public void nodeRemoved(String path) {
+            differences.incrementAndGet();
+            listener.nodeRemoved(path);
+        }
+
+        @Override
+        public void keyAdded(String path, String key, String value) {
+            differences.incrementAndGet();
+            listener.keyAdded(path, key, value);
+        }
+
+        @Override
+        public void keyRemoved(String path, String key, String value) {
+            differences.incrementAndGet();
+            listener.keyRemoved(path, key, value);
+        }
+
+        @Override
+        public void keyChanged(String path, String key, String oldValue, String newValue) {
+            differences.incrementAndGet();
+            listener.keyChanged(path, key, oldValue, newValue);
+        }
+    }
+
+    /**
+     * Prints differences to {@link System#out}.
+     */
+    private static final class PrintingListener implements Listener {
+
+        @Override
+        public void nodeAdded(String path) {
+            System.out.printf("A %s%n", path);
+        }
+
+        @Override
+        public void nodeRemoved(String path) {
+            System.out.printf("D %s%n", path);
+        }
+
+        @Override
+        public void keyAdded(String path, String key, String value) {
+            System.out.printf("A %s %s=%s%n", path, key, value);
+        }
+
+        @Override
+        public void keyRemoved(String path, String key, String value) {
+            System.out.printf("D %s %s=%s%n", path, key, value);
+        }
+
+        @Override
+        public void keyChanged(String path, String key, String oldValue, String newValue) {
+            System.out.printf("M %s %s=%s -> %s%n", path, key, oldValue, newValue);
+        }
+    }
+}
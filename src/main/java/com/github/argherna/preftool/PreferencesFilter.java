@@ -0,0 +1,226 @@
+package com.github.argherna.preftool;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Selects the nodes and keys of a subtree to read, by node path and key name.
+ *
+ * <P>
+ * Node patterns are matched against the path of a node relative to the node
+ * the subtree starts from, without a leading slash; the starting node itself
+ * has the empty path. A node is accepted, and its keys read, if it matches an
+ * include pattern (or there are none) and no exclude pattern. A node that
+ * matches an exclude pattern is skipped with its whole subtree, and so is a
+ * node none of whose descendants could match an include pattern. Neither is
+ * ever read. Key patterns are matched against key names the same way, without
+ * the pruning.
+ *
+ * <P>
+ * Patterns are written as {@code glob:<pattern>} or {@code regex:<pattern>};
+ * without a prefix, a pattern is a glob. In node globs, {@code *} matches any
+ * characters within a node name, {@code **} any characters across names,
+ * {@code ?} one character and {@code {a,b}} either alternative. In key globs,
+ * {@code *} and {@code **} match any characters. Other characters, including
+ * those escaped with {@code \}, match themselves.
+ *
+ * <P>
+ * Instances are immutable and can be shared between threads.
+ *
+ * @see java.nio.file.FileSystem#getPathMatcher(String)
+ */
+public final class PreferencesFilter {
+
+    /** A filter that accepts every node and key. */
+    public static final PreferencesFilter ACCEPT_ALL = new PreferencesFilter(List.of(), List.of(), List.of(),
+            List.of());
+
+    private final List<Pattern> nodeIncludes;
+
+    private final List<Pattern> nodeExcludes;
+
+    private final List<Pattern> keyIncludes;
+
+    private final List<Pattern> keyExcludes;
+
+    /**
+     * Constructs a PreferencesFilter from patterns written as described above.
+     *
+     * @param nodeIncludes patterns for nodes to include; if empty, all nodes are
+     *                     included.
+     * @param nodeExcludes patterns for nodes to skip with their subtrees.
+     * @param keyIncludes  patterns for keys to include; if empty, all keys are
+     *                     included.
+     * @param keyExcludes  patterns for keys to skip.
+     * @throws NullPointerException                   if a list is null.
+     * @throws java.util.regex.PatternSyntaxException if a regex is invalid.
+     */
+    public PreferencesFilter(List<String> nodeIncludes, List<String> nodeExcludes, List<String> keyIncludes,
+            List<String> keyExcludes) {
+        this.nodeIncludes = compile(Objects.requireNonNull(nodeIncludes, "Node includes cannot be null!"), true);
+        this.nodeExcludes = compile(Objects.requireNonNull(nodeExcludes, "Node excludes cannot be null!"), true);
+        this.keyIncludes = compile(Objects.requireNonNull(keyIncludes, "Key includes cannot be null!"), false);
+        this.keyExcludes = compile(Objects.requireNonNull(keyExcludes, "Key excludes cannot be null!"), false);
+    }
+
+    /**
+     * Returns {@code true} if the node or any of its descendants can be accepted,
+     * so the node must be visited. Checked before a node is read.
+     *
+     * @param relativePath the node's path relative to the starting node.
+     * @return {@code true} if the node must be visited.
+     */
+    public boolean visits(String relativePath) {
+        if (matchesAny(nodeExcludes, relativePath)) {
+            return false;
+        }
+        if (nodeIncludes.isEmpty() || relativePath.isEmpty()) {
+            return true;
+        }
+        for (var include : nodeIncludes) {
+            var matcher = include.matcher(relativePath);
+            if (matcher.matches()) {
+                return true;
+            }
+            // could a path below this one match?
+            matcher = include.matcher(relativePath + "/");
+            if (matcher.matches() || matcher.hitEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if the node's keys are to be read. Only nodes that are
+     * visited are checked.
+     *
+     * @param relativePath the node's path relative to the starting node.
+     * @return {@code true} if the node is accepted.
+     */
+    public boolean acceptsNode(String relativePath) {
+        return (nodeIncludes.isEmpty() || matchesAny(nodeIncludes, relativePath))
+                && !matchesAny(nodeExcludes, relativePath);
+    }
+
+    /**
+     * Returns {@code true} if the key is to be read.
+     *
+     * @param key the key name.
+     * @return {@code true} if the key is accepted.
+     */
+    public boolean acceptsKey(String key) {
+        return (keyIncludes.isEmpty() || matchesAny(keyIncludes, key)) && !matchesAny(keyExcludes, key);
+    }
+
+    /**
+     * Returns {@code true} if this filter accepts every node and key.
+     *
+     * @return {@code true} if there are no patterns.
+     */
+    public boolean acceptsAll() {
+        return nodeIncludes.isEmpty() && nodeExcludes.isEmpty() && keyIncludes.isEmpty() && keyExcludes.isEmpty();
+    }
+
+    /**
+     * Returns the path of a node relative to the starting node.
+     *
+     * @param basePath     absolute path of the starting node.
+     * @param absolutePath absolute path of the node.
+     * @return the relative path, empty for the starting node.
+     */
+    static String relativePath(String basePath, String absolutePath) {
+        if (absolutePath.length() <= basePath.length()) {
+            return "";
+        }
+        return absolutePath.substring(basePath.equals("/") ? 1 : basePath.length() + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PreferencesFilter[nodeIncludes=%s,nodeExcludes=%s,keyIncludes=%s,keyExcludes=%s]",
+                nodeIncludes, nodeExcludes, keyIncludes, keyExcludes);
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String text) {
+        for (var pattern : patterns) {
+            if (pattern.matcher(text).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> compile(List<String> patterns, boolean paths) {
+        return patterns.stream().map(pattern -> compile(pattern, paths))
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    private static Pattern compile(String pattern, boolean paths) {
+        if (pattern.startsWith("regex:")) {
+            return Pattern.compile(pattern.substring("regex:".length()));
+        }
+        return Pattern.compile(globToRegex(pattern.startsWith("glob:") ? pattern.substring("glob:".length()) : pattern,
+                paths));
+    }
+
+    /**
+     * Translates a glob to a regular expression.
+     *
+     * @param paths if {@code true}, {@code *} and {@code ?} don't match
+     *              {@code /}.
+     */
+    static String globToRegex(String glob, boolean paths) {
+        var one = paths ? "[^/]" : ".";
+        var regex = new StringBuilder();
+        var inGroup = false;
+        for (var i = 0; i < glob.length(); i++) {
+            var c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (paths && i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            // "**/" also matches no names at all
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append(one).append('*');
+                    }
+                    break;
+                case '?':
+                    regex.append(one);
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length()) {
+                        c = glob.charAt(++i);
+                    }
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    break;
+                default:
+                    regex.append(Character.isLetterOrDigit(c) ? String.valueOf(c) : Pattern.quote(String.valueOf(c)));
+                    break;
+            }
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException(String.format("Unclosed group in glob \"%s\"", glob));
+        }
+        return regex.toString();
+    }
+}
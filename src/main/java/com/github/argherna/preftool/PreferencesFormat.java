@@ -0,0 +1,190 @@
+package com.github.argherna.preftool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+
+/**
+ * The formats Preferences can be exported to and imported from.
+ *
+ * <P>
+ * On import, the format is recognized from the first bytes of the (decompressed)
+ * stream.
+ *
+ * @see Compression
+ */
+public enum PreferencesFormat {
+
+    /** The Preferences XML format. */
+    XML,
+
+    /** The binary snapshot format. */
+    BINARY,
+
+    /** Newline-delimited JSON, one record per key. */
+    NDJSON;
+
+    /** How far into a stream detection looks for the first non-blank byte. */
+    private static final int DETECT_LIMIT = 256;
+
+    /**
+     * Returns a handler that writes this format to the given stream.
+     *
+     * <P>
+     * The stream is flushed but not closed when
+     * {@link PreferencesHandler#endDocument()} is called.
+     *
+     * @param outputStream the stream to write to.
+     * @return the handler.
+     * @throws IOException if an IOException occurs writing a header.
+     */
+    public PreferencesHandler newWriter(OutputStream outputStream) throws IOException {
+        switch (this) {
+            case BINARY:
+                return new PreferencesBinaryWriter(outputStream);
+            case NDJSON:
+                return new PreferencesJsonWriter(outputStream);
+            default:
+                return new PreferencesXmlWriter(outputStream);
+        }
+    }
+
+    /**
+     * Returns a handler that writes a delta in this format to the given stream.
+     * Unlike the handler returned by {@link #newWriter(OutputStream)}, it accepts
+     * tombstones.
+     *
+     * @param outputStream the stream to write to.
+     * @return the handler.
+     * @throws IOException if an IOException occurs writing a header.
+     * @see PreferencesDelta
+     */
+    public PreferencesHandler newDeltaWriter(OutputStream outputStream) throws IOException {
+        switch (this) {
+            case BINARY:
+                return new PreferencesBinaryWriter(outputStream, true, true);
+            case NDJSON:
+                return new PreferencesJsonWriter(outputStream);
+            default:
+                return new PreferencesXmlWriter(outputStream);
+        }
+    }
+
+    /**
+     * Reads a document in this format and reports it to the handler. The stream
+     * is not closed.
+     *
+     * @param inputStream the stream to read.
+     * @param handler     the handler to report to.
+     * @throws InvalidPreferencesFormatException if the document isn't valid.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if the handler throws a
+     *                                           BackingStoreException.
+     */
+    public void read(InputStream inputStream, PreferencesHandler handler)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        read(inputStream, handler, true);
+    }
+
+    /**
+     * Reads a document in this format and reports it to the handler, accepting
+     * the tombstones of a delta only if asked to. The stream is not closed.
+     *
+     * @param inputStream the stream to read.
+     * @param handler     the handler to report to.
+     * @param tombstones  if {@code false}, removed keys and nodes are rejected.
+     * @throws InvalidPreferencesFormatException if the document isn't valid, or
+     *                                           has tombstones that aren't
+     *                                           accepted.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if the handler throws a
+     *                                           BackingStoreException.
+     */
+    public void read(InputStream inputStream, PreferencesHandler handler, boolean tombstones)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        switch (this) {
+            case BINARY:
+                new PreferencesBinaryReader(tombstones).read(inputStream, handler);
+                break;
+            case NDJSON:
+                new PreferencesJsonReader(tombstones).read(inputStream, handler);
+                break;
+            default:
+                new PreferencesXmlReader(tombstones).read(inputStream, handler);
+                break;
+        }
+    }
+
+    /**
+     * Returns the format of a stream from its first bytes. The stream's position
+     * is not changed. A stream whose first non-blank character is <CODE>{</CODE>
+     * is NDJSON; anything else that isn't recognized is assumed to be XML.
+     *
+     * @param inputStream a stream that supports {@link InputStream#mark(int)}.
+     * @return the format detected.
+     * @throws IOException if an IOException occurs reading.
+     */
+    public static PreferencesFormat detect(InputStream inputStream) throws IOException {
+        var magic = PreferencesBinaryWriter.MAGIC;
+        inputStream.mark(DETECT_LIMIT);
+        var start = inputStream.readNBytes(DETECT_LIMIT);
+        inputStream.reset();
+        if (start.length >= magic.length && Arrays.equals(start, 0, magic.length, magic, 0, magic.length)) {
+            return BINARY;
+        }
+        for (var b : start) {
+            if (b == '{') {
+                return NDJSON;
+            } else if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                break;
+            }
+        }
+        return XML;
+    }
+
+    /**
+     * Returns the format named, ignoring case.
+     *
+     * @param name {@code xml}, {@code binary} or {@code ndjson}.
+     * @return the format.
+     * @throws IllegalArgumentException if the name isn't one of the above.
+     */
+    public static PreferencesFormat forName(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    String.format("Format must be \"xml\", \"binary\" or \"ndjson\" (was given \"%s\")", name));
+        }
+    }
+
+    /**
+     * Returns the format a file name suggests, ignoring any compression suffix:
+     * {@link #BINARY} for names ending with {@code .ptbs}, {@link #NDJSON} for
+     * names ending with {@code .ndjson} or {@code .jsonl}, and {@link #XML} for
+     * anything else.
+     *
+     * @param fileName the file name.
+     * @return the format.
+     * @see Compression#forFileName(String)
+     */
+    public static PreferencesFormat forFileName(String fileName) {
+        var name = fileName.toLowerCase(Locale.ROOT);
+        for (var suffix : new String[] { ".gz", ".zz", ".deflate" }) {
+            if (name.endsWith(suffix)) {
+                name = name.substring(0, name.length() - suffix.length());
+                break;
+            }
+        }
+        if (name.endsWith(".ptbs")) {
+            return BINARY;
+        } else if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+            return NDJSON;
+        }
+        return XML;
+    }
+}
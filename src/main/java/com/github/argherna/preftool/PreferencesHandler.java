@@ -0,0 +1,120 @@
+package com.github.argherna.preftool;
+
+import java.io.IOException;
+import java.util.prefs.BackingStoreException;
+
+/**
+ * Receives the contents of a Preferences tree or document one node at a time.
+ *
+ * <P>
+ * Events are delivered in this order:
+ * <OL>
+ * <LI>{@link #startRoot(String)} for the user or system root.
+ * <LI>For each node, parents before children: {@link #startNode(String)}, then
+ * {@link #entry(String, String)} for each of the node's keys, then
+ * {@link #endNode(String)}.
+ * <LI>{@link #endRoot(String)}.
+ * <LI>{@link #endDocument()}, once, after the last root.
+ * </OL>
+ * A source may report more than one root. Paths are absolute within their root
+ * and nodes may be reported without all of their ancestors having been reported
+ * first.
+ *
+ * <P>
+ * A delta (see {@link PreferencesDelta}) also reports tombstones:
+ * {@link #removeKey(String)} between {@link #startNode(String)} and
+ * {@link #endNode(String)} for keys to remove from the node, and
+ * {@link #removeNode(String)} between nodes for subtrees to remove. Handlers
+ * that don't accept tombstones throw UnsupportedOperationException.
+ *
+ * <P>
+ * Readers of whole documents call {@link #endDocument()} themselves. A
+ * {@link PreferencesWalker} does not, since more than one walk can be reported
+ * to the same handler; whoever runs the walks calls it when they're done.
+ */
+public interface PreferencesHandler {
+
+    /**
+     * Called before the nodes of a root are reported.
+     *
+     * @param type {@code "user"} or {@code "system"}.
+     * @throws IOException           if an IOException occurs.
+     * @throws BackingStoreException if a BackingStoreException occurs.
+     */
+    default void startRoot(String type) throws IOException, BackingStoreException {
+    }
+
+    /**
+     * Called before the keys of a node are reported.
+     *
+     * @param path absolute path of the node.
+     * @throws IOException           if an IOException occurs.
+     * @throws BackingStoreException if a BackingStoreException occurs.
+     */
+    void startNode(String path) throws IOException, BackingStoreException;
+
+    /**
+     * Called once for each key of the current node.
+     *
+     * @param key   the key.
+     * @param value the value as it is stored.
+     * @throws IOException           if an IOException occurs.
+     * @throws BackingStoreException if a BackingStoreException occurs.
+     */
+    void entry(String key, String value) throws IOException, BackingStoreException;
+
+    /**
+     * Called once for each key to remove from the current node.
+     *
+     * @param key the key.
+     * @throws IOException                   if an IOException occurs.
+     * @throws BackingStoreException         if a BackingStoreException occurs.
+     * @throws UnsupportedOperationException if the handler doesn't accept
+     *                                       tombstones.
+     */
+    default void removeKey(String key) throws IOException, BackingStoreException {
+        throw new UnsupportedOperationException(String.format("Can't remove key %s here", key));
+    }
+
+    /**
+     * Called between nodes for a node to remove along with its subtree.
+     *
+     * @param path absolute path of the node.
+     * @throws IOException                   if an IOException occurs.
+     * @throws BackingStoreException         if a BackingStoreException occurs.
+     * @throws UnsupportedOperationException if the handler doesn't accept
+     *                                       tombstones.
+     */
+    default void removeNode(String path) throws IOException, BackingStoreException {
+        throw new UnsupportedOperationException(String.format("Can't remove node %s here", path));
+    }
+
+    /**
+     * Called after all of the keys of a node have been reported.
+     *
+     * @param path absolute path of the node.
+     * @throws IOException           if an IOException occurs.
+     * @throws BackingStoreException if a BackingStoreException occurs.
+     */
+    void endNode(String path) throws IOException, BackingStoreException;
+
+    /**
+     * Called after all of the nodes of a root have been reported.
+     *
+     * @param type {@code "user"} or {@code "system"}.
+     * @throws IOException           if an IOException occurs.
+     * @throws BackingStoreException if a BackingStoreException occurs.
+     */
+    default void endRoot(String type) throws IOException, BackingStoreException {
+    }
+
+    /**
+     * Called after everything has been reported. Handlers that write a document
+     * finish and flush it here.
+     *
+     * @throws IOException           if an IOException occurs.
+     * @throws BackingStoreException if a BackingStoreException occurs.
+     */
+    default void endDocument() throws IOException, BackingStoreException {
+    }
+}
@@ -0,0 +1,361 @@
+package com.github.argherna.preftool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+
+/**
+ * Reads newline-delimited JSON records written by {@link PreferencesJsonWriter}
+ * and reports their contents to a {@link PreferencesHandler}, one line at a
+ * time.
+ *
+ * <P>
+ * Consecutive records with the same root and path are reported as one node.
+ * {@code root} defaults to {@code user} and {@code type} is ignored, since
+ * {@code value} holds the value as it is stored; a number or boolean
+ * {@code value} is taken as written. Blank lines are skipped. Only the record
+ * being read is held in memory.
+ *
+ * <P>
+ * Since every record stands on its own, reading can start at the beginning of
+ * any line. {@link #getRecordOffset()} gives the byte offset of the line being
+ * read, so a reader can be started again from the first record of a node.
+ *
+ * <P>
+ * The {@code "removed":true} records written for the tombstones of a delta are
+ * reported as {@link PreferencesHandler#removeKey(String)} and
+ * {@link PreferencesHandler#removeNode(String)}, unless the reader is
+ * constructed to reject them.
+ */
+public class PreferencesJsonReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean tombstones;
+
+    private volatile long recordOffset;
+
+    /**
+     * Constructs a PreferencesJsonReader that reads documents and deltas.
+     */
+    public PreferencesJsonReader() {
+        this(true);
+    }
+
+    /**
+     * Constructs a PreferencesJsonReader.
+     *
+     * @param tombstones if {@code false}, the {@code "removed":true} records of a
+     *                   delta are rejected.
+     */
+    public PreferencesJsonReader(boolean tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Reads the records and reports them to the handler. The stream is not
+     * closed.
+     *
+     * @param inputStream the stream to read the records from.
+     * @param handler     the handler to report to.
+     * @throws InvalidPreferencesFormatException if a line isn't a valid record.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if the handler throws a
+     *                                           BackingStoreException.
+     */
+    public void read(InputStream inputStream, PreferencesHandler handler)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        var reader = new LineReader(inputStream);
+        String rootType = null;
+        String path = null;
+        var lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            recordOffset = reader.lineStart;
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            var record = new RecordParser(line, lineNumber).parse();
+            var recordRoot = record.getOrDefault("root", "user");
+            if (!recordRoot.equals("user") && !recordRoot.equals("system")) {
+                throw invalid(lineNumber, 1, String.format("Unknown root \"%s\"", recordRoot));
+            }
+            var recordPath = record.get("path");
+            if (recordPath == null || !recordPath.startsWith("/")) {
+                throw invalid(lineNumber, 1, "Record needs an absolute \"path\"");
+            }
+            var key = record.get("key");
+            var removed = "true".equals(record.get("removed"));
+            if (removed && !tombstones) {
+                throw invalid(lineNumber, 1,
+                        String.format("Unexpected removed record; only a delta can remove %s",
+                                key == null ? "nodes" : "keys"));
+            }
+
+            if (!recordRoot.equals(rootType) || !recordPath.equals(path) || (removed && key == null)) {
+                if (path != null) {
+                    handler.endNode(path);
+                    path = null;
+                }
+                if (!recordRoot.equals(rootType)) {
+                    if (rootType != null) {
+                        handler.endRoot(rootType);
+                    }
+                    rootType = recordRoot;
+                    handler.startRoot(rootType);
+                }
+                if (removed && key == null) {
+                    recordOffset = reader.offset;
+                    handler.removeNode(recordPath);
+                    continue;
+                }
+                path = recordPath;
+                handler.startNode(path);
+            }
+
+            if (key == null) {
+                continue;
+            } else if (removed) {
+                handler.removeKey(key);
+            } else {
+                var value = record.get("value");
+                if (value == null) {
+                    throw invalid(lineNumber, 1, String.format("Key \"%s\" has no \"value\"", key));
+                }
+                handler.entry(key, value);
+            }
+        }
+        recordOffset = reader.offset;
+        if (path != null) {
+            handler.endNode(path);
+        }
+        if (rootType != null) {
+            handler.endRoot(rootType);
+        }
+        handler.endDocument();
+    }
+
+    /**
+     * Returns the offset of the line being read from the start of the stream, or
+     * of the end of the stream once it has all been read. While a handler is
+     * told a node has ended or been removed, this is where the records after it
+     * start.
+     *
+     * @return the offset in bytes.
+     */
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Reads UTF-8 lines ended by {@code \n} or {@code \r\n}, keeping track of
+     * the byte offset of each.
+     */
+    private static final class LineReader {
+
+        private final InputStream in;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private byte[] line = new byte[256];
+
+        private int position;
+
+        private int limit;
+
+        private long lineStart;
+
+        private long offset;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        String readLine() throws IOException {
+            lineStart = offset;
+            var length = 0;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return length == 0 && offset == lineStart ? null : decode(length);
+                    }
+                }
+                var b = buffer[position++];
+                offset++;
+                if (b == '\n') {
+                    return decode(length);
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+        }
+
+        private String decode(int length) {
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return new String(line, 0, length, UTF_8);
+        }
+    }
+
+    private static InvalidPreferencesFormatException invalid(int line, int column, String message) {
+        return new InvalidPreferencesFormatException(
+                String.format("%s (line %d, column %d)", message, line, column));
+    }
+
+    /**
+     * Parses one line holding a flat JSON object. Values that are strings are
+     * returned unescaped, other values as written.
+     */
+    private static final class RecordParser {
+
+        private final String text;
+
+        private final int line;
+
+        private int position;
+
+        RecordParser(String text, int line) {
+            this.text = text;
+            this.line = line;
+        }
+
+        Map<String, String> parse() throws InvalidPreferencesFormatException {
+            var record = new HashMap<String, String>();
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    var name = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    var value = peek() == '"' ? readString() : readLiteral();
+                    if (record.put(name, value) != null) {
+                        throw error(String.format("Duplicate field \"%s\"", name));
+                    }
+                    skipWhitespace();
+                    if (peek() == ',') {
+                        position++;
+                    } else {
+                        expect('}');
+                        break;
+                    }
+                }
+            }
+            skipWhitespace();
+            if (position < text.length()) {
+                throw error("Unexpected text after record");
+            }
+            return record;
+        }
+
+        private String readString() throws InvalidPreferencesFormatException {
+            expect('"');
+            var value = new StringBuilder();
+            while (position < text.length()) {
+                var c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                } else if (c != '\\') {
+                    value.append(c);
+                } else if (position < text.length()) {
+                    var escaped = text.charAt(position++);
+                    switch (escaped) {
+                        case '"':
+                        case '\\':
+                        case '/':
+                            value.append(escaped);
+                            break;
+                        case 'b':
+                            value.append('\b');
+                            break;
+                        case 'f':
+                            value.append('\f');
+                            break;
+                        case 'n':
+                            value.append('\n');
+                            break;
+                        case 'r':
+                            value.append('\r');
+                            break;
+                        case 't':
+                            value.append('\t');
+                            break;
+                        case 'u':
+                            if (position + 4 > text.length()) {
+                                throw error("Incomplete \\u escape");
+                            }
+                            try {
+                                value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                            } catch (NumberFormatException e) {
+                                throw error("Invalid \\u escape");
+                            }
+                            position += 4;
+                            break;
+                        default:
+                            throw error(String.format("Invalid escape \\%c", escaped));
+                    }
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        /**
+         * Reads a number, {@code true}, {@code false} or {@code null}.
+         */
+        private String readLiteral() throws InvalidPreferencesFormatException {
+            var start = position;
+            while (position < text.length() && ",} \t".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            var literal = text.substring(start, position);
+            if (literal.isEmpty() || !(literal.equals("true") || literal.equals("false") || literal.equals("null")
+                    || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?"))) {
+                position = start;
+                throw error(String.format("Invalid value \"%s\"", literal));
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private char peek() throws InvalidPreferencesFormatException {
+            if (position >= text.length()) {
+                throw error("Record ends unexpectedly");
+            }
+            return text.charAt(position);
+        }
+
+        private void expect(char c) throws InvalidPreferencesFormatException {
+            if (peek() != c) {
+                throw error(String.format("Expected '%c'", c));
+            }
+            position++;
+        }
+
+        private InvalidPreferencesFormatException error(String message) {
+            return invalid(line, position + 1, message);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.argherna.preftool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Objects;
+
+/**
+ * A PreferencesHandler that writes what it is handed as newline-delimited JSON
+ * (NDJSON), one record per key.
+ *
+ * <P>
+ * Each record is a JSON object on its own line:
+ *
+ * <PRE>
+ * {"root":"user","path":"/com/example","key":"size","type":"int","value":"12"}
+ * </PRE>
+ *
+ * <P>
+ * {@code value} is the value as it is stored and {@code type} the type guessed
+ * for it by {@link PreferencesUtilities#classifyValue(String)} ({@code String},
+ * {@code boolean}, {@code int}, {@code long}, {@code float}, {@code double} or
+ * {@code byte[]}). A node without keys is written as a record with only
+ * {@code root} and {@code path}. Tombstones in a delta are written with
+ * {@code "removed":true} in place of the type and value, and without a key for
+ * a removed node.
+ *
+ * <P>
+ * Records are written as they arrive; nothing is held beyond the record being
+ * written. The output stream is flushed but not closed when the document ends.
+ *
+ * @see PreferencesJsonReader
+ */
+public class PreferencesJsonWriter implements PreferencesHandler {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+
+    private String rootType = "user";
+
+    private String currentPath;
+
+    private int entries;
+
+    /**
+     * Constructs a PreferencesJsonWriter.
+     *
+     * @param outputStream the stream to write the UTF-8 encoded records to.
+     * @throws NullPointerException if outputStream is null.
+     */
+    public PreferencesJsonWriter(OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(
+                Objects.requireNonNull(outputStream, "Export OutputStream cannot be null!"), UTF_8), BUFFER_SIZE);
+    }
+
+    @Override
+    public void startRoot(String type) {
+        rootType = type;
+    }
+
+    @Override
+    public void startNode(String path) {
+        currentPath = path;
+        entries = 0;
+    }
+
+    @Override
+    public void entry(String key, String value) throws IOException {
+        entries++;
+        startRecord(currentPath);
+        writer.write(",\"key\":");
+        writeString(key);
+        writer.write(",\"type\":");
+        writeString(PreferencesUtilities.classifyValue(value).getSimpleName());
+        writer.write(",\"value\":");
+        writeString(value);
+        writer.write("}\n");
+    }
+
+    @Override
+    public void removeKey(String key) throws IOException {
+        entries++;
+        startRecord(currentPath);
+        writer.write(",\"key\":");
+        writeString(key);
+        writer.write(",\"removed\":true}\n");
+    }
+
+    @Override
+    public void removeNode(String path) throws IOException {
+        startRecord(path);
+        writer.write(",\"removed\":true}\n");
+    }
+
+    @Override
+    public void endNode(String path) throws IOException {
+        if (entries == 0) {
+            startRecord(path);
+            writer.write("}\n");
+        }
+    }
+
+    @Override
+    public void endDocument() throws IOException {
+        writer.flush();
+    }
+
+    private void startRecord(String path) throws IOException {
+        writer.write("{\"root\":");
+        writeString(rootType);
+        writer.write(",\"path\":");
+        writeString(path);
+    }
+
+    /**
+     * Writes text as a JSON string.
+     */
+    private void writeString(String text) throws IOException {
+        writer.write('"');
+        var start = 0;
+        for (var i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"':
+                    replacement = "\\\"";
+                    break;
+                case '\\':
+                    replacement = "\\\\";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                case '\t':
+                    replacement = "\\t";
+                    break;
+                default:
+                    replacement = c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+                    break;
+            }
+            if (replacement != null) {
+                writer.write(text, start, i - start);
+                writer.write(replacement);
+                start = i + 1;
+            }
+        }
+        writer.write(text, start, text.length() - start);
+        writer.write('"');
+    }
+}
@@ -0,0 +1,306 @@
+package com.github.argherna.preftool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * A PreferencesHandler that works out what importing what it is handed would do
+ * to a live tree, without writing anything.
+ *
+ * <P>
+ * What is handed over is compared with the live tree by a
+ * {@link PreferencesChangeDetector}. For each node that would change, the keys
+ * it would end up with are worked out to estimate the flush volume: the size of
+ * the file the JDK's file-backed store rewrites for each changed node. Changes
+ * that would fail or may not be wanted are collected as conflicts:
+ * <UL>
+ * <LI>key names, node names or values longer than {@link Preferences} allows,
+ * <LI>values that would change between a boolean, a number and text, as
+ * guessed by {@link PreferencesUtilities#classifyValue(String)} (a change
+ * between kinds of number, or between a String and a byte array, isn't a
+ * conflict, since a value can look like either), and
+ * <LI>tombstones for keys and nodes that don't exist, a sign the tree has
+ * changed since a delta's baseline.
+ * </UL>
+ *
+ * <P>
+ * Only the keys of the node being compared are held in memory.
+ */
+public class PreferencesPlanner implements PreferencesHandler {
+
+    /** The number of conflicts described in a plan; the rest are only counted. */
+    static final int MAX_CONFLICTS_LISTED = 20;
+
+    /** Bytes of a node's file besides its entries. */
+    private static final int FILE_OVERHEAD = 170;
+
+    /** Bytes of an entry besides its key and value. */
+    private static final int ENTRY_OVERHEAD = 25;
+
+    private final Preferences userRoot;
+
+    private final Preferences systemRoot;
+
+    private final PreferencesChangeDetector detector;
+
+    private final Plan plan;
+
+    private NodeResolver resolver;
+
+    private String path;
+
+    private Map<String, String> values;
+
+    /**
+     * Constructs a PreferencesPlanner that compares with the JDK's user and
+     * system roots.
+     */
+    public PreferencesPlanner() {
+        this(Preferences.userRoot(), Preferences.systemRoot());
+    }
+
+    /**
+     * Constructs a PreferencesPlanner.
+     *
+     * @param userRoot   node to compare nodes under a user root with.
+     * @param systemRoot node to compare nodes under a system root with.
+     * @throws NullPointerException if either root is null.
+     */
+    public PreferencesPlanner(Preferences userRoot, Preferences systemRoot) {
+        this.userRoot = Objects.requireNonNull(userRoot, "User root cannot be null!");
+        this.systemRoot = Objects.requireNonNull(systemRoot, "System root cannot be null!");
+        this.detector = new PreferencesChangeDetector(userRoot, systemRoot, new ChangeMeasurer());
+        this.plan = new Plan(detector.getChanges());
+    }
+
+    /**
+     * Returns the plan worked out so far.
+     *
+     * @return the plan.
+     */
+    public Plan getPlan() {
+        return plan;
+    }
+
+    @Override
+    public void startRoot(String type) throws IOException, BackingStoreException {
+        detector.startRoot(type);
+    }
+
+    @Override
+    public void startNode(String path) throws IOException, BackingStoreException {
+        detector.startNode(path);
+    }
+
+    @Override
+    public void entry(String key, String value) throws IOException, BackingStoreException {
+        detector.entry(key, value);
+    }
+
+    @Override
+    public void removeKey(String key) throws IOException, BackingStoreException {
+        detector.removeKey(key);
+    }
+
+    @Override
+    public void endNode(String path) throws IOException, BackingStoreException {
+        detector.endNode(path);
+    }
+
+    @Override
+    public void removeNode(String path) throws IOException, BackingStoreException {
+        detector.removeNode(path);
+    }
+
+    @Override
+    public void endRoot(String type) throws IOException, BackingStoreException {
+        detector.endRoot(type);
+    }
+
+    @Override
+    public void endDocument() throws IOException, BackingStoreException {
+        detector.endDocument();
+    }
+
+    /**
+     * Receives only the changes from the detector and works out what they cost.
+     */
+    private final class ChangeMeasurer implements PreferencesHandler {
+
+        @Override
+        public void startRoot(String type) {
+            resolver = new NodeResolver(type.equals("system") ? systemRoot : userRoot);
+        }
+
+        @Override
+        public void startNode(String path) throws BackingStoreException {
+            PreferencesPlanner.this.path = path;
+            values = new HashMap<>();
+            var live = resolver.find(path);
+            if (live == null) {
+                var name = path.substring(path.lastIndexOf('/') + 1);
+                if (name.length() > Preferences.MAX_NAME_LENGTH) {
+                    plan.conflict(path, null, String.format("node name is longer than %d characters",
+                            Preferences.MAX_NAME_LENGTH));
+                }
+                return;
+            }
+            for (var key : live.keys()) {
+                values.put(key, live.get(key, ""));
+            }
+        }
+
+        @Override
+        public void entry(String key, String value) {
+            if (key.length() > Preferences.MAX_KEY_LENGTH) {
+                plan.conflict(path, key,
+                        String.format("key is longer than %d characters", Preferences.MAX_KEY_LENGTH));
+            }
+            if (value.length() > Preferences.MAX_VALUE_LENGTH) {
+                plan.conflict(path, key,
+                        String.format("value is longer than %d characters", Preferences.MAX_VALUE_LENGTH));
+            }
+            var old = values.put(key, value);
+            if (old != null) {
+                var oldKind = kindOf(old);
+                var newKind = kindOf(value);
+                if (!oldKind.equals(newKind)) {
+                    plan.conflict(path, key, String.format("value changes from %s to %s", oldKind, newKind));
+                }
+            }
+        }
+
+        @Override
+        public void removeKey(String key) {
+            values.remove(key);
+        }
+
+        @Override
+        public void endNode(String path) {
+            var bytes = FILE_OVERHEAD;
+            for (var entry : values.entrySet()) {
+                bytes += ENTRY_OVERHEAD + entry.getKey().getBytes(UTF_8).length
+                        + entry.getValue().getBytes(UTF_8).length;
+            }
+            plan.flushedNodes++;
+            plan.flushBytes += bytes;
+            values = null;
+        }
+
+        @Override
+        public void removeNode(String path) {
+            // removed nodes' files are deleted, not rewritten
+        }
+
+        private String kindOf(String value) {
+            var type = PreferencesUtilities.classifyValue(value);
+            if (type == boolean.class) {
+                return "boolean";
+            } else if (type == String.class || type == byte[].class) {
+                return "text";
+            }
+            return "number";
+        }
+    }
+
+    /**
+     * What an import would do: the changes found, the flush volume and the
+     * conflicts.
+     */
+    public static final class Plan {
+
+        private final PreferencesChangeDetector.Changes changes;
+
+        private final List<String> conflicts = new ArrayList<>();
+
+        private long conflictCount;
+
+        private long flushedNodes;
+
+        private long flushBytes;
+
+        Plan(PreferencesChangeDetector.Changes changes) {
+            this.changes = changes;
+        }
+
+        /**
+         * @return the nodes and keys that would be created, updated, removed or
+         *         left unchanged.
+         */
+        public PreferencesChangeDetector.Changes getChanges() {
+            return changes;
+        }
+
+        /**
+         * @return the number of nodes that would be written to the backing store.
+         */
+        public long getFlushedNodes() {
+            return flushedNodes;
+        }
+
+        /**
+         * @return an estimate of the bytes that would be written to the backing
+         *         store.
+         */
+        public long getFlushBytes() {
+            return flushBytes;
+        }
+
+        /**
+         * @return the number of conflicts, including tombstones for keys and nodes
+         *         that don't exist.
+         */
+        public long getConflictCount() {
+            return conflictCount + changes.getMissingRemovals();
+        }
+
+        /**
+         * @return descriptions of the first conflicts found, other than tombstones
+         *         for keys and nodes that don't exist.
+         */
+        public List<String> getConflicts() {
+            return Collections.unmodifiableList(conflicts);
+        }
+
+        void conflict(String path, String key, String description) {
+            conflictCount++;
+            if (conflicts.size() < MAX_CONFLICTS_LISTED) {
+                conflicts.add(key == null ? String.format("%s: %s", path, description)
+                        : String.format("%s key %s: %s", path, key, description));
+            }
+        }
+
+        @Override
+        public String toString() {
+            var text = new StringBuilder();
+            text.append(String.format("Keys: %,d to create, %,d to update, %,d to remove, %,d unchanged%n",
+                    changes.getKeysAdded(), changes.getKeysUpdated(), changes.getKeysRemoved(),
+                    changes.getKeysUnchanged()));
+            text.append(String.format("Nodes: %,d to create, %,d to update, %,d to remove, %,d unchanged%n",
+                    changes.getNodesAdded(), changes.getNodesUpdated(), changes.getNodesRemoved(),
+                    changes.getNodesUnchanged()));
+            text.append(String.format("Flush: %,d nodes, about %,d bytes%n", flushedNodes, flushBytes));
+            text.append(String.format("Conflicts: %,d", getConflictCount()));
+            if (changes.getMissingRemovals() > 0) {
+                text.append(String.format("%n  %,d tombstones for keys or nodes that don't exist",
+                        changes.getMissingRemovals()));
+            }
+            for (var conflict : conflicts) {
+                text.append(String.format("%n  %s", conflict));
+            }
+            if (conflictCount > conflicts.size()) {
+                text.append(String.format("%n  ... and %,d more", conflictCount - conflicts.size()));
+            }
+            return text.toString();
+        }
+    }
+}
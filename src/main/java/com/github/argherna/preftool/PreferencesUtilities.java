@@ -1,6 +1,11 @@
 package com.github.argherna.preftool;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
@@ -15,6 +20,18 @@ public class PreferencesUtilities {
 
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
+    private static final Predicate<String> ACCEPT_ALL = name -> true;
+
+    private static final int NOT_NUMERIC = 0;
+
+    private static final int INT_NUMBER = 1;
+
+    private static final int LONG_NUMBER = 2;
+
+    private static final int FLOAT_NUMBER = 3;
+
+    private static final int DOUBLE_NUMBER = 4;
+
     private PreferencesUtilities() {
         // empty private constructor
     }
@@ -26,13 +43,7 @@ public class PreferencesUtilities {
      * @return {@code true} if the value is a double.
      */
     public static boolean isValueDouble(String value) {
-        var isValueDouble = false;
-        try {
-            Double.parseDouble(value);
-        } catch (Exception e) {
-            isValueDouble = false;
-        }
-        return isValueDouble;
+        return scanNumber(value) != NOT_NUMERIC;
     }
 
     /**
@@ -42,13 +53,7 @@ public class PreferencesUtilities {
      * @return {@code true} if the value is a float.
      */
     public static boolean isValueFloat(String value) {
-        var isValueFloat = true;
-        try {
-            Float.parseFloat(value);
-        } catch (Exception e) {
-            isValueFloat = false;
-        }
-        return isValueFloat;
+        return scanNumber(value) != NOT_NUMERIC;
     }
 
     /**
@@ -58,13 +63,8 @@ public class PreferencesUtilities {
      * @return {@code true} if the value is a long.
      */
     public static boolean isValueLong(String value) {
-        var isValueLong = true;
-        try {
-            Long.parseLong(value);
-        } catch (Exception e) {
-            isValueLong = false;
-        }
-        return isValueLong;
+        var kind = scanNumber(value);
+        return kind == INT_NUMBER || kind == LONG_NUMBER;
     }
 
     /**
@@ -74,13 +74,7 @@ public class PreferencesUtilities {
      * @return {@code true} if the value is an int.
      */
     public static boolean isValueInt(String value) {
-        var isValueInt = true;
-        try {
-            Integer.parseInt(value);
-        } catch (NumberFormatException nfe) {
-            isValueInt = false;
-        }
-        return isValueInt;
+        return scanNumber(value) == INT_NUMBER;
     }
 
     /**
@@ -99,9 +93,36 @@ public class PreferencesUtilities {
      * @param value possible byte array value as String.
      * @return {@code true} if the value is a byte array.
      */
-    // TODO: instead of this stupid way of doing it, need to figure out if string value is Base64 encoded and if so, return true.
     public static boolean isValueByteArray(Preferences pref, String key) {
-        return !Arrays.equals(pref.getByteArray(key, EMPTY_BYTE_ARRAY), EMPTY_BYTE_ARRAY);
+        return isValueByteArray(pref.get(key, ""));
+    }
+
+    /**
+     * Returns {@code true} if the given value is a non-empty byte array encoded the
+     * way {@link Preferences#putByteArray(String, byte[])} encodes it (Base64,
+     * padded to a multiple of 4 characters).
+     *
+     * @param value possible byte array value as String.
+     * @return {@code true} if the value is a byte array.
+     */
+    public static boolean isValueByteArray(String value) {
+        var length = value.length();
+        if (length == 0 || length % 4 != 0) {
+            return false;
+        }
+        var padding = 0;
+        if (value.charAt(length - 1) == '=') {
+            padding++;
+            if (value.charAt(length - 2) == '=') {
+                padding++;
+            }
+        }
+        for (var i = 0; i < length - padding; i++) {
+            if (!isBase64Char(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -110,24 +131,195 @@ public class PreferencesUtilities {
      * @param pref the Preferences node.
      * @param key  the key contained in the Preferences node.
      * @return the Class type of the value.
+     * @see #classifyValue(String)
      */
     public static Class<?> guessType(Preferences pref, String key) {
-        Class<?> valueType = String.class;
-        var prefValue = pref.get(key, "");
-        if (isValueBoolean(prefValue)) {
-            valueType = boolean.class;
-        } else if (isValueInt(prefValue)) {
-            valueType = int.class;
-        } else if (isValueLong(prefValue)) {
-            valueType = long.class;
-        } else if (isValueFloat(prefValue)) {
-            valueType = float.class;
-        } else if (isValueDouble(prefValue)) {
-            valueType = double.class;
-        } else if (isValueByteArray(pref, key)) {
-            valueType = byte[].class;
+        return classifyValue(pref.get(key, ""));
+    }
+
+    /**
+     * Returns the Class of the given stored Preferences value.
+     *
+     * <P>
+     * The value is checked in the same order as it always has been (boolean, int,
+     * long, float, double, byte array and finally String), but in a single pass
+     * over its characters that neither allocates nor throws. Decimal values are
+     * reported as {@code float} unless they carry a {@code d} or {@code D} suffix,
+     * in which case they are reported as {@code double}.
+     *
+     * @param value the stored value (may be {@code null}).
+     * @return the Class type of the value.
+     */
+    public static Class<?> classifyValue(String value) {
+        if (value == null) {
+            return String.class;
+        }
+        if (isValueBoolean(value)) {
+            return boolean.class;
+        }
+        switch (scanNumber(value)) {
+            case INT_NUMBER:
+                return int.class;
+            case LONG_NUMBER:
+                return long.class;
+            case FLOAT_NUMBER:
+                return float.class;
+            case DOUBLE_NUMBER:
+                return double.class;
+            default:
+                return isValueByteArray(value) ? byte[].class : String.class;
         }
-        return valueType;
+    }
+
+    /**
+     * Scans the given value once and returns what kind of number it is (or
+     * {@link #NOT_NUMERIC}). The grammar accepted is the one accepted by
+     * {@link Integer#parseInt(String)}, {@link Long#parseLong(String)} and
+     * {@link Float#parseFloat(String)}.
+     *
+     * @param value the value to scan.
+     * @return one of the {@code *_NUMBER} constants or {@link #NOT_NUMERIC}.
+     */
+    private static int scanNumber(String value) {
+        if (value == null || value.isEmpty()) {
+            return NOT_NUMERIC;
+        }
+        var integral = scanIntegral(value);
+        return integral != NOT_NUMERIC ? integral : scanDecimal(value);
+    }
+
+    /**
+     * Scans the given value as a (signed) integer, tracking overflow the same way
+     * {@link Long#parseLong(String)} does.
+     *
+     * @param value the value to scan.
+     * @return {@link #INT_NUMBER}, {@link #LONG_NUMBER} or {@link #NOT_NUMERIC}.
+     */
+    private static int scanIntegral(String value) {
+        var length = value.length();
+        var i = 0;
+        var negative = false;
+        var limit = -Long.MAX_VALUE;
+        var first = value.charAt(0);
+        if (first == '-' || first == '+') {
+            if (length == 1) {
+                return NOT_NUMERIC;
+            }
+            negative = first == '-';
+            limit = negative ? Long.MIN_VALUE : limit;
+            i++;
+        }
+        var multmin = limit / 10;
+        var result = 0L;
+        while (i < length) {
+            var digit = Character.digit(value.charAt(i++), 10);
+            if (digit < 0 || result < multmin) {
+                return NOT_NUMERIC;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return NOT_NUMERIC;
+            }
+            result -= digit;
+        }
+        var number = negative ? result : -result;
+        return number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE ? INT_NUMBER : LONG_NUMBER;
+    }
+
+    /**
+     * Scans the given value as a Java floating point literal (decimal or
+     * hexadecimal, {@code NaN} or {@code Infinity}), ignoring leading and trailing
+     * whitespace the same way {@link Float#parseFloat(String)} does.
+     *
+     * @param value the value to scan.
+     * @return {@link #FLOAT_NUMBER}, {@link #DOUBLE_NUMBER} or
+     *         {@link #NOT_NUMERIC}.
+     */
+    private static int scanDecimal(String value) {
+        var start = 0;
+        var end = value.length();
+        while (start < end && value.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start < end && (value.charAt(start) == '-' || value.charAt(start) == '+')) {
+            start++;
+        }
+        if (start == end) {
+            return NOT_NUMERIC;
+        }
+        if (value.startsWith("NaN", start)) {
+            return start + 3 == end ? FLOAT_NUMBER : NOT_NUMERIC;
+        }
+        if (value.startsWith("Infinity", start)) {
+            return start + 8 == end ? FLOAT_NUMBER : NOT_NUMERIC;
+        }
+
+        var hex = end - start > 2 && value.charAt(start) == '0'
+                && (value.charAt(start + 1) == 'x' || value.charAt(start + 1) == 'X');
+        var radix = hex ? 16 : 10;
+        var i = hex ? start + 2 : start;
+        var digits = 0;
+        while (i < end && Character.digit(value.charAt(i), radix) >= 0 && value.charAt(i) < 128) {
+            i++;
+            digits++;
+        }
+        if (i < end && value.charAt(i) == '.') {
+            i++;
+            while (i < end && Character.digit(value.charAt(i), radix) >= 0 && value.charAt(i) < 128) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return NOT_NUMERIC;
+        }
+
+        // Hexadecimal literals require a binary exponent, decimal ones may have one.
+        var exponentChar = i < end ? Character.toLowerCase(value.charAt(i)) : 0;
+        if (hex && exponentChar != 'p') {
+            return NOT_NUMERIC;
+        }
+        if (exponentChar == (hex ? 'p' : 'e')) {
+            i++;
+            if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                i++;
+            }
+            var exponentDigits = 0;
+            while (i < end && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return NOT_NUMERIC;
+            }
+        }
+
+        if (i == end) {
+            return FLOAT_NUMBER;
+        }
+        var suffix = value.charAt(i);
+        if (i + 1 != end) {
+            return NOT_NUMERIC;
+        }
+        if (suffix == 'f' || suffix == 'F') {
+            return FLOAT_NUMBER;
+        }
+        return suffix == 'd' || suffix == 'D' ? DOUBLE_NUMBER : NOT_NUMERIC;
+    }
+
+    /**
+     * Returns {@code true} if the given character is in the Base64 alphabet used by
+     * {@link Preferences#putByteArray(String, byte[])}.
+     *
+     * @param c the character.
+     * @return {@code true} if c is a Base64 character.
+     */
+    private static boolean isBase64Char(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+'
+                || c == '/';
     }
 
     /**
@@ -155,6 +347,52 @@ public class PreferencesUtilities {
         }
     }
 
+    /**
+     * Reads every key and value of the given node once and returns them as a
+     * {@link NodeSnapshot}.
+     *
+     * <P>
+     * Keys removed between listing the keys and reading their values are left out
+     * of the snapshot.
+     *
+     * @param preferences the Preferences node.
+     * @return snapshot of the node's keys and values.
+     * @throws BackingStoreException if a BackingStoreException is thrown.
+     */
+    public static NodeSnapshot snapshot(Preferences preferences) throws BackingStoreException {
+        return snapshot(preferences, ACCEPT_ALL);
+    }
+
+    /**
+     * Reads the keys of the given node accepted by the key filter and their values
+     * once and returns them as a {@link NodeSnapshot}. Values of keys that aren't
+     * accepted are never read.
+     *
+     * @param preferences the Preferences node.
+     * @param keyFilter   accepts the names of keys to include.
+     * @return snapshot of the node's accepted keys and values.
+     * @throws BackingStoreException if a BackingStoreException is thrown.
+     */
+    public static NodeSnapshot snapshot(Preferences preferences, Predicate<String> keyFilter)
+            throws BackingStoreException {
+        var keys = preferences.keys();
+        Arrays.sort(keys);
+        var values = new String[keys.length];
+        var count = 0;
+        for (var i = 0; i < keys.length; i++) {
+            var value = keyFilter.test(keys[i]) ? preferences.get(keys[i], null) : null;
+            if (value != null) {
+                keys[count] = keys[i];
+                values[count++] = value;
+            }
+        }
+        if (count < keys.length) {
+            keys = Arrays.copyOf(keys, count);
+            values = Arrays.copyOf(values, count);
+        }
+        return new NodeSnapshot(preferences.absolutePath(), keys, values);
+    }
+
     /**
      * Copies the children from {@code source} to {@code destination}.
      *
@@ -164,19 +402,148 @@ public class PreferencesUtilities {
      */
     public static void copy(Preferences source, Preferences destination)
             throws BackingStoreException {
+        copy(source, destination, ACCEPT_ALL, ACCEPT_ALL);
+    }
 
-        // copy keys
-        var sourceKeys = source.keys();
-        for (var i = 0; i < sourceKeys.length; i++) {
-            destination.put(sourceKeys[i], source.get(sourceKeys[i], ""));
+    /**
+     * Copies the nodes and keys accepted by the filters from {@code source} to
+     * {@code destination}.
+     *
+     * <P>
+     * Each accepted source node is read once and all of its keys are written to the
+     * destination node together. Values are copied as they are stored, so every
+     * type put with one of the {@code put*} methods is preserved exactly. The
+     * destination is flushed once, after the whole subtree has been copied.
+     *
+     * <P>
+     * The node filter is given the absolute path of each source node before the
+     * node is read. A node that isn't accepted is skipped along with its whole
+     * subtree; its keys and children are never read.
+     *
+     * @param source      the source Preferences node whose children and keys are to be copied.
+     * @param destination the destination Preferences node.
+     * @param nodeFilter  accepts the absolute paths of source nodes to copy.
+     * @param keyFilter   accepts the names of keys to copy.
+     * @throws BackingStoreException if a BackingStoreException is thrown.
+     */
+    public static void copy(Preferences source, Preferences destination, Predicate<String> nodeFilter,
+            Predicate<String> keyFilter) throws BackingStoreException {
+        if (!nodeFilter.test(source.absolutePath())) {
+            return;
         }
 
-        // copy the kids recursively
-        var sourceKidsNames = source.childrenNames();
-        for (var i = 0; i < sourceKidsNames.length; i++) {
-            var destKid = destination.node(sourceKidsNames[i]);
-            copy(source.node(sourceKidsNames[i]), destKid);
+        // Walk with an explicit stack; Preferences trees can be deeper than the call stack.
+        var pending = new ArrayDeque<Preferences[]>();
+        pending.push(new Preferences[] { source, destination });
+        while (!pending.isEmpty()) {
+            var pair = pending.pop();
+            var snapshot = snapshot(pair[0], keyFilter);
+            for (var i = 0; i < snapshot.size(); i++) {
+                pair[1].put(snapshot.getKey(i), snapshot.getValue(i));
+            }
+
+            var sourceKidsNames = pair[0].childrenNames();
+            for (var i = sourceKidsNames.length - 1; i >= 0; i--) {
+                if (nodeFilter.test(childPath(snapshot.getAbsolutePath(), sourceKidsNames[i]))) {
+                    pending.push(new Preferences[] { pair[0].node(sourceKidsNames[i]),
+                            pair[1].node(sourceKidsNames[i]) });
+                }
+            }
         }
+        destination.flush();
+    }
+
+    /**
+     * Copies the children from {@code source} to {@code destination}, reading
+     * sibling subtrees of the source concurrently.
+     *
+     * @param source      the source Preferences node whose children and keys are to be copied.
+     * @param destination the destination Preferences node.
+     * @param parallelism the number of threads reading the source.
+     * @return the number of nodes and keys copied and how long it took.
+     * @throws BackingStoreException if a BackingStoreException is thrown.
+     * @see CopyPreferences
+     */
+    public static CopyPreferences.Statistics copy(Preferences source, Preferences destination, int parallelism)
+            throws BackingStoreException {
+        return new CopyPreferences(source, destination, parallelism).call();
+    }
+
+    /**
+     * Copies the nodes and keys accepted by the filters from {@code source} to
+     * {@code destination}, reading sibling subtrees of the source concurrently.
+     *
+     * @param source      the source Preferences node whose children and keys are to be copied.
+     * @param destination the destination Preferences node.
+     * @param parallelism the number of threads reading the source.
+     * @param nodeFilter  accepts the absolute paths of source nodes to copy.
+     * @param keyFilter   accepts the names of keys to copy.
+     * @return the number of nodes and keys copied and how long it took.
+     * @throws BackingStoreException if a BackingStoreException is thrown.
+     * @see #copy(Preferences, Preferences, Predicate, Predicate)
+     * @see CopyPreferences
+     */
+    public static CopyPreferences.Statistics copy(Preferences source, Preferences destination, int parallelism,
+            Predicate<String> nodeFilter, Predicate<String> keyFilter) throws BackingStoreException {
+        return new CopyPreferences(source, destination, parallelism, nodeFilter, keyFilter).call();
+    }
+
+    /**
+     * Waits for a pool that has been shut down to terminate, so no task in it can
+     * still be running once this returns. If the calling thread is interrupted,
+     * this keeps waiting and sets the thread's interrupt status before returning.
+     *
+     * @param pool the pool.
+     */
+    static void awaitTermination(ForkJoinPool pool) {
+        var terminated = false;
+        var interrupted = false;
+        while (!terminated) {
+            try {
+                terminated = pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the BackingStoreException wrapped by an exception thrown from a
+     * fork-join pool, or throws the exception if it isn't wrapping one. A
+     * CompletionException wrapping another unchecked exception is replaced by its
+     * cause.
+     *
+     * @param e the RuntimeException thrown by the fork-join pool.
+     * @return the wrapped BackingStoreException.
+     */
+    static BackingStoreException unwrap(RuntimeException e) {
+        for (var cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof BackingStoreException) {
+                return (BackingStoreException) cause;
+            }
+        }
+        if (e instanceof CompletionException) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+        }
+        throw e;
+    }
+
+    /**
+     * Returns the absolute path of the child with the given name.
+     *
+     * @param parentPath absolute path of the parent node.
+     * @param childName  name of the child node.
+     * @return absolute path of the child node.
+     */
+    static String childPath(String parentPath, String childName) {
+        return parentPath.equals("/") ? "/" + childName : parentPath + "/" + childName;
     }
 
     /**
@@ -195,4 +562,54 @@ public class PreferencesUtilities {
         }
         return type.equals("User") ? Preferences.userRoot() : Preferences.systemRoot();
     }
+
+    /**
+     * Returns the Preferences node at the given node address.
+     *
+     * <P>
+     * A node address is a path that may be prefixed with the root it is under, as
+     * in {@code User:/path/to/node} or {@code System:/path/to/node}. A path without
+     * a prefix is looked up under the default root.
+     *
+     * @param nodeAddress the node address.
+     * @param systemRoot  if {@code true} the default root is the system root,
+     *                    otherwise it is the user root.
+     * @return the Preferences node.
+     * @throws IllegalArgumentException if the address has a prefix other than
+     *                                  "User" or "System".
+     */
+    public static Preferences getPreferences(String nodeAddress, boolean systemRoot) {
+        return getPreferencesRoot(rootTypeOf(nodeAddress, systemRoot)).node(pathOf(nodeAddress));
+    }
+
+    /**
+     * Returns the root type ("User" or "System") of the given node address.
+     *
+     * @param nodeAddress the node address.
+     * @param systemRoot  if {@code true} the default root is the system root.
+     * @return the root type.
+     * @see #getPreferences(String, boolean)
+     */
+    static String rootTypeOf(String nodeAddress, boolean systemRoot) {
+        var separator = rootSeparatorIndex(nodeAddress);
+        if (separator == -1) {
+            return systemRoot ? "System" : "User";
+        }
+        return nodeAddress.substring(0, separator);
+    }
+
+    /**
+     * Returns the path of the given node address.
+     *
+     * @param nodeAddress the node address.
+     * @return the path.
+     * @see #getPreferences(String, boolean)
+     */
+    static String pathOf(String nodeAddress) {
+        return nodeAddress.substring(rootSeparatorIndex(nodeAddress) + 1);
+    }
+
+    private static int rootSeparatorIndex(String nodeAddress) {
+        return nodeAddress.startsWith("/") ? -1 : nodeAddress.indexOf(':');
+    }
 }
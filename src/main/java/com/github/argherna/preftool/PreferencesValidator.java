@@ -0,0 +1,463 @@
+package com.github.argherna.preftool;
+
+import static com.github.argherna.preftool.Constants.DRY_RUN;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+import java.util.prefs.Preferences;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Checks a Preferences document without importing it, stopping at the first
+ * problem.
+ *
+ * <P>
+ * XML is read with a streaming parser and checked against the Preferences DTD
+ * as it is read: the elements, their order and attributes, and the root types.
+ * In every format, key names, values and node names have to fit within
+ * {@link Preferences#MAX_KEY_LENGTH}, {@link Preferences#MAX_VALUE_LENGTH} and
+ * {@link Preferences#MAX_NAME_LENGTH}, node names can't be empty or contain a
+ * {@code /}, and a node can't have the same key twice. The first problem is
+ * reported with its line and column in XML, its byte offset in NDJSON and its
+ * node in a binary snapshot.
+ *
+ * <P>
+ * Only the enclosing elements and the keys of the node being read are kept, so
+ * memory use doesn't grow with the size of the document.
+ *
+ * @see <a href="https://docs.oracle.com/en/java/javase/14/docs/api/java.prefs/java/util/prefs/Preferences.html">Preferences DTD</a>
+ */
+public class PreferencesValidator {
+
+    private final boolean tombstones;
+
+    /**
+     * Constructs a PreferencesValidator that accepts only documents
+     * {@link Preferences#importPreferences(InputStream)} would.
+     */
+    public PreferencesValidator() {
+        this(false);
+    }
+
+    /**
+     * Constructs a PreferencesValidator.
+     *
+     * @param tombstones if {@code true}, the tombstones of a delta written by
+     *                   {@link ExportPreferences} with a baseline are accepted.
+     */
+    public PreferencesValidator(boolean tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Reads a document to the end, or to its first problem. Input compressed with
+     * gzip or deflate is decompressed. The stream is not closed.
+     *
+     * @param inputStream the stream to read the document from.
+     * @return the format of the document.
+     * @throws InvalidPreferencesFormatException if the document has a problem.
+     * @throws IOException                       if an IOException occurs.
+     */
+    public PreferencesFormat validate(InputStream inputStream)
+            throws InvalidPreferencesFormatException, IOException {
+        var in = Compression.decompress(inputStream);
+        var format = PreferencesFormat.detect(in);
+        if (format == PreferencesFormat.XML) {
+            validateXml(in);
+            return format;
+        }
+
+        var jsonReader = format == PreferencesFormat.NDJSON ? new PreferencesJsonReader() : null;
+        var checker = new Checker(tombstones, jsonReader == null ? null
+                : () -> String.format("record at byte %d", jsonReader.getRecordOffset()));
+        try {
+            if (jsonReader != null) {
+                jsonReader.read(in, checker);
+            } else {
+                format.read(in, checker);
+            }
+        } catch (BackingStoreException e) {
+            // the checker doesn't use a backing store
+            throw new IllegalStateException(e);
+        } catch (Problem problem) {
+            throw new InvalidPreferencesFormatException(problem.getMessage());
+        }
+        return format;
+    }
+
+    private void validateXml(InputStream in) throws InvalidPreferencesFormatException, IOException {
+        XMLStreamReader reader;
+        try {
+            reader = PreferencesXmlReader.XML_INPUT_FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new InvalidPreferencesFormatException(e);
+        }
+        try {
+            validateXml(reader);
+        } catch (XMLStreamException e) {
+            throw new InvalidPreferencesFormatException(e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // nothing left to do with the reader
+            }
+        }
+    }
+
+    /**
+     * Checks each element against the one it is in. An element on the stack is
+     * marked once its {@code <map>} or {@code <root>} has been seen.
+     */
+    private void validateXml(XMLStreamReader reader) throws XMLStreamException, InvalidPreferencesFormatException {
+        var elements = new ArrayDeque<String>();
+        var complete = new ArrayDeque<Boolean>();
+        var keys = new HashSet<String>();
+        while (reader.hasNext()) {
+            var event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                var name = reader.getLocalName();
+                var parent = elements.peek();
+                if (parent == null) {
+                    expect(reader, name.equals("preferences"), "Document element must be <preferences>");
+                    checkAttributes(reader, "EXTERNAL_XML_VERSION");
+                    var version = reader.getAttributeValue(null, "EXTERNAL_XML_VERSION");
+                    expect(reader, version == null || version.compareTo(PreferencesXmlReader.EXTERNAL_XML_VERSION) <= 0,
+                            String.format("Preferences XML version %s is newer than %s", version,
+                                    PreferencesXmlReader.EXTERNAL_XML_VERSION));
+                } else if (parent.equals("preferences")) {
+                    expect(reader, name.equals("root") && !complete.peek(),
+                            String.format("<%s> not allowed in <preferences>; expected one <root>", name));
+                    complete.pop();
+                    complete.push(true);
+                    checkAttributes(reader, "type");
+                    var type = requireAttribute(reader, "type");
+                    expect(reader, type.equals("user") || type.equals("system"),
+                            String.format("<root> type must be \"user\" or \"system\" (was \"%s\")", type));
+                } else if (parent.equals("root") || parent.equals("node")) {
+                    if (!complete.peek()) {
+                        expect(reader, name.equals("map"),
+                                String.format("<%s> not allowed in <%s> before its <map>", name, parent));
+                        complete.pop();
+                        complete.push(true);
+                        checkAttributes(reader, "MAP_XML_VERSION");
+                        keys.clear();
+                    } else {
+                        expect(reader, name.equals("node") || (tombstones && name.equals("removed-node")),
+                                String.format("<%s> not allowed in <%s> after its <map>", name, parent));
+                        checkAttributes(reader, "name");
+                        checkName(reader, requireAttribute(reader, "name"));
+                    }
+                } else if (parent.equals("map")) {
+                    expect(reader, name.equals("entry") || (tombstones && name.equals("removed-entry")),
+                            String.format("<%s> not allowed in <map>", name));
+                    if (name.equals("entry")) {
+                        checkAttributes(reader, "key", "value");
+                        checkKey(reader, keys, requireAttribute(reader, "key"));
+                        checkValue(reader, requireAttribute(reader, "value"));
+                    } else {
+                        checkAttributes(reader, "key");
+                        checkKey(reader, keys, requireAttribute(reader, "key"));
+                    }
+                } else {
+                    throw PreferencesXmlReader.invalid(reader,
+                            String.format("<%s> not allowed in <%s>, which must be empty", name, parent));
+                }
+                elements.push(name);
+                complete.push(false);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                var name = elements.pop();
+                if (!complete.pop()) {
+                    if (name.equals("preferences")) {
+                        throw PreferencesXmlReader.invalid(reader, "<preferences> has no <root>");
+                    } else if (name.equals("root") || name.equals("node")) {
+                        throw PreferencesXmlReader.invalid(reader, String.format("<%s> has no <map>", name));
+                    }
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                expect(reader, reader.isWhiteSpace() || reader.getText().isBlank(),
+                        String.format("Text not allowed in <%s>", elements.isEmpty() ? "document" : elements.peek()));
+            }
+        }
+    }
+
+    private static void expect(XMLStreamReader reader, boolean condition, String message)
+            throws InvalidPreferencesFormatException {
+        if (!condition) {
+            throw PreferencesXmlReader.invalid(reader, message);
+        }
+    }
+
+    private static void checkAttributes(XMLStreamReader reader, String... allowed)
+            throws InvalidPreferencesFormatException {
+        for (var i = 0; i < reader.getAttributeCount(); i++) {
+            var attribute = reader.getAttributeLocalName(i);
+            if (!Set.of(allowed).contains(attribute)) {
+                throw PreferencesXmlReader.invalid(reader,
+                        String.format("<%s> has unexpected attribute \"%s\"", reader.getLocalName(), attribute));
+            }
+        }
+    }
+
+    private static String requireAttribute(XMLStreamReader reader, String name)
+            throws InvalidPreferencesFormatException {
+        var value = reader.getAttributeValue(null, name);
+        expect(reader, value != null, String.format("<%s> is missing attribute \"%s\"", reader.getLocalName(), name));
+        return value;
+    }
+
+    private static void checkName(XMLStreamReader reader, String name) throws InvalidPreferencesFormatException {
+        var problem = nameProblem(name);
+        expect(reader, problem == null, problem);
+    }
+
+    private static void checkKey(XMLStreamReader reader, Set<String> keys, String key)
+            throws InvalidPreferencesFormatException {
+        var problem = keyProblem(keys, key);
+        expect(reader, problem == null, problem);
+    }
+
+    private static void checkValue(XMLStreamReader reader, String value) throws InvalidPreferencesFormatException {
+        var problem = valueProblem(value);
+        expect(reader, problem == null, problem);
+    }
+
+    /**
+     * @return what is wrong with a node name, or {@code null} if nothing is.
+     */
+    private static String nameProblem(String name) {
+        if (name.isEmpty()) {
+            return "Node name is empty";
+        } else if (name.indexOf('/') != -1) {
+            return String.format("Node name \"%s\" contains '/'", name);
+        } else if (name.length() > Preferences.MAX_NAME_LENGTH) {
+            return String.format("Node name \"%s...\" is longer than %d characters", name.substring(0, 20),
+                    Preferences.MAX_NAME_LENGTH);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the key to the keys of the node.
+     *
+     * @return what is wrong with the key, or {@code null} if nothing is.
+     */
+    private static String keyProblem(Set<String> keys, String key) {
+        if (key.length() > Preferences.MAX_KEY_LENGTH) {
+            return String.format("Key \"%s...\" is longer than %d characters", key.substring(0, 20),
+                    Preferences.MAX_KEY_LENGTH);
+        } else if (!keys.add(key)) {
+            return String.format("Duplicate key \"%s\"", key);
+        }
+        return null;
+    }
+
+    /**
+     * @return what is wrong with a value, or {@code null} if nothing is.
+     */
+    private static String valueProblem(String value) {
+        if (value.length() > Preferences.MAX_VALUE_LENGTH) {
+            return String.format("Value is longer than %d characters", Preferences.MAX_VALUE_LENGTH);
+        }
+        return null;
+    }
+
+    /**
+     * Checks names, keys and values as a reader reports them.
+     */
+    private static final class Checker implements PreferencesHandler {
+
+        private final boolean tombstones;
+
+        private final Supplier<String> location;
+
+        private final Set<String> keys = new HashSet<>();
+
+        private String path;
+
+        Checker(boolean tombstones, Supplier<String> location) {
+            this.tombstones = tombstones;
+            this.location = location;
+        }
+
+        @Override
+        public void startRoot(String type) {
+        }
+
+        @Override
+        public void startNode(String path) {
+            this.path = path;
+            checkPath(path);
+            keys.clear();
+        }
+
+        @Override
+        public void entry(String key, String value) {
+            check(keyProblem(keys, key));
+            check(valueProblem(value));
+        }
+
+        @Override
+        public void removeKey(String key) {
+            check(tombstones ? null : "Only a delta can remove keys");
+            check(keyProblem(keys, key));
+        }
+
+        @Override
+        public void endNode(String path) {
+        }
+
+        @Override
+        public void removeNode(String path) {
+            this.path = path;
+            check(tombstones ? null : "Only a delta can remove nodes");
+            checkPath(path);
+        }
+
+        @Override
+        public void endRoot(String type) {
+        }
+
+        @Override
+        public void endDocument() {
+        }
+
+        private void checkPath(String path) {
+            if (!path.equals("/")) {
+                for (var name : path.substring(1).split("/", -1)) {
+                    check(nameProblem(name));
+                }
+            }
+        }
+
+        private void check(String problem) {
+            if (problem != null) {
+                throw new Problem(String.format("%s (%s)", problem,
+                        location == null ? String.format("node %s", path) : location.get()));
+            }
+        }
+    }
+
+    /**
+     * Carries a problem found by the checker out of the reader.
+     */
+    private static final class Problem extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Problem(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Command line access to validating a Preferences document.
+     *
+     * <P>
+     * Syntax for invoking this utility is:
+     *
+     * <PRE>
+     * <CODE>java [options] \
+     *     com.github.argherna.preftool.PreferencesValidator [options]</CODE>
+     * </PRE>
+     *
+     * <P>
+     * If the document is valid, its format is printed to {@link System#out}.
+     * Otherwise the first problem is printed to {@link System#err} and the exit
+     * status is <CODE>1</CODE>.
+     *
+     * <P>
+     * The command line options used are:
+     * <DL>
+     * <DT><CODE>-i &lt;prefs-xml-file&gt;</CODE>
+     * <DD>Input file to read the document from. If not set, the document is read
+     * from {@link System#in}. Input compressed with gzip or deflate is
+     * decompressed. Binary snapshots and NDJSON are checked too.
+     * <DT><CODE>--delta</CODE>
+     * <DD>Accept the tombstones of a delta exported with
+     * <CODE>ExportPreferences -b</CODE>.
+     * </DL>
+     *
+     * <P>
+     * The system properties you can set are:
+     * <DL>
+     * <DT><CODE>com.github.argherna.preftool.dryRun</CODE>
+     * <DD>If <CODE>true</CODE>, do not read the document but print the name of the
+     * class and the options and exit with status <CODE>2</CODE>.
+     * </DL>
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+
+        var instream = System.in;
+        var filename = "";
+        var delta = false;
+
+        var argsCount = 0;
+        var nextArgIsOptionValue = false;
+
+        while (argsCount < args.length) {
+            var arg = args[argsCount];
+            if (arg.equals("-i")) {
+                nextArgIsOptionValue = true;
+            } else if (arg.equals("--delta")) {
+                delta = true;
+            } else if (nextArgIsOptionValue) {
+                nextArgIsOptionValue = false;
+                filename = arg;
+            } else {
+                System.err.printf("Unsupported arg \"%s\"%n", arg);
+                usage();
+                System.exit(1);
+            }
+            argsCount++;
+        }
+
+        if (nextArgIsOptionValue) {
+            System.err.printf("Missing value for \"%s\"%n", args[args.length - 1]);
+            usage();
+            System.exit(1);
+        }
+
+        var fname = (filename.isBlank()) ? "<System.in>" : filename;
+        if (DRY_RUN) {
+            System.err.printf("%s Dry Run:filename=%s,delta=%b%n", PreferencesValidator.class.getName(), fname,
+                    delta);
+            System.exit(2);
+        }
+
+        try {
+            if (!filename.isBlank()) {
+                instream = FileChannels.newInputStream(Path.of(filename));
+            }
+            try (var in = instream) {
+                var format = new PreferencesValidator(delta).validate(in);
+                System.out.printf("%s: valid %s%n", fname, format);
+            }
+        } catch (InvalidPreferencesFormatException e) {
+            System.err.printf("%s: %s%n", fname, e.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints a usage message to {@link System#err}.
+     */
+    private static void usage() {
+        System.err.printf("Usage: %s [-i prefs-xml-file] [--delta]%n", PreferencesValidator.class.getName());
+    }
+}
@@ -0,0 +1,242 @@
+package com.github.argherna.preftool;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Walks a live Preferences node, or the subtree under it, and reports its
+ * contents to a {@link PreferencesHandler}.
+ *
+ * <P>
+ * Nodes are visited parents first with children in name order, and each node's
+ * keys are reported in name order from a single {@link NodeSnapshot}, so only
+ * one node's keys are held at a time. The walk is iterative and no lock is
+ * held on the tree between nodes.
+ *
+ * <P>
+ * With a parallelism greater than 1, nodes are read on a fork-join pool ahead
+ * of the handler: as soon as a node has been read, reads of all of its children
+ * are started. The handler is still called on the walking thread, in the same
+ * order as a sequential walk, so its output doesn't depend on the parallelism.
+ * Reads never get further ahead than the children of the nodes on the path
+ * being reported.
+ *
+ * <P>
+ * A {@link PreferencesFilter} is applied while walking: a child is checked
+ * before it is read, so skipped subtrees are never visited, and keys that
+ * aren't accepted are never read. Nodes that are visited only to reach their
+ * descendants aren't reported.
+ */
+public class PreferencesWalker {
+
+    private final Preferences preferences;
+
+    private final boolean subtree;
+
+    private final int parallelism;
+
+    private final PreferencesFilter filter;
+
+    /**
+     * Constructs a PreferencesWalker that reads on the calling thread.
+     *
+     * @param preferences the node to start from.
+     * @param subtree     if {@code true}, walk the whole subtree under the node,
+     *                    otherwise report the node only.
+     * @throws NullPointerException if preferences is null.
+     */
+    public PreferencesWalker(Preferences preferences, boolean subtree) {
+        this(preferences, subtree, 1);
+    }
+
+    /**
+     * Constructs a PreferencesWalker.
+     *
+     * @param preferences the node to start from.
+     * @param subtree     if {@code true}, walk the whole subtree under the node,
+     *                    otherwise report the node only.
+     * @param parallelism the number of threads reading nodes.
+     * @throws NullPointerException     if preferences is null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public PreferencesWalker(Preferences preferences, boolean subtree, int parallelism) {
+        this(preferences, subtree, parallelism, PreferencesFilter.ACCEPT_ALL);
+    }
+
+    /**
+     * Constructs a PreferencesWalker that reports only the nodes and keys
+     * accepted by a filter.
+     *
+     * @param preferences the node to start from.
+     * @param subtree     if {@code true}, walk the whole subtree under the node,
+     *                    otherwise report the node only.
+     * @param parallelism the number of threads reading nodes.
+     * @param filter      selects the nodes and keys to report.
+     * @throws NullPointerException     if preferences or filter are null.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public PreferencesWalker(Preferences preferences, boolean subtree, int parallelism, PreferencesFilter filter) {
+        this.preferences = Objects.requireNonNull(preferences, "Preferences to walk cannot be null!");
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Parallelism must be at least 1 (was given %d)", parallelism));
+        }
+        this.subtree = subtree;
+        this.parallelism = parallelism;
+        this.filter = Objects.requireNonNull(filter, "Filter cannot be null!");
+    }
+
+    /**
+     * Walks the node and reports it to the handler, wrapped in
+     * {@link PreferencesHandler#startRoot(String)} and
+     * {@link PreferencesHandler#endRoot(String)} for the node's root.
+     *
+     * @param handler the handler to report to.
+     * @throws IOException           if the handler throws an IOException.
+     * @throws BackingStoreException if a BackingStoreException is thrown reading
+     *                               the tree or by the handler.
+     */
+    public void walk(PreferencesHandler handler) throws IOException, BackingStoreException {
+        var type = rootType(preferences);
+        handler.startRoot(type);
+        if (!filter.visits("")) {
+            // the starting node is excluded
+        } else if (parallelism == 1 || !subtree) {
+            walkSequentially(handler);
+        } else {
+            walkInParallel(handler);
+        }
+        handler.endRoot(type);
+    }
+
+    private void walkSequentially(PreferencesHandler handler) throws IOException, BackingStoreException {
+        var pending = new ArrayDeque<Preferences>();
+        pending.push(preferences);
+        while (!pending.isEmpty()) {
+            var node = pending.pop();
+            var path = node.absolutePath();
+            if (filter.acceptsNode(relativePath(path))) {
+                report(PreferencesUtilities.snapshot(node, filter::acceptsKey), handler);
+            }
+            if (subtree) {
+                var childrenNames = node.childrenNames();
+                Arrays.sort(childrenNames);
+                for (var i = childrenNames.length - 1; i >= 0; i--) {
+                    if (filter.visits(relativePath(PreferencesUtilities.childPath(path, childrenNames[i])))) {
+                        pending.push(node.node(childrenNames[i]));
+                    }
+                }
+            }
+        }
+    }
+
+    private void walkInParallel(PreferencesHandler handler) throws IOException, BackingStoreException {
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            var pending = new ArrayDeque<CompletableFuture<NodeRead>>();
+            pending.push(read(preferences, pool));
+            while (!pending.isEmpty()) {
+                NodeRead node;
+                try {
+                    node = pending.pop().join();
+                } catch (CompletionException e) {
+                    throw PreferencesUtilities.unwrap(e);
+                }
+                var reads = new ArrayList<CompletableFuture<NodeRead>>(node.children.size());
+                for (var child : node.children) {
+                    reads.add(read(child, pool));
+                }
+                if (node.snapshot != null) {
+                    report(node.snapshot, handler);
+                }
+                for (var i = reads.size() - 1; i >= 0; i--) {
+                    pending.push(reads.get(i));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts reading a node's keys and children on the pool.
+     */
+    private CompletableFuture<NodeRead> read(Preferences node, ForkJoinPool pool) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                var path = node.absolutePath();
+                var childrenNames = node.childrenNames();
+                Arrays.sort(childrenNames);
+                var children = new ArrayList<Preferences>(childrenNames.length);
+                for (var childName : childrenNames) {
+                    if (filter.visits(relativePath(PreferencesUtilities.childPath(path, childName)))) {
+                        children.add(node.node(childName));
+                    }
+                }
+                var snapshot = filter.acceptsNode(relativePath(path))
+                        ? PreferencesUtilities.snapshot(node, filter::acceptsKey)
+                        : null;
+                return new NodeRead(snapshot, children);
+            } catch (BackingStoreException e) {
+                throw new CompletionException(e);
+            }
+        }, pool);
+    }
+
+    private String relativePath(String absolutePath) {
+        return PreferencesFilter.relativePath(preferences.absolutePath(), absolutePath);
+    }
+
+    /**
+     * Reports one node and its keys to a handler.
+     *
+     * @param snapshot the node's keys and values.
+     * @param handler  the handler to report to.
+     * @throws IOException           if the handler throws an IOException.
+     * @throws BackingStoreException if the handler throws a
+     *                               BackingStoreException.
+     */
+    static void report(NodeSnapshot snapshot, PreferencesHandler handler) throws IOException, BackingStoreException {
+        var path = snapshot.getAbsolutePath();
+        handler.startNode(path);
+        for (var i = 0; i < snapshot.size(); i++) {
+            handler.entry(snapshot.getKey(i), snapshot.getValue(i));
+        }
+        handler.endNode(path);
+    }
+
+    /**
+     * Returns the root type of the given node as used in Preferences documents.
+     *
+     * @param preferences the node.
+     * @return {@code "user"} or {@code "system"}.
+     */
+    static String rootType(Preferences preferences) {
+        return preferences.isUserNode() ? "user" : "system";
+    }
+
+    /**
+     * A node's keys, or {@code null} if it isn't reported, and its children to
+     * visit, read ahead of being reported.
+     */
+    private static final class NodeRead {
+
+        private final NodeSnapshot snapshot;
+
+        private final List<Preferences> children;
+
+        NodeRead(NodeSnapshot snapshot, List<Preferences> children) {
+            this.snapshot = snapshot;
+            this.children = children;
+        }
+    }
+}
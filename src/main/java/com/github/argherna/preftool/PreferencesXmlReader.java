@@ -0,0 +1,207 @@
+package com.github.argherna.preftool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+import java.util.prefs.Preferences;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads a Preferences XML document with a streaming (StAX) parser and reports
+ * its contents to a {@link PreferencesHandler} as they are parsed.
+ *
+ * <P>
+ * Unlike {@link Preferences#importPreferences(InputStream)}, the document is
+ * never built in memory; only the path of the node being read is kept. The
+ * document type declaration is not loaded.
+ *
+ * <P>
+ * The {@code <removed-entry>} and {@code <removed-node>} elements written for
+ * the tombstones of a delta by {@link PreferencesXmlWriter} are reported as
+ * {@link PreferencesHandler#removeKey(String)} and
+ * {@link PreferencesHandler#removeNode(String)}, unless the reader is
+ * constructed to accept only what the Preferences DTD allows.
+ *
+ * @see <a href="https://docs.oracle.com/en/java/javase/14/docs/api/java.prefs/java/util/prefs/Preferences.html">Preferences DTD</a>
+ */
+public class PreferencesXmlReader {
+
+    /** Highest version of the Preferences XML format that can be read. */
+    static final String EXTERNAL_XML_VERSION = "1.0";
+
+    static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+    private final boolean tombstones;
+
+    /**
+     * Constructs a PreferencesXmlReader that reads documents and deltas.
+     */
+    public PreferencesXmlReader() {
+        this(true);
+    }
+
+    /**
+     * Constructs a PreferencesXmlReader.
+     *
+     * @param tombstones if {@code false}, the {@code <removed-entry>} and
+     *                   {@code <removed-node>} elements of a delta are rejected
+     *                   like any other element the Preferences DTD doesn't
+     *                   allow.
+     */
+    public PreferencesXmlReader(boolean tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Reads the document and reports its contents to the handler. The stream is
+     * not closed.
+     *
+     * @param inputStream the stream to read the document from.
+     * @param handler     the handler to report to.
+     * @throws InvalidPreferencesFormatException if the document isn't well formed
+     *                                           or isn't a Preferences document.
+     * @throws IOException                       if an IOException occurs.
+     * @throws BackingStoreException             if the handler throws a
+     *                                           BackingStoreException.
+     */
+    public void read(InputStream inputStream, PreferencesHandler handler)
+            throws InvalidPreferencesFormatException, IOException, BackingStoreException {
+        XMLStreamReader reader;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+        } catch (XMLStreamException e) {
+            throw new InvalidPreferencesFormatException(e);
+        }
+
+        try {
+            read(reader, handler);
+        } catch (XMLStreamException e) {
+            throw new InvalidPreferencesFormatException(e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // nothing left to do with the reader
+            }
+        }
+    }
+
+    private void read(XMLStreamReader reader, PreferencesHandler handler)
+            throws XMLStreamException, InvalidPreferencesFormatException, IOException, BackingStoreException {
+        var paths = new ArrayDeque<String>();
+        String rootType = null;
+        while (reader.hasNext()) {
+            var event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "preferences":
+                        checkVersion(reader);
+                        break;
+                    case "root":
+                        rootType = requireAttribute(reader, "type");
+                        handler.startRoot(rootType);
+                        paths.push("/");
+                        break;
+                    case "node":
+                        paths.push(PreferencesUtilities.childPath(currentPath(reader, paths),
+                                requireAttribute(reader, "name")));
+                        break;
+                    case "map":
+                        handler.startNode(currentPath(reader, paths));
+                        break;
+                    case "entry":
+                        handler.entry(requireAttribute(reader, "key"), requireAttribute(reader, "value"));
+                        break;
+                    case "removed-entry":
+                        requireTombstones(reader);
+                        handler.removeKey(requireAttribute(reader, "key"));
+                        break;
+                    case "removed-node":
+                        requireTombstones(reader);
+                        handler.removeNode(PreferencesUtilities.childPath(currentPath(reader, paths),
+                                requireAttribute(reader, "name")));
+                        break;
+                    default:
+                        throw invalid(reader, String.format("Unexpected element <%s>", reader.getLocalName()));
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "root":
+                        paths.pop();
+                        handler.endRoot(rootType);
+                        break;
+                    case "node":
+                        paths.pop();
+                        break;
+                    case "map":
+                        handler.endNode(paths.peek());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        handler.endDocument();
+    }
+
+    /**
+     * Throws an InvalidPreferencesFormatException if the document's format is
+     * newer than this reader understands, the same way
+     * {@link Preferences#importPreferences(InputStream)} does.
+     */
+    private void checkVersion(XMLStreamReader reader) throws InvalidPreferencesFormatException {
+        var version = reader.getAttributeValue(null, "EXTERNAL_XML_VERSION");
+        if (version != null && version.compareTo(EXTERNAL_XML_VERSION) > 0) {
+            throw new InvalidPreferencesFormatException(String.format(
+                    "Exported preferences file format version %s is not supported. This java installation can read versions %s or older.",
+                    version, EXTERNAL_XML_VERSION));
+        }
+    }
+
+    private void requireTombstones(XMLStreamReader reader) throws InvalidPreferencesFormatException {
+        if (!tombstones) {
+            throw invalid(reader, String.format("Unexpected element <%s>; only a delta can remove %s",
+                    reader.getLocalName(), reader.getLocalName().equals("removed-entry") ? "keys" : "nodes"));
+        }
+    }
+
+    private String currentPath(XMLStreamReader reader, ArrayDeque<String> paths)
+            throws InvalidPreferencesFormatException {
+        if (paths.isEmpty()) {
+            throw invalid(reader, String.format("<%s> is not inside a <root>", reader.getLocalName()));
+        }
+        return paths.peek();
+    }
+
+    private String requireAttribute(XMLStreamReader reader, String name) throws InvalidPreferencesFormatException {
+        var value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            throw invalid(reader, String.format("<%s> is missing attribute \"%s\"", reader.getLocalName(), name));
+        }
+        return value;
+    }
+
+    /**
+     * Returns an InvalidPreferencesFormatException whose message includes where in
+     * the document the problem is.
+     */
+    static InvalidPreferencesFormatException invalid(XMLStreamReader reader, String message) {
+        var location = reader.getLocation();
+        return new InvalidPreferencesFormatException(String.format("%s (line %d, column %d)", message,
+                location.getLineNumber(), location.getColumnNumber()));
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        var factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory;
+    }
+}
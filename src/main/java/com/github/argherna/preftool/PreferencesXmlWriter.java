@@ -0,0 +1,283 @@
+package com.github.argherna.preftool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A PreferencesHandler that writes what it is handed as a Preferences XML
+ * document, laid out the same way {@link java.util.prefs.Preferences#exportSubtree(OutputStream)}
+ * lays it out.
+ *
+ * <P>
+ * The document is written as events arrive; only the names of the enclosing
+ * nodes are kept. Ancestors of a reported node that weren't reported
+ * themselves are written with empty maps, as an export of a single node
+ * writes them.
+ *
+ * <P>
+ * Tombstones in a delta are written as {@code <removed-entry key="..."/>}
+ * elements in a node's map and {@code <removed-node name="..."/>} elements
+ * after it, alongside the node's children. Documents with tombstones don't
+ * conform to the Preferences DTD and can only be read by
+ * {@link PreferencesXmlReader}.
+ *
+ * <P>
+ * The DTD allows one root per document, so one root can be written per
+ * instance. The output stream is flushed but not closed when the root or the
+ * document ends.
+ *
+ * @see PreferencesXmlReader
+ */
+public class PreferencesXmlWriter implements PreferencesHandler {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+
+    private final List<String> openNodes = new ArrayList<>();
+
+    private String rootType;
+
+    private boolean rootEnded;
+
+    private boolean rootMapWritten;
+
+    private int mapLevel;
+
+    private int entries;
+
+    /**
+     * Constructs a PreferencesXmlWriter.
+     *
+     * @param outputStream the stream to write the UTF-8 encoded document to.
+     * @throws NullPointerException if outputStream is null.
+     */
+    public PreferencesXmlWriter(OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(
+                Objects.requireNonNull(outputStream, "Export OutputStream cannot be null!"), UTF_8), BUFFER_SIZE);
+    }
+
+    @Override
+    public void startRoot(String type) throws IOException {
+        if (rootType != null) {
+            throw new IllegalStateException(
+                    String.format("A Preferences XML document can only have one root (already wrote %s)", rootType));
+        }
+        rootType = type;
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+        writer.write("<!DOCTYPE preferences SYSTEM \"http://java.sun.com/dtd/preferences.dtd\">\n");
+        writer.write("<preferences EXTERNAL_XML_VERSION=\"" + PreferencesXmlReader.EXTERNAL_XML_VERSION + "\">\n");
+        writer.write("  <root type=\"");
+        writeEscaped(type);
+        writer.write("\">\n");
+    }
+
+    @Override
+    public void startNode(String path) throws IOException {
+        if (rootType == null) {
+            startRoot("user");
+        }
+        if (rootEnded) {
+            throw new IllegalStateException("Root has already been written");
+        }
+        var segments = NodeResolver.segments(path);
+        if (segments.length == 0) {
+            if (rootMapWritten) {
+                throw new IllegalStateException("Root node can only be written once");
+            }
+        } else if (!rootMapWritten) {
+            writeEmptyMap(2);
+            rootMapWritten = true;
+        }
+
+        var common = 0;
+        while (common < openNodes.size() && common < segments.length
+                && openNodes.get(common).equals(segments[common])) {
+            common++;
+        }
+        if (common == segments.length && common > 0) {
+            // the node is already open and has its map; write it again as a sibling
+            common--;
+        }
+        closeNodes(common);
+        for (var i = common; i < segments.length; i++) {
+            indent(2 + i);
+            writer.write("<node name=\"");
+            writeEscaped(segments[i]);
+            writer.write("\">\n");
+            openNodes.add(segments[i]);
+            if (i < segments.length - 1) {
+                writeEmptyMap(3 + i);
+            }
+        }
+        mapLevel = 2 + segments.length;
+        entries = 0;
+    }
+
+    @Override
+    public void entry(String key, String value) throws IOException {
+        startEntry();
+        writer.write("<entry key=\"");
+        writeEscaped(key);
+        writer.write("\" value=\"");
+        writeEscaped(value);
+        writer.write("\"/>\n");
+    }
+
+    @Override
+    public void removeKey(String key) throws IOException {
+        startEntry();
+        writer.write("<removed-entry key=\"");
+        writeEscaped(key);
+        writer.write("\"/>\n");
+    }
+
+    @Override
+    public void removeNode(String path) throws IOException {
+        var segments = NodeResolver.segments(path);
+        if (segments.length == 0) {
+            throw new IllegalArgumentException("Root node can't be removed");
+        }
+        openParent(segments);
+        indent(2 + segments.length - 1);
+        writer.write("<removed-node name=\"");
+        writeEscaped(segments[segments.length - 1]);
+        writer.write("\"/>\n");
+    }
+
+    /**
+     * Makes the parent of the node with the given path the innermost open node,
+     * opening it and its ancestors with empty maps if they aren't open.
+     */
+    private void openParent(String[] segments) throws IOException {
+        if (rootType == null) {
+            startRoot("user");
+        }
+        if (rootEnded) {
+            throw new IllegalStateException("Root has already been written");
+        }
+        if (!rootMapWritten) {
+            writeEmptyMap(2);
+            rootMapWritten = true;
+        }
+        var depth = segments.length - 1;
+        var common = 0;
+        while (common < openNodes.size() && common < depth && openNodes.get(common).equals(segments[common])) {
+            common++;
+        }
+        closeNodes(common);
+        for (var i = common; i < depth; i++) {
+            indent(2 + i);
+            writer.write("<node name=\"");
+            writeEscaped(segments[i]);
+            writer.write("\">\n");
+            openNodes.add(segments[i]);
+            writeEmptyMap(3 + i);
+        }
+    }
+
+    private void startEntry() throws IOException {
+        if (entries++ == 0) {
+            indent(mapLevel);
+            writer.write("<map>\n");
+        }
+        indent(mapLevel + 1);
+    }
+
+    @Override
+    public void endNode(String path) throws IOException {
+        if (entries == 0) {
+            writeEmptyMap(mapLevel);
+        } else {
+            indent(mapLevel);
+            writer.write("</map>\n");
+        }
+        if (mapLevel == 2) {
+            rootMapWritten = true;
+        }
+    }
+
+    @Override
+    public void endRoot(String type) throws IOException {
+        if (rootType == null) {
+            startRoot(type);
+        }
+        if (!rootMapWritten) {
+            writeEmptyMap(2);
+            rootMapWritten = true;
+        }
+        closeNodes(0);
+        writer.write("  </root>\n");
+        writer.write("</preferences>\n");
+        writer.flush();
+        rootEnded = true;
+    }
+
+    @Override
+    public void endDocument() throws IOException {
+        writer.flush();
+    }
+
+    private void closeNodes(int depth) throws IOException {
+        while (openNodes.size() > depth) {
+            openNodes.remove(openNodes.size() - 1);
+            indent(2 + openNodes.size());
+            writer.write("</node>\n");
+        }
+    }
+
+    private void writeEmptyMap(int level) throws IOException {
+        indent(level);
+        writer.write("<map/>\n");
+    }
+
+    private void indent(int level) throws IOException {
+        for (var i = 0; i < level; i++) {
+            writer.write("  ");
+        }
+    }
+
+    /**
+     * Writes text escaped for use in a double quoted attribute value. Line breaks
+     * and tabs are written as character references so they survive attribute
+     * value normalization when the document is read back.
+     */
+    private void writeEscaped(String text) throws IOException {
+        var start = 0;
+        for (var i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    replacement = c < 0x20 ? "&#" + (int) c + ";" : null;
+                    break;
+            }
+            if (replacement != null) {
+                writer.write(text, start, i - start);
+                writer.write(replacement);
+                start = i + 1;
+            }
+        }
+        writer.write(text, start, text.length() - start);
+    }
+}
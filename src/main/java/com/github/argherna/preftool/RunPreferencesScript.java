@@ -0,0 +1,419 @@
+package com.github.argherna.preftool;
+
+import static com.github.argherna.preftool.Constants.DRY_RUN;
+import static com.github.argherna.preftool.Constants.SUPPRESS_FLUSH;
+import static com.github.argherna.preftool.Constants.SYSTEM_ROOT;
+import static java.lang.System.Logger.Level.INFO;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Invoked to run a script of operations, one per line, in one process.
+ *
+ * <P>
+ * Each line names one of the command line tools and gives its arguments, as
+ * they would be given on the command line:
+ *
+ * <PRE>
+ * <CODE>AddPreferencesKey [-c &lt;valueclass&gt;] &lt;nodename&gt; &lt;keyname&gt; &lt;value&gt;
+ * RemovePreferencesKey &lt;nodename&gt; &lt;keyname&gt;
+ * AddPreferencesNode &lt;nodename&gt;
+ * RemovePreferencesNode &lt;nodename&gt;
+ * ExportPreferences [-t] [-o &lt;file&gt;] [-f &lt;format&gt;] [-z &lt;compression&gt;] &lt;nodename&gt;...
+ * ImportPreferences -i &lt;file&gt; [--delta] [--skip-unchanged]
+ * checkpoint</CODE>
+ * </PRE>
+ *
+ * Arguments are separated by spaces or tabs. An argument holding spaces can be
+ * quoted with {@code "} (in which {@code \} escapes the next character) or
+ * {@code '}. Empty lines and lines starting with {@code #} are skipped. Node
+ * names can be prefixed with <CODE>User:</CODE> or <CODE>System:</CODE>.
+ *
+ * <P>
+ * Each node is looked up once no matter how many lines name it, until it is
+ * removed. Nodes changed by adding and removing keys and nodes are flushed
+ * once, at a {@code checkpoint} line or at the end of the script; a node is not
+ * flushed on its own if an affected ancestor's flush already covers it.
+ * Imports are written in batches and flushed as they go. The script stops at
+ * the first line that fails, after flushing what the lines before it changed.
+ *
+ * @see AddPreferencesKeys
+ */
+public class RunPreferencesScript implements Callable<Integer> {
+
+    private static final System.Logger LOGGER = System.getLogger(RunPreferencesScript.class.getName());
+
+    /** The number of nodes imports write between flushes. */
+    private static final int IMPORT_BATCH_SIZE = 1000;
+
+    private final BufferedReader reader;
+
+    private final boolean systemRoot;
+
+    private final boolean flush;
+
+    private final Map<String, Preferences> nodes = new HashMap<>();
+
+    private final Set<Preferences> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private int lineNumber;
+
+    /**
+     * Constructs a RunPreferencesScript instance that runs the operations read
+     * from a reader, one per line. The reader is not closed.
+     *
+     * @param reader     the reader to read operations from.
+     * @param systemRoot if {@code true}, node names without a prefix are under the
+     *                   system root, otherwise they are under the user root.
+     * @param flush      if {@code true}, flush the affected nodes at checkpoints
+     *                   and at the end.
+     * @throws NullPointerException if reader is null.
+     */
+    public RunPreferencesScript(BufferedReader reader, boolean systemRoot, boolean flush) {
+        this.reader = Objects.requireNonNull(reader, "Reader cannot be null!");
+        this.systemRoot = systemRoot;
+        this.flush = flush;
+    }
+
+    /**
+     * Runs the operations.
+     *
+     * @return the number of operations run, not counting checkpoints.
+     * @throws IOException              if an IOException is thrown reading the
+     *                                  script.
+     * @throws BackingStoreException    if a BackingStoreException is thrown
+     *                                  flushing.
+     * @throws IllegalArgumentException if a line is malformed.
+     * @throws IllegalStateException    if an operation fails.
+     */
+    @Override
+    public Integer call() throws IOException, BackingStoreException {
+        var count = 0;
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.strip().startsWith("#")) {
+                    continue;
+                }
+                if (run(line)) {
+                    count++;
+                }
+            }
+        } catch (RuntimeException | IOException e) {
+            try {
+                flush();
+            } catch (BackingStoreException | RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        flush();
+        LOGGER.log(INFO, "Ran {0} operations", count);
+        return count;
+    }
+
+    /**
+     * Runs the operation on a line.
+     *
+     * @return {@code false} if the operation was a checkpoint.
+     * @throws IllegalArgumentException if the line is malformed.
+     * @throws IllegalStateException    if the operation fails.
+     */
+    private boolean run(String line) {
+        var operation = "";
+        try {
+            var words = split(line);
+            operation = words.get(0);
+            var args = words.subList(1, words.size());
+            switch (operation) {
+                case "AddPreferencesKey":
+                    addKey(args);
+                    return true;
+                case "RemovePreferencesKey":
+                    expect(args.size() == 2, "<nodename> <keyname>");
+                    var preferences = node(args.get(0));
+                    preferences.remove(args.get(1));
+                    affected.add(preferences);
+                    return true;
+                case "AddPreferencesNode":
+                    expect(args.size() == 1, "<nodename>");
+                    affected.add(node(args.get(0)));
+                    return true;
+                case "RemovePreferencesNode":
+                    expect(args.size() == 1, "<nodename>");
+                    var removed = node(args.get(0));
+                    var parent = removed.parent();
+                    expect(parent != null, "<nodename> other than a root");
+                    removed.removeNode();
+                    affected.add(parent);
+                    return true;
+                case "ExportPreferences":
+                    export(args);
+                    return true;
+                case "ImportPreferences":
+                    importFile(args);
+                    return true;
+                case "checkpoint":
+                    expect(args.isEmpty(), "no arguments");
+                    flush();
+                    return false;
+                default:
+                    throw new IllegalArgumentException(String.format("unknown operation \"%s\"", operation));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Line %d: %s", lineNumber, e.getMessage()), e);
+        } catch (Exception e) {
+            throw new IllegalStateException(String.format("Line %d: %s failed: %s", lineNumber, operation, e), e);
+        }
+    }
+
+    private void addKey(List<String> args) throws BackingStoreException {
+        Class<?> type = String.class;
+        var i = 0;
+        if (args.size() == 5 && args.get(0).equals("-c")) {
+            type = AddPreferencesKey.checkClassType(args.get(1));
+            i = 2;
+        }
+        expect(args.size() - i == 3, "[-c <valueclass>] <nodename> <keyname> <value>");
+        var preferences = node(args.get(i));
+        AddPreferencesKey.put(preferences, args.get(i + 1), type, args.get(i + 2));
+        affected.add(preferences);
+    }
+
+    private void export(List<String> args) throws Exception {
+        var nodeOnly = true;
+        var filename = "";
+        PreferencesFormat format = null;
+        Compression compression = null;
+        var exported = new ArrayList<Preferences>();
+        for (var i = 0; i < args.size(); i++) {
+            var arg = args.get(i);
+            if (arg.equals("-t")) {
+                nodeOnly = false;
+            } else if (arg.equals("-o") || arg.equals("-f") || arg.equals("-z")) {
+                expect(i + 1 < args.size(), String.format("a value for %s", arg));
+                var value = args.get(++i);
+                if (arg.equals("-o")) {
+                    filename = value;
+                } else if (arg.equals("-f")) {
+                    format = PreferencesFormat.forName(value);
+                } else {
+                    compression = Compression.forName(value);
+                }
+            } else {
+                exported.add(node(arg));
+            }
+        }
+        expect(!exported.isEmpty(), "[-t] [-o <file>] [-f <format>] [-z <compression>] <nodename>...");
+        if (format == null) {
+            format = filename.isBlank() ? PreferencesFormat.XML : PreferencesFormat.forFileName(filename);
+        }
+        if (compression == null) {
+            compression = filename.isBlank() ? Compression.NONE : Compression.forFileName(filename);
+        }
+        if (filename.isBlank()) {
+            new ExportPreferences(exported, System.out, nodeOnly, 1, compression, format, null,
+                    PreferencesFilter.ACCEPT_ALL).call();
+            return;
+        }
+        try (OutputStream out = FileChannels.newOutputStream(Path.of(filename))) {
+            new ExportPreferences(exported, out, nodeOnly, 1, compression, format, null,
+                    PreferencesFilter.ACCEPT_ALL).call();
+        }
+    }
+
+    private void importFile(List<String> args) throws Exception {
+        var filename = "";
+        var delta = false;
+        var skipUnchanged = false;
+        for (var i = 0; i < args.size(); i++) {
+            var arg = args.get(i);
+            if (arg.equals("-i") && i + 1 < args.size()) {
+                filename = args.get(++i);
+            } else if (arg.equals("--delta")) {
+                delta = true;
+            } else if (arg.equals("--skip-unchanged")) {
+                skipUnchanged = true;
+            } else {
+                filename = "";
+                break;
+            }
+        }
+        expect(!filename.isBlank(), "-i <file> [--delta] [--skip-unchanged]");
+        try (var in = FileChannels.newInputStream(Path.of(filename))) {
+            new ImportPreferences(in, delta, 1, IMPORT_BATCH_SIZE, skipUnchanged, null).call();
+        }
+    }
+
+    /**
+     * Returns the node with the given address, creating it if it doesn't exist and
+     * looking it up again only if it has been removed.
+     */
+    private Preferences node(String address) throws BackingStoreException {
+        var preferences = nodes.get(address);
+        if (preferences == null || !preferences.nodeExists("")) {
+            preferences = PreferencesUtilities.getPreferences(address, systemRoot);
+            nodes.put(address, preferences);
+        }
+        return preferences;
+    }
+
+    /**
+     * Flushes the nodes changed since the last flush. Nodes removed since they
+     * were changed are left out; their removal is flushed with their parent.
+     */
+    private void flush() throws BackingStoreException {
+        if (!flush || affected.isEmpty()) {
+            affected.clear();
+            return;
+        }
+        Set<Preferences> existing = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (var preferences : affected) {
+            if (preferences.nodeExists("")) {
+                existing.add(preferences);
+            }
+        }
+        affected.clear();
+        for (var preferences : AddPreferencesKeys.flushRoots(existing)) {
+            LOGGER.log(INFO, "Flushing {0}", preferences);
+            preferences.flush();
+        }
+    }
+
+    private static void expect(boolean condition, String usage) {
+        if (!condition) {
+            throw new IllegalArgumentException(String.format("expected %s", usage));
+        }
+    }
+
+    /**
+     * Splits a line into arguments at spaces and tabs, keeping quoted text
+     * together.
+     */
+    static List<String> split(String line) {
+        var args = new ArrayList<String>();
+        var arg = new StringBuilder();
+        var inArg = false;
+        for (var i = 0; i < line.length(); i++) {
+            var c = line.charAt(i);
+            if (c == ' ' || c == '\t') {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else if (c == '\'' || c == '"') {
+                inArg = true;
+                var end = i + 1;
+                while (end < line.length() && line.charAt(end) != c) {
+                    if (c == '"' && line.charAt(end) == '\\' && end + 1 < line.length()) {
+                        end++;
+                    }
+                    arg.append(line.charAt(end++));
+                }
+                if (end == line.length()) {
+                    throw new IllegalArgumentException(String.format("unclosed %c", c));
+                }
+                i = end;
+            } else {
+                inArg = true;
+                arg.append(c);
+            }
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args;
+    }
+
+    /**
+     * Command line access to running a script of operations.
+     *
+     * <P>
+     * Syntax for invoking this utility is:
+     *
+     * <PRE>
+     * <CODE>java [options] \
+     *     com.github.argherna.preftool.RunPreferencesScript [options]</CODE>
+     * </PRE>
+     *
+     * <P>
+     * The script is read from {@link System#in} unless a file is given. Its
+     * format is described in {@link RunPreferencesScript}.
+     *
+     * <P>
+     * The command line options used are:
+     * <DL>
+     * <DT><CODE>-f &lt;script-file&gt;</CODE>
+     * <DD>Name of a UTF-8 file to read the script from. Use <CODE>-</CODE> for
+     * {@link System#in}.
+     * </DL>
+     *
+     * <P>
+     * The system properties you can set are:
+     * <DL>
+     * <DT><CODE>com.github.argherna.preftool.dryRun</CODE>
+     * <DD>If <CODE>true</CODE>, do not read or run anything but print the name of
+     * the class, root and file name and exit with status <CODE>2</CODE>.
+     * <DT><CODE>com.github.argherna.preftool.systemRoot</CODE>
+     * <DD>If <CODE>true</CODE>, node names without a root prefix are under the
+     * system root. By default, they are under the user root.
+     * <DT><CODE>com.github.argherna.preftool.suppressFlush</CODE>
+     * <DD>If <CODE>true</CODE>, do not flush (commit) the changes at checkpoints
+     * or at the end. Imports are still flushed as they go.
+     * </DL>
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+
+        var filename = "-";
+        var argsCount = 0;
+        while (argsCount < args.length) {
+            var arg = args[argsCount];
+            if (arg.equals("-f") && argsCount + 1 < args.length) {
+                filename = args[++argsCount];
+            } else {
+                System.err.printf("Unsupported arg \"%s\"%n", arg);
+                System.err.printf("Usage: %s [-f <script-file>]%n", RunPreferencesScript.class.getName());
+                System.exit(1);
+            }
+            argsCount++;
+        }
+
+        if (DRY_RUN) {
+            var root = SYSTEM_ROOT ? "system" : "user";
+            var fname = filename.equals("-") ? "<stdin>" : filename;
+            System.err.printf("%s Dry Run: root=%s,filename=%s%n", RunPreferencesScript.class, root, fname);
+            System.exit(2);
+        }
+
+        try (var reader = new BufferedReader(new InputStreamReader(
+                filename.equals("-") ? System.in : FileChannels.newInputStream(Path.of(filename)), UTF_8))) {
+            new RunPreferencesScript(reader, SYSTEM_ROOT, !SUPPRESS_FLUSH).call();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -3,19 +3,52 @@ package com.github.argherna.preftool.runtime.ui;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.util.Objects;
 
 import javax.swing.JFileChooser;
 import javax.swing.filechooser.FileSystemView;
 
+import com.github.argherna.preftool.Compression;
 import com.github.argherna.preftool.ExportPreferences;
+import com.github.argherna.preftool.FileChannels;
 
 /**
  * An Action that exports a Preferences node.
  */
 public class ExportUIAction extends AbstractPreferenceUIAction {
 
+    /**
+     * {@systemProperty com.github.argherna.preftool.runtime.ui.exportParallelism}
+     * sets the number of threads exports read nodes with. The default is the
+     * number of available processors.
+     */
+    static final int EXPORT_PARALLELISM = Integer.getInteger(
+            ExportUIAction.class.getPackageName() + ".exportParallelism", Runtime.getRuntime().availableProcessors());
+
+    private final int parallelism;
+
+    /**
+     * Construct a new ExportUIAction that reads nodes with the number of threads
+     * set by the {@code exportParallelism} system property.
+     */
+    public ExportUIAction() {
+        this(EXPORT_PARALLELISM);
+    }
+
+    /**
+     * Construct a new ExportUIAction.
+     *
+     * @param parallelism the number of threads to read nodes with.
+     * @throws IllegalArgumentException if parallelism is less than 1.
+     */
+    public ExportUIAction(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Parallelism must be at least 1 (was given %d)", parallelism));
+        }
+        this.parallelism = parallelism;
+    }
+
     /**
      * Processes the given ActionEvent.
      *
@@ -24,7 +57,9 @@ public class ExportUIAction extends AbstractPreferenceUIAction {
      * the ActionEvent
      * and if a file to save the output to is selected. Errors are logged and
      * feedback is given to
-     * the user.
+     * the user. The XML is compressed if the file name ends with {@code .gz}
+     * (gzip) or {@code .zz} or {@code .deflate} (deflate). The file is written
+     * through a large direct buffer.
      *
      * @param e the ActionEvent.
      */
@@ -40,9 +75,10 @@ public class ExportUIAction extends AbstractPreferenceUIAction {
             return;
         }
 
-        try (var outputStream = new FileOutputStream(saveFile);) {
+        try (var outputStream = FileChannels.newOutputStream(saveFile.toPath());) {
             var exporter = new ExportPreferences(preferences, outputStream,
-                    e.getActionCommand().equals("Node"));
+                    e.getActionCommand().equals("Node"), parallelism,
+                    Compression.forFileName(saveFile.getName()));
             exporter.call();
         } catch (Exception ex) {
             handleUIError(ex, "Export error", (Component) e.getSource());
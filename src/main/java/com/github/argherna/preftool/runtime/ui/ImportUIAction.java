@@ -3,39 +3,77 @@ package com.github.argherna.preftool.runtime.ui;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.io.File;
-import java.io.FileInputStream;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.prefs.BackingStoreException;
-import java.util.prefs.Preferences;
 
 import javax.swing.JFileChooser;
 import javax.swing.JTree;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileSystemView;
 
+import com.github.argherna.preftool.FileChannels;
 import com.github.argherna.preftool.ImportPreferences;
+import com.github.argherna.preftool.ImportProgress;
 
 /**
  * An Action that imports Preferences from an XML file.
  */
 public class ImportUIAction extends AbstractPreferenceUIAction {
 
+    /**
+     * {@systemProperty com.github.argherna.preftool.runtime.ui.importBatchSize}
+     * sets the number of nodes imports write between flushes. The default is
+     * 1000.
+     */
+    static final int IMPORT_BATCH_SIZE = Integer.getInteger(
+            ImportUIAction.class.getPackageName() + ".importBatchSize", 1000);
+
     private final JTree preferencesNodeTree;
 
+    private final int batchSize;
+
     /**
-     * Construct a new ImportUIAction.
+     * Construct a new ImportUIAction that writes nodes in batches of the size set
+     * by the {@code importBatchSize} system property.
      *
      * @param preferencesNodeTree JTree to be updated after a successful import.
      */
     public ImportUIAction(JTree preferencesNodeTree) {
+        this(preferencesNodeTree, IMPORT_BATCH_SIZE);
+    }
+
+    /**
+     * Construct a new ImportUIAction.
+     *
+     * @param preferencesNodeTree JTree to be updated after a successful import.
+     * @param batchSize           the number of nodes to write between flushes.
+     * @throws IllegalArgumentException if batchSize is less than 1.
+     */
+    public ImportUIAction(JTree preferencesNodeTree, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                    String.format("Batch size must be at least 1 (was given %d)", batchSize));
+        }
         this.preferencesNodeTree = preferencesNodeTree;
+        this.batchSize = batchSize;
     }
 
     /**
      * {@inheritDoc}
-     * 
+     *
      * <P>
      * This implementation will open a file to import its data into the Preferences.
-     * 
-     * @see Preferences#importPreferences(java.io.InputStream)
+     * The file is read through memory mappings. Files compressed with gzip or
+     * deflate are decompressed. The import runs in
+     * the background, in batches, with a progress monitor showing the nodes and
+     * keys imported and how much of the file has been read. Cancelling the
+     * monitor stops the import after the batch being written; the batches
+     * already written are kept.
+     *
+     * @see ImportPreferences
      */
     @Override
     public void actionPerformed(ActionEvent e) {
@@ -44,30 +82,17 @@ public class ImportUIAction extends AbstractPreferenceUIAction {
             return;
         }
 
-        // Import the XML file.
-        try (var inputStream = new FileInputStream(importFile);) {
-            var importer = new ImportPreferences(inputStream);
-            importer.call();
-        } catch (Exception ex) {
-            handleUIError(ex, "Import error", (Component) e.getSource());
-            return;
-        }
-
-        // Update the user interface (eagerly)
-        var modelFactory = new PreferencesTreeModelFactory();
-        try {
-            var refreshedImportedModel = modelFactory.create();
-            preferencesNodeTree.setModel(refreshedImportedModel);
-        } catch (BackingStoreException e1) {
-            e1.printStackTrace();
-        }
+        var parent = (Component) e.getSource();
+        var monitor = new ProgressMonitor(parent, String.format("Importing %s", importFile.getName()), "", 0,
+                100);
+        new ImportWorker(importFile, monitor, parent).execute();
     }
 
     /**
      * Return the File representing from where the imported Preferences data will be
      * read. If the user cancels the load,
      * {@link AbstractPreferenceUIAction#DEV_NULL} is returned.
-     * 
+     *
      * @return File object
      */
     private File getImportFile() {
@@ -79,4 +104,92 @@ public class ImportUIAction extends AbstractPreferenceUIAction {
         }
         return importFile;
     }
+
+    /**
+     * Imports the file off the event dispatch thread, publishing the progress
+     * reports to the progress monitor. The import is stopped at the next batch
+     * once the monitor has been cancelled.
+     *
+     * <P>
+     * The worker itself is never cancelled, since that would call {@link #done()}
+     * while the batch being written is still being flushed, and interrupting the
+     * import could close the file being read under it. Instead the progress
+     * callback stops the import and {@code done()} runs once it has.
+     */
+    private final class ImportWorker extends SwingWorker<Void, ImportProgress> {
+
+        private final File importFile;
+
+        private final long length;
+
+        private final ProgressMonitor monitor;
+
+        private final Component parent;
+
+        private volatile boolean stopped;
+
+        ImportWorker(File importFile, ProgressMonitor monitor, Component parent) {
+            this.importFile = importFile;
+            this.length = Math.max(importFile.length(), 1);
+            this.monitor = monitor;
+            this.parent = parent;
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            try (var inputStream = FileChannels.newInputStream(importFile.toPath())) {
+                var importer = new ImportPreferences(inputStream, false, 1, batchSize, this::report);
+                importer.call();
+            }
+            return null;
+        }
+
+        /**
+         * Publishes a report made after a batch was flushed, or stops the import if
+         * the monitor has been cancelled.
+         *
+         * @throws CancellationException if the monitor has been cancelled.
+         */
+        private void report(ImportProgress progress) {
+            if (stopped) {
+                throw new CancellationException(String.format("Import of %s cancelled", importFile));
+            }
+            publish(progress);
+        }
+
+        @Override
+        protected void process(List<ImportProgress> reports) {
+            if (monitor.isCanceled()) {
+                stopped = true;
+                return;
+            }
+            var progress = reports.get(reports.size() - 1);
+            monitor.setNote(progress.toString());
+            monitor.setProgress((int) Math.min(99, progress.getBytesRead() * 100 / length));
+        }
+
+        @Override
+        protected void done() {
+            monitor.close();
+            try {
+                get();
+            } catch (InterruptedException | ExecutionException ex) {
+                if (!(stopped && ex.getCause() instanceof CancellationException)) {
+                    var cause = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                    handleUIError(cause, "Import error", parent);
+                    return;
+                }
+                // cancelled from the monitor; show what was imported before it stopped
+            }
+
+            // Update the user interface (eagerly)
+            var modelFactory = new PreferencesTreeModelFactory();
+            try {
+                var refreshedImportedModel = modelFactory.create();
+                preferencesNodeTree.setModel(refreshedImportedModel);
+            } catch (BackingStoreException e1) {
+                e1.printStackTrace();
+            }
+        }
+    }
 }
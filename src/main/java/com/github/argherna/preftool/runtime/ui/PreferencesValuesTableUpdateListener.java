@@ -50,16 +50,13 @@ public class PreferencesValuesTableUpdateListener extends AbstractTreeSelectionL
         var nodeAddress = renderPreferencesNodeAddress(treePath);
 
         try {
-            var pref = toPreferences(nodeAddress);
-            if (pref.keys().length > 0) {
-                var keys = pref.keys();
-                for (int i = 0; i < keys.length; i++) {
-                    var valueType = PreferencesUtilities.guessType(pref, keys[i]);
-                    var valueTypeName = valueType.getName().startsWith("[B") ? "byte []" : valueType.getName();
+            var snapshot = PreferencesUtilities.snapshot(toPreferences(nodeAddress));
+            for (int i = 0; i < snapshot.size(); i++) {
+                var valueType = snapshot.getType(i);
+                var valueTypeName = valueType.getName().startsWith("[B") ? "byte []" : valueType.getName();
 
-                    tableModel.insertRow(i, new Object[] { keys[i], valueTypeName,
-                            PreferencesUtilities.getTypedValueFrom(pref, keys[i], valueType) });
-                }
+                tableModel.insertRow(i, new Object[] { snapshot.getKey(i), valueTypeName,
+                        snapshot.getTypedValue(i) });
             }
         } catch (BackingStoreException ex) {
             var message = String.format("Preferences problem while building table view: %s",
@@ -0,0 +1,70 @@
+package com.github.argherna.preftool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class CopyPreferencesTest {
+
+    private static final int WIDTH = 64;
+
+    @Test
+    @Timeout(30)
+    void copiesLargeTrees() throws BackingStoreException {
+        var source = tree(path -> false);
+        var destination = FailingMemoryPreferences.root();
+
+        var statistics = new CopyPreferences(source, destination.node("copy"), 4).call();
+
+        assertEquals(1 + WIDTH + WIDTH * WIDTH, statistics.getNodes());
+        assertEquals(2L * WIDTH * WIDTH, statistics.getKeys());
+        assertEquals("v", destination.node("copy/c63/g63").get("k0", null));
+    }
+
+    @Test
+    @Timeout(30)
+    void reportsReadFailureWithoutLeavingReadersBlocked() throws Exception {
+        var source = tree(path -> path.equals("/c3"));
+        var destination = new FailingMemoryPreferences(path -> false, TimeUnit.MICROSECONDS.toNanos(200));
+
+        var e = assertThrows(BackingStoreException.class,
+                () -> new CopyPreferences(source, destination.node("copy"), 4).call());
+
+        assertEquals("Can't read the keys of /c3", e.getMessage());
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (readerThreads() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, readerThreads());
+        assertFalse(destination.node("copy").nodeExists("c3/g0"));
+    }
+
+    /**
+     * Returns a tree {@link #WIDTH} nodes wide and two levels deep whose leaves
+     * have two keys each.
+     */
+    private static Preferences tree(Predicate<String> failKeysOf) {
+        var root = new FailingMemoryPreferences(failKeysOf, 0);
+        for (var i = 0; i < WIDTH; i++) {
+            for (var j = 0; j < WIDTH; j++) {
+                var leaf = root.node(String.format("c%d/g%d", i, j));
+                leaf.put("k0", "v");
+                leaf.put("k1", "v");
+            }
+        }
+        return root;
+    }
+
+    private static long readerThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith(CopyPreferences.READER_THREAD_PREFIX)).count();
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.argherna.preftool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.prefs.Preferences;
+
+import org.junit.jupiter.api.Test;
+
+class ExportPreferencesTest {
+
+    @Test
+    void comparesPathsANameAtATime() {
+        assertTrue(ExportPreferences.comparePaths("/a", "/a/x") < 0);
+        assertTrue(ExportPreferences.comparePaths("/a/x", "/a-b") < 0);
+        assertTrue(ExportPreferences.comparePaths("/a-b", "/b") < 0);
+        assertEquals(0, ExportPreferences.comparePaths("/a/x", "/a/x"));
+    }
+
+    @Test
+    void writesNodesInsideAnotherExportedSubtreeOnce() throws Exception {
+        var root = new MemoryPreferences();
+        root.node("a").put("k", "a");
+        root.node("a-b").put("k", "a-b");
+        root.node("a/x").put("k", "x");
+
+        var out = new ByteArrayOutputStream();
+        new ExportPreferences(List.<Preferences>of(root.node("a"), root.node("a-b"), root.node("a/x")), out,
+                false, 1, Compression.NONE, PreferencesFormat.NDJSON, null, PreferencesFilter.ACCEPT_ALL).call();
+
+        var paths = out.toString(UTF_8).lines().map(line -> line.replaceAll(".*\"path\":\"([^\"]*)\".*", "$1"))
+                .toArray();
+        assertEquals(List.of("/a", "/a/x", "/a-b"), List.of(paths));
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.argherna.preftool;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.prefs.AbstractPreferences;
+import java.util.prefs.BackingStoreException;
+
+/**
+ * Preferences kept in memory, for tests. Unlike {@link MemoryPreferences},
+ * reading the keys of a node can be made to fail and writing a key can be made
+ * slow.
+ */
+class FailingMemoryPreferences extends AbstractPreferences {
+
+    private final Map<String, String> values = new TreeMap<>();
+
+    private final Map<String, FailingMemoryPreferences> children = new TreeMap<>();
+
+    private final Predicate<String> failKeysOf;
+
+    private final long putDelayNanos;
+
+    /**
+     * Constructs a root node.
+     *
+     * @param failKeysOf    accepts the absolute paths of nodes whose keys can't
+     *                      be read.
+     * @param putDelayNanos how long writing a key takes.
+     */
+    FailingMemoryPreferences(Predicate<String> failKeysOf, long putDelayNanos) {
+        this(null, "", failKeysOf, putDelayNanos);
+    }
+
+    private FailingMemoryPreferences(FailingMemoryPreferences parent, String name, Predicate<String> failKeysOf,
+            long putDelayNanos) {
+        super(parent, name);
+        this.failKeysOf = failKeysOf;
+        this.putDelayNanos = putDelayNanos;
+    }
+
+    /**
+     * @return a root node that doesn't fail and writes without delay.
+     */
+    static FailingMemoryPreferences root() {
+        return new FailingMemoryPreferences(path -> false, 0);
+    }
+
+    @Override
+    protected void putSpi(String key, String value) {
+        if (putDelayNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(putDelayNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        values.put(key, value);
+    }
+
+    @Override
+    protected String getSpi(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    protected void removeSpi(String key) {
+        values.remove(key);
+    }
+
+    @Override
+    protected void removeNodeSpi() {
+        ((FailingMemoryPreferences) parent()).children.remove(name());
+    }
+
+    @Override
+    protected String[] keysSpi() throws BackingStoreException {
+        if (failKeysOf.test(absolutePath())) {
+            throw new BackingStoreException(String.format("Can't read the keys of %s", absolutePath()));
+        }
+        return values.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    protected String[] childrenNamesSpi() {
+        return children.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    protected AbstractPreferences childSpi(String name) {
+        return children.computeIfAbsent(name, n -> new FailingMemoryPreferences(this, n, failKeysOf, putDelayNanos));
+    }
+
+    @Override
+    protected void syncSpi() {
+        // nothing is kept anywhere else
+    }
+
+    @Override
+    protected void flushSpi() {
+        // nothing is kept anywhere else
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.argherna.preftool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileChannelsTest {
+
+    private static final byte[] DOCUMENT = ("{\"root\":\"user\",\"path\":\"/a\",\"key\":\"k\","
+            + "\"type\":\"String\",\"value\":\"v\"}\n").getBytes(UTF_8);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mapsRegularFiles() throws IOException {
+        var file = Files.write(dir.resolve("prefs.json"), DOCUMENT);
+        try (var in = FileChannels.newInputStream(file)) {
+            assertTrue(in instanceof FileChannels.MappedInputStream);
+            assertArrayEquals(DOCUMENT, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void readsEmptyRegularFiles() throws IOException {
+        var file = Files.createFile(dir.resolve("empty.json"));
+        try (var in = FileChannels.newInputStream(file)) {
+            assertFalse(in instanceof FileChannels.MappedInputStream);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void readsFifos() throws Exception {
+        var fifo = mkfifo();
+        var writer = writeLater(fifo);
+        try (var in = FileChannels.newInputStream(fifo)) {
+            assertFalse(in instanceof FileChannels.MappedInputStream);
+            assertTrue(in.markSupported());
+            assertArrayEquals(DOCUMENT, in.readAllBytes());
+        }
+        writer.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @Timeout(10)
+    void readsFifoChannelsWithoutClosingThem() throws Exception {
+        var fifo = mkfifo();
+        var writer = writeLater(fifo);
+        try (var channel = FileChannel.open(fifo, StandardOpenOption.READ)) {
+            try (var in = FileChannels.newInputStream(channel, 0)) {
+                assertArrayEquals(DOCUMENT, in.readAllBytes());
+            }
+            assertTrue(channel.isOpen());
+        }
+        writer.get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Makes a FIFO in the temporary directory, skipping the test where FIFOs can't
+     * be made.
+     */
+    private Path mkfifo() throws InterruptedException {
+        var fifo = dir.resolve("prefs.fifo");
+        int status;
+        try {
+            status = new ProcessBuilder("mkfifo", fifo.toString()).start().waitFor();
+        } catch (IOException e) {
+            status = -1;
+        }
+        assumeTrue(status == 0, "mkfifo is not available");
+        return fifo;
+    }
+
+    private static CompletableFuture<Void> writeLater(Path fifo) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Files.write(fifo, DOCUMENT);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
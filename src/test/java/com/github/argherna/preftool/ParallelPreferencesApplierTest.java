@@ -0,0 +1,41 @@
+package com.github.argherna.preftool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class ParallelPreferencesApplierTest {
+
+    @Test
+    @Timeout(30)
+    void dropsQueuedNodesWhenClosedWhileWriting() throws Exception {
+        var uncaught = new CopyOnWriteArrayList<Throwable>();
+        var handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> uncaught.add(e));
+        try {
+            var root = new FailingMemoryPreferences(path -> false, TimeUnit.MILLISECONDS.toNanos(1));
+            var applier = new ParallelPreferencesApplier(root, new MemoryPreferences(false), 2);
+            applier.startRoot("user");
+            for (var i = 0; i < 300; i++) {
+                var path = String.format("/%s/n%d", i % 2 == 0 ? "a" : "b", i);
+                applier.startNode(path);
+                applier.entry("k", "v");
+                applier.endNode(path);
+            }
+
+            applier.close();
+
+            // every queued node gives its place back, so this doesn't wait forever
+            applier.endDocument();
+            TimeUnit.MILLISECONDS.sleep(200);
+            assertEquals(List.of(), uncaught);
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.argherna.preftool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class PreferencesDiffTest {
+
+    private static final int WIDTH = 32;
+
+    @Test
+    @Timeout(30)
+    void reportsAddedSubtreesInParallel() throws BackingStoreException {
+        var listener = new CountingListener();
+
+        var differences = new PreferencesDiff(new MemoryPreferences(), tree(path -> false), listener, 4).call();
+
+        assertEquals(WIDTH + WIDTH * WIDTH, listener.nodesAdded.get());
+        assertEquals(2L * WIDTH * WIDTH, listener.keysAdded.get());
+        assertEquals(listener.nodesAdded.get() + listener.keysAdded.get(), differences);
+    }
+
+    @Test
+    void reportsAddedNodesInPathOrder() throws BackingStoreException {
+        var before = new MemoryPreferences();
+        before.node("b");
+        var after = new MemoryPreferences();
+        after.node("a/x");
+        after.node("a/y");
+        after.node("b/z");
+        var paths = new ArrayList<String>();
+
+        new PreferencesDiff(before, after, new CountingListener() {
+            @Override
+            public void nodeAdded(String path) {
+                paths.add(path);
+            }
+        }).call();
+
+        assertEquals(List.of("/a", "/a/x", "/a/y", "/b/z"), paths);
+    }
+
+    @Test
+    @Timeout(30)
+    void stopsReportingWhenAComparisonFails() throws Exception {
+        var listener = new CountingListener();
+
+        var e = assertThrows(BackingStoreException.class,
+                () -> new PreferencesDiff(new MemoryPreferences(), tree(path -> path.equals("/c3")), listener, 4)
+                        .call());
+
+        assertEquals("Can't read the keys of /c3", e.getMessage());
+        var reported = listener.nodesAdded.get() + listener.keysAdded.get();
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(reported, listener.nodesAdded.get() + listener.keysAdded.get());
+    }
+
+    /**
+     * Returns a tree {@link #WIDTH} nodes wide and two levels deep whose leaves
+     * have two keys each.
+     */
+    private static Preferences tree(Predicate<String> failKeysOf) {
+        var root = new FailingMemoryPreferences(failKeysOf, 0);
+        for (var i = 0; i < WIDTH; i++) {
+            for (var j = 0; j < WIDTH; j++) {
+                var leaf = root.node(String.format("c%d/g%d", i, j));
+                leaf.put("k0", "v");
+                leaf.put("k1", "v");
+            }
+        }
+        return root;
+    }
+
+    private static class CountingListener implements PreferencesDiff.Listener {
+
+        final AtomicLong nodesAdded = new AtomicLong();
+
+        final AtomicLong keysAdded = new AtomicLong();
+
+        @Override
+        public void nodeAdded(String path) {
+            nodesAdded.incrementAndGet();
+        }
+
+        @Override
+        public void nodeRemoved(String path) {
+            throw new AssertionError(path);
+        }
+
+        @Override
+        public void keyAdded(String path, String key, String value) {
+            keysAdded.incrementAndGet();
+        }
+
+        @Override
+        public void keyRemoved(String path, String key, String value) {
+            throw new AssertionError(path);
+        }
+
+        @Override
+        public void keyChanged(String path, String key, String oldValue, String newValue) {
+            throw new AssertionError(path);
+        }
+    }
+}
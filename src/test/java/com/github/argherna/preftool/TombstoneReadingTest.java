@@ -0,0 +1,99 @@
+package com.github.argherna.preftool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.prefs.InvalidPreferencesFormatException;
+
+import org.junit.jupiter.api.Test;
+
+class TombstoneReadingTest {
+
+    @Test
+    void readsXmlTombstonesOnlyWhenAsked() throws Exception {
+        readsTombstonesOnlyWhenAsked(PreferencesFormat.XML);
+    }
+
+    @Test
+    void readsNdjsonTombstonesOnlyWhenAsked() throws Exception {
+        readsTombstonesOnlyWhenAsked(PreferencesFormat.NDJSON);
+    }
+
+    @Test
+    void readsBinaryTombstonesOnlyWhenAsked() throws Exception {
+        readsTombstonesOnlyWhenAsked(PreferencesFormat.BINARY);
+    }
+
+    private static void readsTombstonesOnlyWhenAsked(PreferencesFormat format) throws Exception {
+        var delta = delta(format);
+
+        assertThrows(InvalidPreferencesFormatException.class,
+                () -> format.read(new ByteArrayInputStream(delta), new RecordingHandler(), false));
+
+        var handler = new RecordingHandler();
+        format.read(new ByteArrayInputStream(delta), handler, true);
+        assertEquals(List.of("removeKey gone", "removeNode /a/old"), handler.removals);
+    }
+
+    @Test
+    void validatesTombstonesOnlyWhenAsked() throws Exception {
+        for (var format : PreferencesFormat.values()) {
+            var delta = delta(format);
+
+            assertThrows(InvalidPreferencesFormatException.class,
+                    () -> new PreferencesValidator(false).validate(new ByteArrayInputStream(delta)), format.name());
+
+            assertEquals(format, new PreferencesValidator(true).validate(new ByteArrayInputStream(delta)));
+        }
+    }
+
+    /**
+     * Returns a delta of {@code /a} that removes a key and a child node.
+     */
+    private static byte[] delta(PreferencesFormat format) throws Exception {
+        var baseline = new MemoryPreferences();
+        baseline.node("a").put("gone", "1");
+        baseline.node("a/old");
+        var current = new MemoryPreferences();
+        current.node("a").put("kept", "1");
+
+        var out = new ByteArrayOutputStream();
+        new ExportPreferences(List.of(current.node("a")), out, false, 1, Compression.NONE, format,
+                node -> baseline.node(node.absolutePath()), PreferencesFilter.ACCEPT_ALL).call();
+        return out.toByteArray();
+    }
+
+    private static final class RecordingHandler implements PreferencesHandler {
+
+        private final List<String> removals = new ArrayList<>();
+
+        @Override
+        public void startNode(String path) {
+            // only removals are recorded
+        }
+
+        @Override
+        public void entry(String key, String value) {
+            // only removals are recorded
+        }
+
+        @Override
+        public void removeKey(String key) {
+            removals.add("removeKey " + key);
+        }
+
+        @Override
+        public void removeNode(String path) {
+            removals.add("removeNode " + path);
+        }
+
+        @Override
+        public void endNode(String path) {
+            // only removals are recorded
+        }
+    }
+}